@@ -0,0 +1,151 @@
+package co.empathy.academy.search.util.indexutils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of the ingest hot paths over a small {@link SyntheticDataset}: each mapper alone on a single title, the
+ * merge join of the files into raw titles and the serialization of those titles into a bulk body. Operations are
+ * titles (or lines, for the mappers), so the gc profiler reports the bytes allocated per title.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+    private static final int TITLES = 2_000;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .setRootValueSeparator(null)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private Path directory;
+    private ImdbFiles files;
+    private NameDictionary nameBasics;
+    private BatchReader.Headers headers;
+    private List<RawTitle> titles;
+    private RawTitle title;
+    private TitleDocumentWriter writer;
+    private final TsvCursor line = TsvCursor.tabs();
+    private final TsvCursor items = TsvCursor.commas();
+    private final NameDictionary.Entry entry = new NameDictionary.Entry();
+    private final BulkBuffer buffer = new BulkBuffer(16 << 20);
+    private JsonGenerator json;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("ingest-benchmark");
+        files = SyntheticDataset.write(SyntheticDataset.Shape.of(42, TITLES), directory);
+        Episodes.prepare(files.episodes());
+        nameBasics = NameDictionary.open(files.nameBasics());
+
+        try (var reader = reader()) {
+            headers = reader.headers();
+            writer = reader.documentWriter();
+            titles = new ArrayList<>();
+            while (!reader.hasFinished())
+                titles.addAll(reader.readBatch());
+        }
+        if (titles.size() != TITLES)
+            throw new IllegalStateException("Dataset has " + titles.size() + " titles");
+
+        //A title with every kind of line, so every mapper has something to write
+        title = titles.stream()
+                .filter(candidate -> candidate.akasLines().size() >= 2 && candidate.principalsLines().size() >= 3)
+                .findFirst()
+                .orElseThrow();
+        json = JSON_FACTORY.createGenerator(buffer);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        json.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (var path : paths.sorted(Comparator.reverseOrder()).toList())
+                Files.delete(path);
+        }
+    }
+
+    @Benchmark
+    public int addFilm() throws IOException {
+        buffer.reset();
+        json.writeStartObject();
+        Film.addFilm(line.reset(title.filmLine()), items, json, headers.films());
+        json.writeEndObject();
+        json.flush();
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int addAkas() throws IOException {
+        buffer.reset();
+        json.writeStartObject();
+        Akas.addAkas(title.akasLines(), line, json, headers.akas());
+        json.writeEndObject();
+        json.flush();
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int addPrincipals() throws IOException {
+        buffer.reset();
+        json.writeStartObject();
+        Principals.addPrincipals(title.principalsLines(), line, json, headers.principals(), nameBasics, entry);
+        json.writeEndObject();
+        json.flush();
+        return buffer.size();
+    }
+
+    /**
+     * Reads every title of the dataset, in batches
+     */
+    @Benchmark
+    @OperationsPerInvocation(TITLES)
+    public int readBatches() throws IOException {
+        int read = 0;
+        try (var reader = reader()) {
+            while (!reader.hasFinished())
+                read += reader.readBatch().size();
+        }
+        return read;
+    }
+
+    /**
+     * Writes the bulk body of every title of the dataset
+     */
+    @Benchmark
+    @OperationsPerInvocation(TITLES)
+    public int writeBulkBody() throws IOException {
+        buffer.reset();
+        for (int i = 0; i < titles.size(); i++)
+            writer.write(titles.get(i), buffer);
+        return buffer.size();
+    }
+
+    private BatchReader reader() throws IOException {
+        return new BatchReader(files, nameBasics, TsvFileSeeker.TconstRange.ALL, 1000);
+    }
+}
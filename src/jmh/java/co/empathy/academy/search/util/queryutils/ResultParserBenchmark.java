@@ -0,0 +1,53 @@
+package co.empathy.academy.search.util.queryutils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the search responses built by the {@link ResultParser} from a recorded
+ * Elasticsearch response of 20 films with a genres aggregation, read as the bytes the client receives
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultParserBenchmark {
+    private byte[] response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        try (var input = ResultParserBenchmark.class.getResourceAsStream("/responses/search.json")) {
+            response = input.readAllBytes();
+        }
+    }
+
+    @Benchmark
+    public byte[] getResultsAsBytes() {
+        return ResultParser.getResultsAsBytes(Optional.empty(), response);
+    }
+
+    @Benchmark
+    public byte[] getResultsAsBytesWithAggregation() {
+        return ResultParser.getResultsAsBytes(Optional.of("genres"), response);
+    }
+
+    @Benchmark
+    public byte[] getResults() {
+        return ResultParser.getResults(response);
+    }
+}
@@ -0,0 +1,100 @@
+package co.empathy.academy.search.config;
+
+import co.empathy.academy.search.util.ClientCustomConfiguration;
+import co.empathy.academy.search.util.indexutils.CheckpointStore;
+import co.empathy.academy.search.util.indexutils.DeadLetterSpool;
+import co.empathy.academy.search.util.indexutils.FingerprintStore;
+import co.empathy.academy.search.util.indexutils.IndexVersions;
+import co.empathy.academy.search.util.indexutils.IngestJobs;
+import co.empathy.academy.search.util.indexutils.IngestMetrics;
+import co.empathy.academy.search.util.indexutils.IngestSettings;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.nio.file.Path;
+
+@Configuration
+public class IngestConfig {
+
+    /**
+     * Concurrency of the ingest pipeline. Any value set to 0 is sized from the number of available cores.
+     */
+    @Bean
+    public IngestSettings ingestSettings(@Value("${ingest.batch-size:1000}") int batchSize,
+                                         @Value("${ingest.bulk-bytes:10485760}") int bulkBytes,
+                                         @Value("${ingest.bulk-latency-ms:2000}") int bulkLatency,
+                                         @Value("${ingest.read-partitions:0}") int readPartitions,
+                                         @Value("${ingest.parse-workers:0}") int parseWorkers,
+                                         @Value("${ingest.bulk-senders:0}") int bulkSenders,
+                                         @Value("${ingest.queue-capacity:0}") int queueCapacity) {
+        return IngestSettings.of(batchSize, bulkBytes, bulkLatency, readPartitions, parseWorkers, bulkSenders, queueCapacity);
+    }
+
+    /**
+     * File where the documents Elasticsearch refuses are kept until they are replayed
+     */
+    @Bean
+    @Primary
+    public DeadLetterSpool deadLetterSpool(@Value("${ingest.dead-letter-file:dead-letters/films.ndjson}") String file) {
+        return new DeadLetterSpool(Path.of(file));
+    }
+
+    /**
+     * File where the people Elasticsearch refuses are kept. They are not replayed: rebuilding the names index is cheap
+     */
+    @Bean
+    public DeadLetterSpool namesDeadLetterSpool(@Value("${ingest.names-dead-letter-file:dead-letters/names.ndjson}") String file) {
+        return new DeadLetterSpool(Path.of(file));
+    }
+
+    /**
+     * File where the progress of the running ingest job is saved, so it can be resumed if it does not finish
+     */
+    @Bean
+    public CheckpointStore checkpointStore(@Value("${ingest.checkpoint-file:checkpoints/films.json}") String file) {
+        return new CheckpointStore(Path.of(file));
+    }
+
+    /**
+     * Versions of the films index, searched through the films alias
+     */
+    @Bean
+    @Primary
+    public IndexVersions filmsIndexVersions(@Value("${ingest.serving-replicas:1}") int servingReplicas) {
+        return new IndexVersions(ClientCustomConfiguration.getClient(), ClientCustomConfiguration.getRestClient(),
+                "films", "mappings.json", servingReplicas);
+    }
+
+    /**
+     * Versions of the names index, searched through the names alias
+     */
+    @Bean
+    public IndexVersions namesIndexVersions(@Value("${ingest.serving-replicas:1}") int servingReplicas) {
+        return new IndexVersions(ClientCustomConfiguration.getClient(), ClientCustomConfiguration.getRestClient(),
+                "names", "names-mappings.json", servingReplicas);
+    }
+
+    /**
+     * Directory with the fingerprints of what is indexed, which delta jobs compare the files with
+     */
+    @Bean
+    public FingerprintStore fingerprintStore(@Value("${ingest.fingerprints-dir:fingerprints}") String directory) {
+        return new FingerprintStore(Path.of(directory));
+    }
+
+    /**
+     * Meters of the ingest jobs, published through the actuator
+     */
+    @Bean
+    public IngestMetrics ingestMetrics(MeterRegistry registry) {
+        return new IngestMetrics(registry);
+    }
+
+    @Bean
+    public IngestJobs ingestJobs(IngestMetrics ingestMetrics) {
+        return new IngestJobs(ingestMetrics);
+    }
+}
@@ -0,0 +1,48 @@
+package co.empathy.academy.search.config;
+
+import co.empathy.academy.search.util.ClientCustomConfiguration;
+import co.empathy.academy.search.util.indexutils.IndexVersions;
+import co.empathy.academy.search.util.queryutils.SearchCache;
+import co.empathy.academy.search.util.queryutils.SearchLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.elasticsearch.client.RestClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class SearchConfig {
+
+    /**
+     * Responses of /api/search, dropped whenever an ingest changes what the films alias points to
+     */
+    @Bean
+    public SearchCache searchCache(@Value("${search.cache.max-entries:10000}") int maxEntries,
+                                   @Value("${search.cache.max-bytes:67108864}") long maxBytes,
+                                   @Value("${search.cache.max-entry-bytes:1048576}") int maxEntryBytes,
+                                   @Value("${search.cache.ttl-seconds:300}") long ttlSeconds,
+                                   MeterRegistry registry, IndexVersions filmsIndexVersions) {
+        var cache = new SearchCache(maxEntries, maxBytes, maxEntryBytes, Duration.ofSeconds(ttlSeconds), registry);
+        filmsIndexVersions.onChange(cache::invalidate);
+        return cache;
+    }
+
+    /**
+     * Searches sent to Elasticsearch and not answered yet, past which new ones are refused
+     */
+    @Bean
+    public SearchLimiter searchLimiter(@Value("${search.max-in-flight:1000}") int maxInFlight, MeterRegistry registry) {
+        return new SearchLimiter(maxInFlight, registry);
+    }
+
+    /**
+     * Low-level client searches are sent through, with a connection for every search let in flight, so they neither
+     * queue in the client nor wait behind the bulks of an ingest
+     */
+    @Bean(destroyMethod = "close")
+    public RestClient searchRestClient(@Value("${search.max-in-flight:1000}") int maxInFlight) {
+        return ClientCustomConfiguration.restClient(maxInFlight);
+    }
+}
@@ -1,13 +1,21 @@
 package co.empathy.academy.search.controllers;
 
 import co.elastic.clients.elasticsearch._types.ElasticsearchException;
-import co.elastic.clients.elasticsearch.core.BulkResponse;
-import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
 import co.elastic.clients.elasticsearch.indices.CreateIndexRequest;
 import co.empathy.academy.search.exception.*;
 import co.empathy.academy.search.util.ClientCustomConfiguration;
-import co.empathy.academy.search.util.indexutils.BatchReader;
+import co.empathy.academy.search.util.indexutils.CheckpointStore;
+import co.empathy.academy.search.util.indexutils.DeadLetterSpool;
+import co.empathy.academy.search.util.indexutils.FingerprintStore;
+import co.empathy.academy.search.util.indexutils.ImdbFiles;
+import co.empathy.academy.search.util.indexutils.IndexVersions;
 import co.empathy.academy.search.util.indexutils.IndexingUtils;
+import co.empathy.academy.search.util.indexutils.IngestJob;
+import co.empathy.academy.search.util.indexutils.IngestJobStatus;
+import co.empathy.academy.search.util.indexutils.IngestJobs;
+import co.empathy.academy.search.util.indexutils.IngestProgress;
+import co.empathy.academy.search.util.indexutils.IngestSettings;
+import co.empathy.academy.search.util.indexutils.NamesIngest;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.Parameters;
@@ -17,6 +25,8 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.*;
@@ -30,67 +40,214 @@ import java.util.*;
 @RequestMapping(value="/admin/api")
 public class IndexController {
     private static final Logger logger = LoggerFactory.getLogger(IndexController.class);
+    private final IngestSettings ingestSettings;
+    private final DeadLetterSpool deadLetterSpool;
+    private final CheckpointStore checkpointStore;
+    private final IndexVersions indexVersions;
+    private final FingerprintStore fingerprintStore;
+    private final IngestJobs ingestJobs;
+    private final IndexVersions namesIndexVersions;
+    private final DeadLetterSpool namesDeadLetterSpool;
+    private final String snapshotDirectory;
+
+    public IndexController(IngestSettings ingestSettings, DeadLetterSpool deadLetterSpool,
+                           CheckpointStore checkpointStore, IndexVersions indexVersions,
+                           FingerprintStore fingerprintStore, IngestJobs ingestJobs,
+                           @Qualifier("namesIndexVersions") IndexVersions namesIndexVersions,
+                           @Qualifier("namesDeadLetterSpool") DeadLetterSpool namesDeadLetterSpool,
+                           @Value("${ingest.snapshot-dir}") String snapshotDirectory) {
+        this.ingestSettings = ingestSettings;
+        this.deadLetterSpool = deadLetterSpool;
+        this.checkpointStore = checkpointStore;
+        this.indexVersions = indexVersions;
+        this.fingerprintStore = fingerprintStore;
+        this.ingestJobs = ingestJobs;
+        this.namesIndexVersions = namesIndexVersions;
+        this.namesDeadLetterSpool = namesDeadLetterSpool;
+        this.snapshotDirectory = snapshotDirectory;
+    }
 
     /**
-     * This method answers a get petition to index the document. Firstly it creates an index, then it applies a
-     * mapping an finally indexes all the documents contained in the films .tsv.
+     * This method answers a get petition to index the document. Firstly it creates a new version of the index with
+     * its analyzers and mapping, then it indexes all the documents contained in the films .tsv into it and finally
+     * moves the "films" alias to it, so searches keep using the previous version until the new one is complete.
+     * With delta, only the titles that changed since the last job are sent, straight to the live index, and those
+     * that are no longer in the files are deleted from it.
+     * A full job also rebuilds the "names" index at the same time, as a job of its own.
+     * @return status of the films job, which runs in the background
      */
     @GetMapping("/index_documents")
     @ApiResponses({
-            @ApiResponse(responseCode = "200", description = "Mapping done", content = { @Content(mediaType = "application/json")}),
-            @ApiResponse(responseCode = "400", description = "Index not found", content = { @Content(mediaType = "application/json")}),
-            @ApiResponse(responseCode = "500", description = "Could not connect to Elasticsearch", content = { @Content(mediaType = "application/json")})
+            @ApiResponse(responseCode = "200", description = "Indexing job started", content = { @Content(mediaType = "application/json")}),
+            @ApiResponse(responseCode = "409", description = "There is already a job running on the index", content = { @Content(mediaType = "application/json")})
     })
     @Parameters({
             @Parameter(name = "ratingsPath", description = "Path for ratings.tsv", required = true),
-            @Parameter(required = false, name = "filmsPath", description = "Path for films.tsv")
+            @Parameter(required = false, name = "filmsPath", description = "Path for films.tsv"),
+            @Parameter(required = false, name = "delta", description = "Send only what changed since the last job, to the live index")
     })
-    @Operation(summary = "answers a get petition to index the document. Firstly, it creates the index (deleting it if already exists), then it applies a" +
-            " mapping an finally indexes to \"films\" index all the documents contained in the films .tsv (and optionally the ratings .tsv)," +
-            " whose paths must be provided via get parameter.")
-    public void indexDocuments(@RequestParam String filmsPath,
+    @Operation(summary = "answers a get petition to index the document. Firstly, it creates a new version of the index (films_v<timestamp>)" +
+            " with its analyzers and mapping, then it indexes all the documents contained in the films .tsv (and optionally the ratings .tsv)," +
+            " whose paths must be provided via get parameter, and finally moves the \"films\" alias to it.")
+    public IngestJobStatus indexDocuments(@RequestParam String filmsPath,
                                @RequestParam String ratingsPath,
                                @RequestParam String akasPath,
                                @RequestParam String crewPath,
                                @RequestParam String episodesPath,
                                @RequestParam String principalsPath,
-                               @RequestParam String nameBasicsPath) {
-        try {
-
-            Thread bulkOperationTask = new Thread() {
-                public void run() {
-                    bulkOperations(filmsPath, ratingsPath, akasPath, crewPath, episodesPath, principalsPath, nameBasicsPath);
-                }
-            };
-
+                               @RequestParam String nameBasicsPath,
+                               @RequestParam(defaultValue = "false") boolean delta) {
+        //Runs as a background job so navigator won't get stuck without response
+        var films = ingestJobs.start(indexVersions.alias(), delta ? "delta" : "full", progress -> {
+            var index = delta ? indexVersions.alias() : indexVersions.create();
+            indexing(progress).indexData(index, delta, filmsPath, ratingsPath, akasPath, crewPath, episodesPath,
+                    principalsPath, nameBasicsPath);
+        });
+
+        if (!delta) {
             try {
-                ClientCustomConfiguration.getClient().indices().delete(i -> {
-                    return i.index("films");
-                });
-                ClientCustomConfiguration.getClient().indices().create(i -> i.index("films"));
-            } catch(ElasticsearchException e) {
-                ClientCustomConfiguration.getClient().indices().create(i -> i.index("films"));
+                startNames(nameBasicsPath, principalsPath);
+            } catch (JobAlreadyRunningException e) {
+                logger.warn("Names index not rebuilt, it already is being: {}", e.getCause().getMessage());
             }
+        }
+        return films.status();
+    }
 
-            ClientCustomConfiguration.getClient().indices().close(_0 -> _0.index("films"));
+    /**
+     * This method answers a get petition to rebuild the "names" index alone: one document per person of
+     * name.basics, with the titles they took part in. It runs in parallel with any films job.
+     */
+    @GetMapping("/index_documents/names")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Names indexing job started", content = { @Content(mediaType = "application/json")}),
+            @ApiResponse(responseCode = "409", description = "The names index is already being rebuilt", content = { @Content(mediaType = "application/json")})
+    })
+    @Parameters({
+            @Parameter(name = "nameBasicsPath", description = "Path for name.basics.tsv", required = true),
+            @Parameter(name = "principalsPath", description = "Path for title.principals.tsv", required = true)
+    })
+    @Operation(summary = "Rebuilds the \"names\" index from name.basics and the principals, in a new version behind the \"names\" alias")
+    public IngestJobStatus indexNames(@RequestParam String nameBasicsPath, @RequestParam String principalsPath) {
+        return startNames(nameBasicsPath, principalsPath).status();
+    }
 
-            var analyzer = getClass().getClassLoader().getResourceAsStream("analyzers.json");
-            ClientCustomConfiguration.getClient().indices().putSettings(_0 -> _0.index("films").withJson(analyzer));
+    /**
+     * This method answers a get petition to convert the TSV files into a binary snapshot: every title with its
+     * ratings, akas, crew, episodes and principals already joined, in columns that are parsed much faster than the
+     * text. The snapshot replaces the previous one once it is complete. It runs as a job on the films index, like
+     * the jobs that read the snapshot, so the previous one is never deleted while one of them is reading it.
+     */
+    @GetMapping("/snapshot")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Snapshot build started", content = { @Content(mediaType = "application/json")}),
+            @ApiResponse(responseCode = "409", description = "There is already a job running on the index", content = { @Content(mediaType = "application/json")})
+    })
+    @Operation(summary = "Builds a binary snapshot of the TSV files, so later jobs can be run from it with /index_documents/snapshot")
+    public IngestJobStatus buildSnapshot(@RequestParam String filmsPath,
+                                         @RequestParam String ratingsPath,
+                                         @RequestParam String akasPath,
+                                         @RequestParam String crewPath,
+                                         @RequestParam String episodesPath,
+                                         @RequestParam String principalsPath,
+                                         @RequestParam String nameBasicsPath) {
+        var files = new ImdbFiles(filmsPath, ratingsPath, akasPath, crewPath, episodesPath, principalsPath,
+                nameBasicsPath);
+        return ingestJobs.start(indexVersions.alias(), "snapshot-build",
+                progress -> indexing(progress).buildSnapshot(files, snapshotDirectory)).status();
+    }
 
-            ClientCustomConfiguration.getClient().indices().open(_0 -> _0.index("films"));
+    /**
+     * This method answers a get petition to index the documents from the binary snapshot instead of the TSV files.
+     * Documents are the same as those built from the files, so delta jobs from one or the other can be mixed.
+     */
+    @GetMapping("/index_documents/snapshot")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Indexing job started", content = { @Content(mediaType = "application/json")}),
+            @ApiResponse(responseCode = "409", description = "There is already a job running on the index", content = { @Content(mediaType = "application/json")})
+    })
+    @Parameter(required = false, name = "delta", description = "Send only what changed since the last job, to the live index")
+    @Operation(summary = "Indexes the documents from the snapshot built by /snapshot, into a new version of the index or, with delta, the live one")
+    public IngestJobStatus indexSnapshot(@RequestParam(defaultValue = "false") boolean delta) {
+        return ingestJobs.start(indexVersions.alias(), delta ? "snapshot-delta" : "snapshot", progress -> {
+            var index = delta ? indexVersions.alias() : indexVersions.create();
+            indexing(progress).indexSnapshot(index, delta, snapshotDirectory);
+        }).status();
+    }
 
-            var mapping = getClass().getClassLoader().getResourceAsStream("mappings.json");
-            ClientCustomConfiguration.getClient().indices().putMapping(_0 -> _0.index("films").withJson(mapping));
+    /**
+     * This method answers a get petition to resume the last indexing job that did not finish. The index is kept as
+     * it is and every file is read again from the checkpoint the job left, so only what was not acknowledged is sent.
+     */
+    @GetMapping("/index_documents/resume")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Indexing resumed", content = { @Content(mediaType = "application/json")}),
+            @ApiResponse(responseCode = "400", description = "No job to resume, or its files have changed", content = { @Content(mediaType = "application/json")}),
+            @ApiResponse(responseCode = "409", description = "There is already a job running on the index", content = { @Content(mediaType = "application/json")})
+    })
+    @Operation(summary = "Resumes the last indexing job that did not finish from its checkpoint, without deleting the index")
+    public IngestJobStatus resumeIndexing() {
+        //Checked before starting, so a missing checkpoint is a bad request rather than a failed job. Nothing is sent
+        var checkpoint = indexing(null).checkpointToResume();
 
+        return ingestJobs.start(indexVersions.alias(), "resume",
+                progress -> indexing(progress).resume(checkpoint)).status();
+    }
 
-            bulkOperationTask.start(); //Starts the bulk operation thread so navigator won't get stuck without response
+    /**
+     * This method answers a get petition to apply a new ratings file to the "films" index. Only the ratings that
+     * changed since the last job are sent, as partial updates, so rankings are refreshed without rebuilding any
+     * document.
+     */
+    @GetMapping("/index_documents/ratings")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Ratings refresh started", content = { @Content(mediaType = "application/json")}),
+            @ApiResponse(responseCode = "409", description = "There is already a job running on the index", content = { @Content(mediaType = "application/json")})
+    })
+    @Parameter(name = "ratingsPath", description = "Path for the new ratings.tsv", required = true)
+    @Operation(summary = "Updates the rating and number of votes of the titles whose rating changed since the last job")
+    public IngestJobStatus refreshRatings(@RequestParam String ratingsPath) {
+        return ingestJobs.start(indexVersions.alias(), "ratings",
+                progress -> indexing(progress).refreshRatings(ratingsPath)).status();
+    }
 
-        } catch (IOException i) {
-            throw new ElasticsearchConnectionException(i);
-        } catch (ElasticsearchException e) {
-            throw new IndexNotFoundException("films", e);
-        }
+    /**
+     * This method answers a get petition to list the ingest jobs, the running ones and the last ones that finished.
+     */
+    @GetMapping("/jobs")
+    @Operation(summary = "Lists the running ingest jobs and the last ones that finished, with their progress")
+    public List<IngestJobStatus> listJobs() {
+        return ingestJobs.list().stream().map(IngestJob::status).toList();
+    }
 
+    /**
+     * This method answers a get petition for the status of an ingest job: documents sent, throughput, estimated time
+     * left and, if it failed, why.
+     */
+    @GetMapping("/jobs/{id}")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Job found", content = { @Content(mediaType = "application/json")}),
+            @ApiResponse(responseCode = "404", description = "No such job", content = { @Content(mediaType = "application/json")})
+    })
+    @Parameter(name = "id", description = "Id of the job, as returned when it was started")
+    @Operation(summary = "Returns the status and progress of an ingest job")
+    public IngestJobStatus jobStatus(@PathVariable String id) {
+        return ingestJobs.get(id).status();
+    }
+
+    /**
+     * This method answers a petition to cancel a running ingest job. What it already sent is kept in its checkpoint,
+     * so it can be resumed later.
+     */
+    @PostMapping("/jobs/{id}/cancel")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Job cancelled", content = { @Content(mediaType = "application/json")}),
+            @ApiResponse(responseCode = "404", description = "No such job", content = { @Content(mediaType = "application/json")})
+    })
+    @Parameter(name = "id", description = "Id of the job, as returned when it was started")
+    @Operation(summary = "Cancels a running ingest job. It can be resumed from its checkpoint")
+    public IngestJobStatus cancelJob(@PathVariable String id) {
+        return ingestJobs.cancel(id).status();
     }
 
     /**
@@ -152,46 +309,30 @@ public class IndexController {
         }
     }
 
-    private void bulkOperations(String filmsPath,
-                                String ratingsPath,
-                                String akasPath,
-                                String crewPath,
-                                String episodesPath,
-                                String principalsPath,
-                                String nameBasicsPath) {
-
-        int batchSize = 25000;
-
-        try {
-            logger.info("Started indexing");
-            var batchReader = new BatchReader(filmsPath, ratingsPath, akasPath, crewPath,
-                    episodesPath, principalsPath, nameBasicsPath, batchSize);
-
-            while(!batchReader.hasFinished()) {
-                var batch = batchReader.getBatch();
-
-                ClientCustomConfiguration.getClient().bulk(bulkRequest -> bulkRequest
-                        .operations(batch.stream()
-                                .map(x ->
-                                        BulkOperation.of(_1 -> _1
-                                                .index(_2 -> _2
-                                                        .index("films")
-                                                        .document(x.json())
-                                                        .id(x.id())
-                                                )
-                                        )
-                                ).toList())
-                );
-
-                logger.info("Done bulk");
-            }
-
-            logger.info("Indexed");
-            batchReader.close();
-        } catch(IOException | ElasticsearchException e) {
-            throw new InternalServerException(e);
-        }
+    /**
+     * This method answers a petition to send again to the "films" index the documents Elasticsearch refused while
+     * indexing, which were kept in the dead letter spool.
+     * @return status of the replay job: its documents are those replayed, its failed items those refused again
+     */
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Dead letter replay started", content = { @Content(mediaType = "application/json")}),
+            @ApiResponse(responseCode = "409", description = "There is already a job running on the index", content = { @Content(mediaType = "application/json")})
+    })
+    @Operation(summary = "Sends again the documents refused while indexing. Those refused again are kept for the next replay")
+    @PostMapping("/dead_letters/replay")
+    public IngestJobStatus replayDeadLetters() {
+        return ingestJobs.start(indexVersions.alias(), "replay",
+                progress -> indexing(progress).replayDeadLetters()).status();
     }
 
+    private IngestJob startNames(String nameBasicsPath, String principalsPath) {
+        return ingestJobs.start(namesIndexVersions.alias(), "names", progress ->
+                new NamesIngest(ingestSettings, namesDeadLetterSpool, namesIndexVersions, progress)
+                        .indexNames(nameBasicsPath, principalsPath));
+    }
 
+    private IndexingUtils indexing(IngestProgress progress) {
+        return new IndexingUtils(ingestSettings, deadLetterSpool, checkpointStore, indexVersions, fingerprintStore,
+                progress);
+    }
 }
@@ -4,10 +4,10 @@ import co.elastic.clients.elasticsearch._types.*;
 import co.elastic.clients.elasticsearch._types.aggregations.AggregationBuilders;
 import co.elastic.clients.elasticsearch._types.query_dsl.*;
 import co.elastic.clients.elasticsearch.core.SearchRequest;
-import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.json.JsonData;
-import co.empathy.academy.search.util.queryutils.HiClientOps;
 import co.empathy.academy.search.util.queryutils.ResultParser;
+import co.empathy.academy.search.util.queryutils.SearchCache;
+import co.empathy.academy.search.util.queryutils.SearchLimiter;
 import co.empathy.academy.search.exception.ElasticsearchConnectionException;
 import co.empathy.academy.search.exception.IndexNotFoundException;
 import co.empathy.academy.search.util.ClientCustomConfiguration;
@@ -17,17 +17,39 @@ import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Tag(name = "Query controller", description = "Contains some queries to be thrown to ElasticSearch")
 @RestController
 @RequestMapping(value = "/api")
 public class QueryController {
 
-    @GetMapping("/terms/{index}/_search")
+    private final SearchCache searchCache;
+    private final SearchLimiter searchLimiter;
+    private final RestClient searchRestClient;
+
+    public QueryController(SearchCache searchCache, SearchLimiter searchLimiter, RestClient searchRestClient) {
+        this.searchCache = searchCache;
+        this.searchLimiter = searchLimiter;
+        this.searchRestClient = searchRestClient;
+    }
+
+    @GetMapping(value = "/terms/{index}/_search", produces = MediaType.APPLICATION_JSON_VALUE)
     @Parameter(name = "index", description = "Name of the index over which to throw the terms query")
     @ApiResponses({
             @ApiResponse(responseCode = "200", description = "Terms query result", content = {@Content(mediaType = "application/json")}),
@@ -35,14 +57,15 @@ public class QueryController {
             @ApiResponse(responseCode = "500", description = "Could not connect to Elasticsearch", content = {@Content(mediaType = "application/json")})
     })
     @Operation(summary = "Throws a terms query for a given index. Requires a field and several terms to match it.")
-    public List<Map<String, Object>> termsQuery(@PathVariable String index, @RequestParam String field, @RequestParam String values) throws ElasticsearchConnectionException, IndexNotFoundException {
+    public CompletableFuture<byte[]> termsQuery(@PathVariable String index, @RequestParam String field, @RequestParam String values,
+                                                @RequestParam(required = false) Optional<List<String>> fields) throws ElasticsearchConnectionException, IndexNotFoundException {
         String[] valuesArray = values.split(",");
         var fieldValues = Arrays.stream(valuesArray).map(FieldValue::of).toList();
         var q = QueryBuilders.terms().field(field).terms(TermsQueryField.of(t -> t.value(fieldValues))).build();
-        return launchQuery(new Query(q), index);
+        return launchQuery(new Query(q), index, fields);
     }
 
-    @GetMapping("/term/{index}/_search")
+    @GetMapping(value = "/term/{index}/_search", produces = MediaType.APPLICATION_JSON_VALUE)
     @Parameter(name = "index", description = "Name of the index over which to throw the term query")
     @ApiResponses({
             @ApiResponse(responseCode = "200", description = "Terms query result", content = {@Content(mediaType = "application/json")}),
@@ -50,12 +73,13 @@ public class QueryController {
             @ApiResponse(responseCode = "500", description = "Could not connect to Elasticsearch", content = {@Content(mediaType = "application/json")})
     })
     @Operation(summary = "Throws a term query for a given index. Requires a field and a term to match it.")
-    public List<Map<String, Object>> termQuery(@PathVariable String index, @RequestParam String field, @RequestParam String value) throws ElasticsearchConnectionException, IndexNotFoundException {
+    public CompletableFuture<byte[]> termQuery(@PathVariable String index, @RequestParam String field, @RequestParam String value,
+                                               @RequestParam(required = false) Optional<List<String>> fields) throws ElasticsearchConnectionException, IndexNotFoundException {
         var q = QueryBuilders.term().field(field).value(value).build();
-        return launchQuery(new Query(q), index);
+        return launchQuery(new Query(q), index, fields);
     }
 
-    @GetMapping("/multimatch/{index}/_search")
+    @GetMapping(value = "/multimatch/{index}/_search", produces = MediaType.APPLICATION_JSON_VALUE)
     @Parameter(name = "index", description = "Name of the index over which to throw the multimatch query")
     @ApiResponses({
             @ApiResponse(responseCode = "200", description = "Multimatch query result", content = {@Content(mediaType = "application/json")}),
@@ -63,79 +87,95 @@ public class QueryController {
             @ApiResponse(responseCode = "500", description = "Could not connect to Elasticsearch", content = {@Content(mediaType = "application/json")})
     })
     @Operation(summary = "Throws a multimatch query for a given index. Requires several fields and a value to match them.")
-    public List<Map<String, Object>> multiMatchQuery(@PathVariable String index, @RequestParam String fields, @RequestParam String value) throws ElasticsearchConnectionException, IndexNotFoundException {
+    public CompletableFuture<byte[]> multiMatchQuery(@PathVariable String index, @RequestParam String fields, @RequestParam String value,
+                                                     @RequestParam(required = false, name = "source") Optional<List<String>> sourceFields) throws ElasticsearchConnectionException, IndexNotFoundException {
         String[] fieldsArray = fields.split(",");
         var q = QueryBuilders.multiMatch().fields(Arrays.stream(fieldsArray).toList()).query(value).build();
-        return launchQuery(new Query(q), index);
+        return launchQuery(new Query(q), index, sourceFields);
     }
 
 
-    @GetMapping("/search")
+    @GetMapping(value = "/search", produces = MediaType.APPLICATION_JSON_VALUE)
     @Parameter(name = "q", description = "Allows creating a must-match query over the \"primaryTitle\" value from the database according to the provided value.", required = true)
     @Parameter(name = "type", description = "Allows creating a filter for the query over the \"type\" field.", required = false)
     @Parameter(name = "genre", description = "Allows creating a filter for the query over the \"genre\" field.", required = false)
     @Parameter(name = "agg", description = "Allows providing a certain field to perform an aggregation over it and define it as query result.", required = false)
+    @Parameter(name = "fields", description = "Fields of the documents to return, such as primaryTitle,genres. All of them if not given.", required = false)
     @ApiResponses({
             @ApiResponse(responseCode = "200", description = "Search query result", content = {@Content(mediaType = "application/json")}),
             @ApiResponse(responseCode = "400", description = "Index does not exist", content = {@Content(mediaType = "application/json")}),
             @ApiResponse(responseCode = "500", description = "Could not connect to Elasticsearch", content = {@Content(mediaType = "application/json")})
     })
     @Operation(summary = "Throws a query combining the different parameters, boosted depending on the rating and number of votes.")
-    public String aggFilterQuery(@RequestParam String q,
+    public CompletableFuture<byte[]> aggFilterQuery(@RequestParam String q,
                                  @RequestParam(required = false) Optional<List<String>> type,
                                  @RequestParam(required = false) Optional<List<String>> genre,
                                  @RequestParam(required = false) Optional<String> gte,
                                  @RequestParam(required = false) Optional<String> director,
                                  @RequestParam(required = false, name = "agg") Optional<String> aggField,
                                  @RequestParam(required = false) Optional<Integer> from,
-                                 @RequestParam(required = false) Optional<Integer> size
+                                 @RequestParam(required = false) Optional<Integer> size,
+                                 @RequestParam(required = false) Optional<List<String>> fields
     ) throws ElasticsearchConnectionException, IndexNotFoundException {
+        //The request is built from the normalized parameters, so every search sharing a key gets the same response
+        var key = SearchCache.Key.of(q, type, genre, gte, director, aggField, from, size, fields);
+        var cached = searchCache.get(key);
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+        long generation = searchCache.generation();
 
         SearchRequest req = SearchRequest.of(indexRequest -> {
 
             indexRequest.index("films");
 
-            if (from.isPresent())
-                indexRequest.from(from.get());
-            if (size.isPresent())
-                indexRequest.size(size.get());
+            indexRequest.from(key.from());
+            indexRequest.size(key.size());
+            putSourceFilter(Optional.ofNullable(key.fields()), indexRequest);
 
             var nestedQuery = QueryBuilders.bool();
 
-            constructBoolQuery(nestedQuery, q);
+            constructBoolQuery(nestedQuery, key.q());
 
-            putFilters(type, genre, director, gte, nestedQuery);
+            putFilters(Optional.ofNullable(key.type()), Optional.ofNullable(key.genre()),
+                    Optional.ofNullable(key.director()), Optional.ofNullable(key.gte()), nestedQuery);
 
             var functionQuery = wrapQueryWithRelevanceFunctionQuery(nestedQuery);
 
             //Assigning query to films index and placing it into request
             var wholeReq = indexRequest.index("films").query(new Query(functionQuery.build()));
 
-            if (aggField.isPresent()) {
+            if (key.agg() != null) {
                 wholeReq.aggregations(
-                        aggField.get() + "_agg",
-                        AggregationBuilders.terms().field(aggField.get()).size(1000).build()._toAggregation()
+                        key.agg() + "_agg",
+                        AggregationBuilders.terms().field(key.agg()).size(1000).build()._toAggregation()
                 );
             }
 
-            return wholeReq;
-        });
-
-        try {
-            var response = ClientCustomConfiguration.getClient().search(req, JsonData.class);
-            if(response.hits().hits().isEmpty() && !q.equals("")) {
-                return HiClientOps.run(q);
-            } else {
-                return ResultParser.getResultsAsString(aggField, response);
+            //Suggestions come along with the hits, so a search that finds nothing is answered in the same round trip
+            if (!key.q().equals("")) {
+                wholeReq.suggest(suggest -> suggest
+                        .text(key.q())
+                        .suggesters(ResultParser.TERM_SUGGESTION, suggester -> suggester
+                                .term(term -> term.field("primaryTitle")))
+                        .suggesters(ResultParser.PHRASE_SUGGESTION, suggester -> suggester
+                                .phrase(phrase -> phrase
+                                        .field("primaryTitle")
+                                        .maxErrors(3.0)
+                                        .gramSize(3)
+                                        .analyzer("custom_fkinawesome_analyzer")))
+                );
             }
 
-        } catch (IOException e) {
-            throw new ElasticsearchConnectionException(e);
-        } catch (ElasticsearchException i) {
-            throw new IndexNotFoundException("films", i);
-        }
-
+            return wholeReq;
+        });
 
+        //A search that finds nothing is answered with the suggestions that came along
+        return searchLimiter.submit(() -> search(req, "films")
+                .thenApply(response -> ResultParser.getResultsAsBytes(Optional.ofNullable(key.agg()), response))
+        ).thenApply(result -> {
+            searchCache.put(key, generation, result);
+            return result;
+        });
     }
 
 
@@ -210,21 +250,25 @@ public class QueryController {
         return functionQuery;
     }
 
-    @GetMapping("id_search")
-    public String getIndividualFilm(@RequestParam String id) throws ElasticsearchConnectionException, IndexNotFoundException {
-        SearchRequest s = SearchRequest.of(request -> request
-                .index("films")
-                .query(query -> query.match(matchQuery -> matchQuery.field("_id").query(id)))
-        );
+    @GetMapping(value = "id_search", produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<byte[]> getIndividualFilm(@RequestParam String id,
+                                                       @RequestParam(required = false) Optional<List<String>> fields) throws ElasticsearchConnectionException, IndexNotFoundException {
+        SearchRequest s = SearchRequest.of(request -> {
+            putSourceFilter(fields, request);
+            return request
+                    .index("films")
+                    .query(query -> query.match(matchQuery -> matchQuery.field("_id").query(id)));
+        });
 
-        try {
-            var response = ClientCustomConfiguration.getClient().search(s, JsonData.class);
-            return ResultParser.getResultsAsString(Optional.ofNullable(null), response);
-        } catch (IOException e) {
-            throw new ElasticsearchConnectionException(e);
-        } catch (ElasticsearchException i) {
-            throw new IndexNotFoundException("films", i);
-        }
+        return searchLimiter.submit(() -> search(s, "films")
+                .thenApply(response -> ResultParser.getResultsAsBytes(Optional.empty(), response)));
+    }
+
+    /**
+     * Asks Elasticsearch for the given fields of the sources alone, if any
+     */
+    private void putSourceFilter(Optional<List<String>> fields, SearchRequest.Builder request) {
+        fields.ifPresent(includes -> request.source(source -> source.filter(filter -> filter.includes(includes))));
     }
 
     private void putFilter(List<String> values, String field, BoolQuery.Builder builder) {
@@ -236,18 +280,63 @@ public class QueryController {
         );
     }
 
-    private List<Map<String, Object>> launchQuery(Query q, String index) {
+    private CompletableFuture<byte[]> launchQuery(Query q, String index, Optional<List<String>> fields) {
 
-        SearchRequest searchRequest = new SearchRequest.Builder().query(q).index(index).build();
+        var builder = new SearchRequest.Builder().query(q).index(index);
+        putSourceFilter(fields, builder);
+        SearchRequest searchRequest = builder.build();
 
+        return searchLimiter.submit(() -> search(searchRequest, index).thenApply(ResultParser::getResults));
+    }
+
+    /**
+     * Sends a search without waiting for its response. No thread is held until it comes, and the servlet writes the
+     * result once the future completes. It goes through the low-level client, so the response is handed back as the
+     * bytes Elasticsearch wrote, for the {@link ResultParser} to copy the hits from without deserializing them.
+     * @return the response, or a future failed with the exception the handlers map to an error response
+     */
+    private CompletableFuture<byte[]> search(SearchRequest request, String index) {
+        var response = new CompletableFuture<byte[]>();
         try {
-            SearchResponse<JsonData> res = ClientCustomConfiguration.getClient().search(searchRequest, JsonData.class);
-            return ResultParser.getResults(res);
-        } catch (IOException e) {
-            throw new ElasticsearchConnectionException(e);
-        } catch (ElasticsearchException i) {
-            throw new IndexNotFoundException(index, i);
+            var mapper = ClientCustomConfiguration.getTransport().jsonpMapper();
+            var body = new ByteArrayOutputStream();
+            try (var generator = mapper.jsonProvider().createGenerator(body)) {
+                request.serialize(generator, mapper);
+            }
+
+            var lowLevelRequest = new Request("POST", "/" + index + "/_search");
+            //Aggregations and suggestions named after their type too, as the typed client asks for them
+            lowLevelRequest.addParameter("typed_keys", "true");
+            lowLevelRequest.setEntity(new ByteArrayEntity(body.toByteArray(), ContentType.APPLICATION_JSON));
+            searchRestClient.performRequestAsync(lowLevelRequest, new ResponseListener() {
+                @Override
+                public void onSuccess(Response success) {
+                    try {
+                        response.complete(EntityUtils.toByteArray(success.getEntity()));
+                    } catch (IOException e) {
+                        response.completeExceptionally(e);
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    response.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            //The request could not even be sent
+            response.completeExceptionally(e);
         }
+
+        return response.exceptionally(e -> {
+            var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            //Elasticsearch answered with an error, such as the index not being there
+            if (cause instanceof ResponseException answered)
+                throw new IndexNotFoundException(index, answered);
+            if (cause instanceof IOException io)
+                throw new ElasticsearchConnectionException(io);
+            throw e instanceof CompletionException completion ? completion : new CompletionException(cause);
+        });
     }
 
 }
@@ -0,0 +1,9 @@
+package co.empathy.academy.search.exception;
+
+public class InvalidCheckpointException extends RuntimeException {
+
+    public InvalidCheckpointException(String message, Exception e) {
+        super(message, e);
+    }
+
+}
@@ -0,0 +1,9 @@
+package co.empathy.academy.search.exception;
+
+public class JobAlreadyRunningException extends RuntimeException {
+
+    public JobAlreadyRunningException(String index, Exception e) {
+        super("There is already a job running on " + index + ".", e);
+    }
+
+}
@@ -0,0 +1,9 @@
+package co.empathy.academy.search.exception;
+
+public class JobNotFoundException extends RuntimeException {
+
+    public JobNotFoundException(String id, Exception e) {
+        super("Job " + id + " doesn't exist.", e);
+    }
+
+}
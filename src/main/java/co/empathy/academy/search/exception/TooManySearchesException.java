@@ -0,0 +1,9 @@
+package co.empathy.academy.search.exception;
+
+public class TooManySearchesException extends RuntimeException {
+
+    public TooManySearchesException(int maxInFlight, Exception e) {
+        super("There are already " + maxInFlight + " searches waiting for ElasticSearch, try again later.", e);
+    }
+
+}
@@ -17,12 +17,31 @@ public class APIExceptionHandler extends ResponseEntityExceptionHandler{
                     , e.getCause().toString()));
         }
 
-        @ExceptionHandler(value = {IndexAlreadyExistsException.class, IndexNotFoundException.class})
+        @ExceptionHandler(value = {IndexAlreadyExistsException.class, IndexNotFoundException.class,
+                InvalidCheckpointException.class})
         public ResponseEntity<ErrorResponse> handleBadRequest(RuntimeException e) {
             return createResponseEntity(new ErrorResponse(HttpStatus.BAD_REQUEST, e.getMessage()
                     , e.getCause().toString()));
         }
 
+        @ExceptionHandler(value = {JobNotFoundException.class})
+        public ResponseEntity<ErrorResponse> handleNotFound(RuntimeException e) {
+            return createResponseEntity(new ErrorResponse(HttpStatus.NOT_FOUND, e.getMessage()
+                    , e.getCause().toString()));
+        }
+
+        @ExceptionHandler(value = {JobAlreadyRunningException.class})
+        public ResponseEntity<ErrorResponse> handleConflict(RuntimeException e) {
+            return createResponseEntity(new ErrorResponse(HttpStatus.CONFLICT, e.getMessage()
+                    , e.getCause().toString()));
+        }
+
+        @ExceptionHandler(value = {TooManySearchesException.class})
+        public ResponseEntity<ErrorResponse> handleServiceUnavailable(RuntimeException e) {
+            return createResponseEntity(new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage()
+                    , e.getCause().toString()));
+        }
+
         @ExceptionHandler(value = {InternalServerException.class})
         public ResponseEntity<ErrorResponse> handleInternalServerError(RuntimeException e) {
             return createResponseEntity(new ErrorResponse(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage()
@@ -7,11 +7,20 @@ import co.elastic.clients.transport.rest_client.RestClientTransport;
 import org.apache.http.HttpHost;
 import org.elasticsearch.client.RestClient;
 
+import java.util.Arrays;
+
 public class ClientCustomConfiguration {
 
+    // Nodes to connect to, as a comma separated list of host:port or URLs. Read from the elasticsearch.hosts system
+    // property or the ELASTICSEARCH_HOSTS environment variable, so the clients can point to any cluster (or stand-in)
+    private static final String DEFAULT_HOSTS = "localhost:9200,elasticsearch:9200";
+
+    // Connections kept to every node, and in all, by the client of ingests and index administration: a few bulk
+    // senders and alias swaps. Searches have a client of their own, see restClient(int)
+    private static final int MAX_CONNECTIONS = 100;
+
     // Create the low-level client
-    private static RestClient restClient = RestClient.builder(
-            new HttpHost("localhost", 9200), new HttpHost("elasticsearch", 9200)).build();
+    private static RestClient restClient = restClient(MAX_CONNECTIONS);
 
     // Create the transport with a Jackson mapper
     private static ElasticsearchTransport transport = new RestClientTransport(
@@ -32,4 +41,33 @@ public class ClientCustomConfiguration {
         return restClient;
     }
 
+    /**
+     * Creates a low-level client of its own, so requests sent through it never wait for a connection behind those of
+     * another one. The pool is far larger than the default (10 per node), which would queue requests in the client
+     * rather than in Elasticsearch.
+     * @param maxConnections connections kept to every node, and in all
+     */
+    public static RestClient restClient(int maxConnections) {
+        return RestClient.builder(hosts())
+                .setHttpClientConfigCallback(httpClientBuilder -> httpClientBuilder
+                        .setMaxConnPerRoute(maxConnections)
+                        .setMaxConnTotal(maxConnections))
+                .build();
+    }
+
+    /**
+     * @return the nodes the clients connect to
+     */
+    public static HttpHost[] hosts() {
+        String hosts = System.getProperty("elasticsearch.hosts", System.getenv("ELASTICSEARCH_HOSTS"));
+        if (hosts == null || hosts.isBlank())
+            hosts = DEFAULT_HOSTS;
+
+        return Arrays.stream(hosts.split(","))
+                .map(String::trim)
+                .filter(host -> !host.isEmpty())
+                .map(HttpHost::create)
+                .toArray(HttpHost[]::new);
+    }
+
 }
@@ -1,9 +1,8 @@
 package co.empathy.academy.search.util.indexutils;
 
-import co.empathy.academy.search.util.indexutils.converters.StringToBoolConverter;
-import jakarta.json.Json;
-import jakarta.json.JsonObjectBuilder;
+import com.fasterxml.jackson.core.JsonGenerator;
 
+import java.io.IOException;
 import java.util.List;
 
 public class Akas {
@@ -13,21 +12,55 @@ public class Akas {
     private static final int IS_ORIGINAL_TITLE = 7;
     private Akas(){}
 
-    public static void addAkas(List<String> lines, JsonObjectBuilder builder, List<String> headers) {
-        var arrayBuilder = Json.createArrayBuilder();
+    public static void addAkas(List<byte[]> lines, TsvCursor line, JsonGenerator json, List<String> headers) throws IOException {
+        json.writeArrayFieldStart("akas");
 
-        for(String line : lines) {
-            var fields = line.split("\t");
-            var lineJson = Json.createObjectBuilder()
-                    .add(headers.get(TITLE), fields[TITLE])
-                    .add(headers.get(REGION), fields[REGION])
-                    .add(headers.get(LANGUAGE), fields[LANGUAGE])
-                    .add(headers.get(IS_ORIGINAL_TITLE), StringToBoolConverter.getBool(fields[IS_ORIGINAL_TITLE]))
-                    .build();
+        //Indexed rather than iterated: lines come in several kinds of list, whose iterators would be allocated per title
+        for (int i = 0; i < lines.size(); i++) {
+            line.reset(lines.get(i));
+            json.writeStartObject();
+            Film.writeString(json, headers.get(TITLE), line.field(TITLE));
+            json.writeFieldName(headers.get(REGION));
+            SymbolTable.REGIONS.write(json, line.field(REGION));
+            json.writeFieldName(headers.get(LANGUAGE));
+            SymbolTable.LANGUAGES.write(json, line.field(LANGUAGE));
+            json.writeBooleanField(headers.get(IS_ORIGINAL_TITLE), line.field(IS_ORIGINAL_TITLE).asBool());
+            json.writeEndObject();
+        }
+
+        json.writeEndArray();
+    }
+
+    /**
+     * Stores the akas of a title as its group in a snapshot
+     */
+    static void encode(List<byte[]> lines, TsvCursor line, TitleSnapshot.Output out) throws IOException {
+        for (byte[] akaLine : lines) {
+            line.reset(akaLine);
+            var title = line.field(TITLE);
+            out.akas.string(title.bytes(), title.start(), title.length());
+            out.akas.varint(out.regions.code(line.field(REGION)));
+            out.akas.varint(out.languages.code(line.field(LANGUAGE)));
+            out.akas.fixedByte(line.field(IS_ORIGINAL_TITLE).asBool() ? 1 : 0);
+        }
+    }
+
+    /**
+     * Same as {@link #addAkas(List, TsvCursor, JsonGenerator, List)}, for a title read from a snapshot
+     */
+    public static void addAkas(TitleSnapshot.Input in, JsonGenerator json, List<String> headers) throws IOException {
+        json.writeArrayFieldStart("akas");
 
-            arrayBuilder.add(lineJson);
+        long end = in.akasOffsets.fixedLong();
+        while (in.akas.offset() < end) {
+            json.writeStartObject();
+            Film.writeString(json, headers.get(TITLE), in.akas);
+            Film.writeDictionaryValue(json, headers.get(REGION), in.regions, in.akas);
+            Film.writeDictionaryValue(json, headers.get(LANGUAGE), in.languages, in.akas);
+            json.writeBooleanField(headers.get(IS_ORIGINAL_TITLE), in.akas.fixedByte() != 0);
+            json.writeEndObject();
         }
 
-        builder.add("akas", arrayBuilder.build());
+        json.writeEndArray();
     }
 }
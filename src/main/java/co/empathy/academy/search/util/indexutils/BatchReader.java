@@ -1,135 +1,318 @@
 package co.empathy.academy.search.util.indexutils;
 
-import jakarta.json.Json;
+import co.empathy.academy.search.util.indexutils.TsvFileSeeker.TconstRange;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Pattern;
 
-public class BatchReader {
+/**
+ * Reads the IMDb TSVs on batches of films, joining every film with its lines on the rest of the files. A reader can
+ * cover the whole films file or only a range of tconsts, so several of them can read the same files in parallel.
+ * Any of the files may be gzipped, see {@link TsvInputs}.
+ * <p>
+ * A reader can also cover a range of the titles of a {@link TitleSnapshot}, in which case nothing is read but their
+ * tconsts: the workers read every title from the snapshot columns themselves.
+ */
+public class BatchReader implements Closeable {
     private static final Pattern DELIMITER = Pattern.compile("\t");
-    private final BufferedReader filmsReader;
-    private final BufferedReader ratingsReader;
-    private final BufferedReader akasReader;
-    private final BufferedReader crewReader;
-    private final BufferedReader episodesPath;
-    private final BufferedReader principalReader;
-    private final Map<String, String[]> nameBasics;
+    //Position of every file in the join
+    private static final int FILMS = 0;
+    private static final int RATINGS = 1;
+    private static final int AKAS = 2;
+    private static final int CREW = 3;
+    private static final int PRINCIPALS = 4;
+    private static final int EPISODES = 5;
+    private final Path films;
+    private final List<TsvSortedRows> inputs;
+    private final MergeJoinCursor join;
+    private final NameDictionary nameBasics;
+    private final TconstRange range;
     private final int batchSize;
+    private final Headers headers;
+    private final TitleSnapshot snapshot;
+    private final int endRow;
+    private int nextRow;
     private boolean hasFinished;
-    private List<String> filmsHeaders;
-    private List<String> ratingsHeaders;
-    private List<String> akasHeaders;
-    private List<String> crewHeaders;
-    private List<String> episodesHeaders;
-    private List<String> principalHeaders;
-    private List<String> nameHeaders;
+    private int lastTconst;
 
     public BatchReader(String filmsPath, String ratingsPath, String akasPath, String crewPath, String episodesPath, String principalPath, String nameBasicsPath, int batchSize) throws IOException {
-        this.filmsReader = new BufferedReader(new FileReader(filmsPath));
-        this.ratingsReader = new BufferedReader(new FileReader(ratingsPath));
-        this.akasReader = new BufferedReader(new FileReader(akasPath));
-        this.crewReader = new BufferedReader(new FileReader(crewPath));
-        this.episodesPath = new BufferedReader(new FileReader(episodesPath));
-        this.principalReader = new BufferedReader(new FileReader(principalPath));
-        //nameBasics = Files.readAllLines(Path.of(nameBasicsPath)).stream().map(DELIMITER::split)
-         //       .collect(Collectors.toMap(a -> a[0], a -> a));
-        nameBasics = null;
+        this(new ImdbFiles(filmsPath, ratingsPath, akasPath, crewPath, episodesPath, principalPath, nameBasicsPath),
+                NameDictionary.open(nameBasicsPath), TconstRange.ALL, batchSize);
+    }
+
+    /**
+     * Creates a reader for the films in the given range. Every file is opened straight at the first line of the
+     * range, found through a binary search over its bytes (or by skipping lines, if it is gzipped), and all of them
+     * are merge joined by tconst.
+     */
+    public BatchReader(ImdbFiles files, NameDictionary nameBasics, TconstRange range, int batchSize) throws IOException {
+        this(files, nameBasics, IngestCheckpoint.Partition.start(range), batchSize);
+    }
+
+    /**
+     * Creates a reader for the films of a partition that is resumed from a checkpoint. Every file is opened straight
+     * at the offset recorded in it, or at the first line of the range if nothing was acknowledged yet.
+     */
+    public BatchReader(ImdbFiles files, NameDictionary nameBasics, IngestCheckpoint.Partition from, int batchSize) throws IOException {
+        this.headers = readHeaders(files);
+        this.range = from.range();
+        this.films = Path.of(files.films());
+        this.inputs = new ArrayList<>(EPISODES + 1);
+        try {
+            var paths = joinedPaths(files);
+            for (int i = 0; i < paths.size(); i++) {
+                var path = Path.of(paths.get(i));
+                var reader = from.offsets() != null
+                        ? TsvInputs.openAt(path, from.offsets().get(i))
+                        : TsvInputs.openFrom(path, range.from());
+                inputs.add(new TsvSortedRows(paths.get(i), reader));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        this.join = new MergeJoinCursor(inputs, range.to());
+        this.nameBasics = nameBasics;
         this.batchSize = batchSize;
+        this.snapshot = null;
+        this.endRow = 0;
         this.hasFinished = false;
+        this.lastTconst = from.lastTconst();
+    }
 
-        skipFirstLines();
+    /**
+     * Creates a reader for the titles of a snapshot in the range of a partition, starting from the row recorded in
+     * it if it is resumed from a checkpoint
+     */
+    public BatchReader(TitleSnapshot snapshot, NameDictionary nameBasics, IngestCheckpoint.Partition from, int batchSize) {
+        this.headers = snapshot.headers();
+        this.range = from.range();
+        this.films = null;
+        this.inputs = List.of();
+        this.join = null;
+        this.nameBasics = nameBasics;
+        this.batchSize = batchSize;
+        this.snapshot = snapshot;
+        this.endRow = snapshot.rowOf(range.to());
+        this.nextRow = from.offsets() != null ? from.offsets().get(0).intValue() : snapshot.rowOf(range.from());
+        this.hasFinished = false;
+        this.lastTconst = from.lastTconst();
     }
 
-    public boolean hasFinished() {
-        return this.hasFinished;
+    /**
+     * Splits the films file into, at most, the given number of tconst ranges of similar size and creates a reader
+     * for each one of them. All of them share the same name dictionary.
+     */
+    public static List<BatchReader> partitioned(ImdbFiles files, int partitions, int batchSize) throws IOException {
+        Episodes.prepare(files.episodes());
+        var nameBasics = NameDictionary.open(files.nameBasics());
+        List<BatchReader> readers = new ArrayList<>(partitions);
+
+        try {
+            for (var range : TsvFileSeeker.split(Path.of(files.films()), partitions))
+                readers.add(new BatchReader(files, nameBasics, range, batchSize));
+        } catch (IOException e) {
+            for (var reader : readers)
+                reader.close();
+            throw e;
+        }
+
+        return readers;
     }
 
-    public void skipFirstLines() throws IOException {
-        this.filmsHeaders = Arrays.stream(this.filmsReader.readLine().split(DELIMITER.pattern())).toList();
-        this.ratingsHeaders = Arrays.stream(this.ratingsReader.readLine().split(DELIMITER.pattern())).toList();
-        this.akasHeaders = Arrays.stream(this.akasReader.readLine().split(DELIMITER.pattern())).toList();
-        this.crewHeaders = Arrays.stream(this.crewReader.readLine().split(DELIMITER.pattern())).toList();
-        this.episodesHeaders = Arrays.stream(this.episodesPath.readLine().split(DELIMITER.pattern())).toList();
-        this.principalHeaders = Arrays.stream(this.principalReader.readLine().split(DELIMITER.pattern())).toList();
-        this.nameHeaders = null;
+    /**
+     * Splits the titles of a snapshot into, at most, the given number of tconst ranges of the same number of titles
+     * and creates a reader for each one of them. Names are looked up in the copy of the dictionary the snapshot keeps,
+     * so the documents are those the snapshot was built with even if name.basics has changed since.
+     */
+    public static List<BatchReader> partitioned(TitleSnapshot snapshot, int partitions, int batchSize) throws IOException {
+        var nameBasics = snapshot.names();
+        List<BatchReader> readers = new ArrayList<>(partitions);
+        for (var range : snapshot.split(partitions))
+            readers.add(new BatchReader(snapshot, nameBasics, IngestCheckpoint.Partition.start(range), batchSize));
+        return readers;
     }
 
-    public void close() throws IOException {
-        this.filmsReader.close();
-        this.ratingsReader.close();
-        this.akasReader.close();
-        this.crewReader.close();
-        this.episodesPath.close();
-        this.principalReader.close();
+    /**
+     * Creates a reader for every partition of a checkpoint that has not finished yet
+     */
+    public static List<BatchReader> resumed(IngestCheckpoint checkpoint, int batchSize) throws IOException {
+        if (checkpoint.snapshot() != null)
+            return resumedSnapshot(checkpoint, batchSize);
+
+        Episodes.prepare(checkpoint.files().episodes());
+        var nameBasics = NameDictionary.open(checkpoint.files().nameBasics());
+        List<BatchReader> readers = new ArrayList<>();
+
+        try {
+            for (var partition : checkpoint.partitions()) {
+                if (!partition.finished())
+                    readers.add(new BatchReader(checkpoint.files(), nameBasics, partition, batchSize));
+            }
+        } catch (IOException e) {
+            for (var reader : readers)
+                reader.close();
+            throw e;
+        }
+
+        return readers;
     }
 
-    public List<JsonContent> getBatch() throws IOException {
-        int counter = 0;
+    private static List<BatchReader> resumedSnapshot(IngestCheckpoint checkpoint, int batchSize) throws IOException {
+        var snapshot = TitleSnapshot.open(Path.of(checkpoint.snapshot()));
+        var nameBasics = snapshot.names();
+        List<BatchReader> readers = new ArrayList<>();
 
-        List<JsonContent> result = new ArrayList<>();
+        for (var partition : checkpoint.partitions()) {
+            if (!partition.finished())
+                readers.add(new BatchReader(snapshot, nameBasics, partition, batchSize));
+        }
 
-        while(counter < batchSize) {
-            var builder = Json.createObjectBuilder();
+        return readers;
+    }
 
-            String filmLine = filmsReader.readLine();
+    /**
+     * Paths of the files joined by tconst, in the order their offsets are recorded in checkpoints. Episodes are
+     * joined by the tconst of their series, from the copy {@link Episodes#prepare} sorts by it.
+     */
+    public static List<String> joinedPaths(ImdbFiles files) {
+        return List.of(files.films(), files.ratings(), files.akas(), files.crew(), files.principals(),
+                Episodes.byParent(files.episodes()));
+    }
 
-            if(filmLine == null) {
-                this.hasFinished = true;
-                return result;
-            }
+    /**
+     * Progress of the reader right after the last batch read: the last tconst returned and the offset in every file
+     * of the first line that has not been read yet, or the next row of a snapshot. Fingerprints are counted by whoever
+     * writes them
+     */
+    public IngestCheckpoint.Partition position() {
+        if (snapshot != null)
+            return new IngestCheckpoint.Partition(range.from(), range.to(), lastTconst, List.of((long) nextRow), 0, hasFinished);
+
+        List<Long> offsets = new ArrayList<>(inputs.size());
+        for (var input : inputs)
+            offsets.add(input.position());
+        return new IngestCheckpoint.Partition(range.from(), range.to(), lastTconst, offsets, 0, hasFinished);
+    }
 
-            int currentId = Integer.parseInt(filmLine.split(DELIMITER.pattern())[0].split("tt")[1]);
+    /**
+     * @return offset in the films file of the next line to read. Snapshots have no lines: it is the next row
+     */
+    public long filmsOffset() {
+        return snapshot != null ? nextRow : inputs.get(FILMS).position();
+    }
 
-            Film.addFilm(filmLine, builder, filmsHeaders);
+    /**
+     * @return bytes of the films file left to read until the end of the range, or -1 if they are unknown: a gzipped
+     * file is only measured as a whole, so a range of one split before it was read by a single partition has none.
+     * For a snapshot, rows left to read
+     */
+    public long remainingFilmsBytes() throws IOException {
+        if (snapshot != null)
+            return endRow - nextRow;
+        if (!TsvInputs.isGzipped(films))
+            return TsvFileSeeker.offsetOf(films, range.to()) - filmsOffset();
+        if (range.to() != Integer.MAX_VALUE)
+            return -1;
+        return Math.max(0, TsvInputs.size(films) - filmsOffset());
+    }
 
-            String ratingLine = ratingsReader.readLine();
-            Rating.addRating(ratingLine, builder, ratingsHeaders);
+    public boolean hasFinished() {
+        return this.hasFinished;
+    }
 
-            List<String> akasLines = getLinesAndResetReader(akasReader, currentId);
-            Akas.addAkas(akasLines, builder, akasHeaders);
+    public TconstRange range() {
+        return this.range;
+    }
 
-            String crewLine = crewReader.readLine();
-            Crew.addCrews(crewLine, builder, crewHeaders, nameBasics, nameHeaders);
+    public Headers headers() {
+        return this.headers;
+    }
 
-            List<String> principalsLines = getLinesAndResetReader(principalReader, currentId);
-            Principals.addPrincipals(principalsLines, builder, principalHeaders, nameBasics, nameHeaders);
+    private static Headers readHeaders(ImdbFiles files) throws IOException {
+        return new Headers(readHeader(files.films()), readHeader(files.ratings()), readHeader(files.akas()),
+                readHeader(files.crew()), readHeader(files.episodes()), readHeader(files.principals()));
+    }
 
-            result.add(new JsonContent(filmLine.split(DELIMITER.pattern())[0], builder.build()));
-            counter++;
+    private static List<String> readHeader(String path) throws IOException {
+        try (var reader = TsvInputs.reader(Path.of(path))) {
+            return Arrays.stream(reader.readLine().split(DELIMITER.pattern())).toList();
         }
-
-        return result;
     }
 
+    @Override
+    public void close() throws IOException {
+        for (var input : inputs)
+            input.close();
+    }
 
-    private List<String> getLinesAndResetReader(BufferedReader reader, int currentId) throws IOException {
-        boolean nextId = false;
-        List<String> lines = new ArrayList<>();
+    /**
+     * Reads the lines of the next batch of films without parsing them, so the (expensive) document building can be
+     * done elsewhere. It is not thread safe: a reader must be consumed by a single thread.
+     * @return the raw lines of, at most, batchSize films
+     */
+    public List<RawTitle> readBatch() throws IOException {
+        if (snapshot != null)
+            return readSnapshotBatch();
 
-        while(!nextId) {
-            reader.mark(10000);
-            String line = reader.readLine();
+        int counter = 0;
 
-            if(line == null)
-                nextId = true;
-            else {
-                int id = Integer.parseInt(line.split(DELIMITER.pattern())[0].split("tt")[1]);
+        List<RawTitle> result = new ArrayList<>(batchSize);
 
-                if (id > currentId)
-                    nextId = true;
-                else
-                    lines.add(line);
+        while(counter < batchSize) {
+            if(!join.next()) {
+                this.hasFinished = true;
+                return result;
             }
+
+            //Lines of titles that are not in the films file are skipped
+            if(join.rows(FILMS).isEmpty())
+                continue;
+
+            result.add(new RawTitle(join.key(), join.row(FILMS), join.row(RATINGS), join.rows(AKAS),
+                    join.row(CREW), join.rows(PRINCIPALS), join.rows(EPISODES), -1));
+            lastTconst = join.key();
+            counter++;
         }
 
-        reader.reset();
+        return result;
+    }
+
+    private List<RawTitle> readSnapshotBatch() {
+        int rows = Math.min(batchSize, endRow - nextRow);
+        List<RawTitle> result = new ArrayList<>(rows);
+
+        for (int i = 0; i < rows; i++, nextRow++) {
+            lastTconst = snapshot.tconst(nextRow);
+            result.add(RawTitle.inSnapshot(lastTconst, nextRow));
+        }
+
+        hasFinished = nextRow == endRow;
+        return result;
+    }
+
+    /**
+     * Creates a writer for the documents of the titles read. Every partition of the same files reads the same
+     * headers and shares the name dictionary, so the writer of any of them can write any title. Writers are not
+     * thread safe: each worker needs its own.
+     */
+    public TitleDocumentWriter documentWriter() {
+        return new TitleDocumentWriter(headers, nameBasics, snapshot);
+    }
 
-        return lines;
+    /**
+     * Column names of every file, used as field names of the documents.
+     */
+    public record Headers(List<String> films,
+                          List<String> ratings,
+                          List<String> akas,
+                          List<String> crew,
+                          List<String> episodes,
+                          List<String> principals) {
     }
 }
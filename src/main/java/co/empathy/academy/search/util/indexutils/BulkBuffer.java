@@ -0,0 +1,143 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reusable byte buffer holding the NDJSON body of a bulk request: an action line followed by a document line for
+ * every document. Buffers come from a {@link BulkBufferPool} and go back to it once their bulk is acknowledged.
+ * <p>
+ * The buffer remembers where every document starts, so the items of a bulk response (which come in the same order)
+ * can be mapped back to their bytes to retry or spool them, and which batches they come from, so those batches can be
+ * acknowledged once the bulk is.
+ */
+public class BulkBuffer extends OutputStream {
+    private byte[] bytes;
+    private int size;
+    private int documents;
+    private int[] documentStarts = new int[1024];
+    private int documentEnd;
+    private final List<RawBatch> batches = new ArrayList<>();
+    private int[] batchDocuments = new int[16];
+
+    public BulkBuffer(int capacity) {
+        this.bytes = new byte[capacity];
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(size + 1);
+        bytes[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] source, int offset, int length) {
+        ensureCapacity(size + length);
+        System.arraycopy(source, offset, bytes, size, length);
+        size += length;
+    }
+
+    /**
+     * Counts one more document, once its action and source lines have been written
+     */
+    public void documentWritten() {
+        if (documents == documentStarts.length)
+            documentStarts = Arrays.copyOf(documentStarts, documents * 2);
+        documentStarts[documents++] = documentEnd;
+        documentEnd = size;
+    }
+
+    /**
+     * @return offset of the first byte of the last document written
+     */
+    public int lastDocumentStart() {
+        return documentStarts[documents - 1];
+    }
+
+    /**
+     * Takes the last document written out of the buffer, as if it had never been written
+     */
+    public void dropLastDocument() {
+        size = documentStarts[--documents];
+        documentEnd = size;
+    }
+
+    /**
+     * Notes that the last document written comes from the given batch
+     */
+    public void cameFrom(RawBatch batch) {
+        int last = batches.size() - 1;
+        if (last >= 0 && batches.get(last) == batch) {
+            batchDocuments[last]++;
+            return;
+        }
+
+        if (batches.size() == batchDocuments.length)
+            batchDocuments = Arrays.copyOf(batchDocuments, batchDocuments.length * 2);
+        batchDocuments[batches.size()] = 1;
+        batches.add(batch);
+    }
+
+    /**
+     * @return batches the documents come from, in the order they were written
+     */
+    public List<RawBatch> batches() {
+        return batches;
+    }
+
+    /**
+     * @return number of documents that come from the batch at the given position of {@link #batches()}
+     */
+    public int batchDocuments(int batch) {
+        return batchDocuments[batch];
+    }
+
+    /**
+     * Writes a whole document (its action and source lines) from another buffer, as it is
+     * @param source   buffer holding the document
+     * @param document position of the document in that buffer
+     */
+    public void writeDocument(BulkBuffer source, int document) {
+        int start = source.documentStarts[document];
+        int end = document + 1 < source.documents ? source.documentStarts[document + 1] : source.documentEnd;
+        write(source.bytes, start, end - start);
+        documentWritten();
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int documents() {
+        return documents;
+    }
+
+    public int capacity() {
+        return bytes.length;
+    }
+
+    public boolean isEmpty() {
+        return documents == 0;
+    }
+
+    /**
+     * Empties the buffer, keeping its memory
+     */
+    public void reset() {
+        size = 0;
+        documents = 0;
+        documentEnd = 0;
+        batches.clear();
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+    }
+}
@@ -0,0 +1,36 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fixed set of bulk buffers shared by the ingest workers and senders. Taking a buffer blocks until one is released,
+ * so the memory used by bulk bodies is bounded by the number of buffers times their size, however many documents go
+ * into each bulk.
+ */
+public class BulkBufferPool {
+    private final BlockingQueue<BulkBuffer> buffers;
+    private final int bufferSize;
+
+    /**
+     * @param buffers    number of buffers
+     * @param bufferSize initial size of each one. A buffer may grow past it to fit its last document, but it is
+     *                   replaced when released if it grew more than twice as big
+     */
+    public BulkBufferPool(int buffers, int bufferSize) {
+        this.buffers = new ArrayBlockingQueue<>(buffers);
+        this.bufferSize = bufferSize;
+
+        for (int i = 0; i < buffers; i++)
+            this.buffers.add(new BulkBuffer(bufferSize));
+    }
+
+    public BulkBuffer acquire() throws InterruptedException {
+        return buffers.take();
+    }
+
+    public void release(BulkBuffer buffer) {
+        buffer.reset();
+        buffers.add(buffer.capacity() > 2 * bufferSize ? new BulkBuffer(bufferSize) : buffer);
+    }
+}
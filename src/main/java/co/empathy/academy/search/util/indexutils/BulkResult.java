@@ -0,0 +1,135 @@
+package co.empathy.academy.search.util.indexutils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk request, read with a streaming parser. When Elasticsearch reports no errors the items are not
+ * even looked at; otherwise only the failed ones are kept.
+ *
+ * @param errors   whether any item failed
+ * @param failures failed items, in the order they were sent
+ */
+public record BulkResult(boolean errors, List<Failure> failures) {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    static final String REJECTED = "es_rejected_execution_exception";
+
+    /**
+     * @param position index of the item in the bulk (0 for its first document)
+     * @param id       id of the document
+     * @param status   HTTP status of the item
+     * @param type     type of the error, such as mapper_parsing_exception
+     * @param reason   human readable reason
+     */
+    public record Failure(int position, String id, int status, String type, String reason) {
+
+        /**
+         * @return true if the item was rejected because a queue was full, so sending it again later may work
+         */
+        public boolean isRejection() {
+            return status == 429 || REJECTED.equals(type);
+        }
+
+        /**
+         * @return true if the item failed for a reason that may go away on its own: a rejection or an unavailable
+         * shard. Mapping errors and the like fail again however many times the document is sent
+         */
+        public boolean isRetryable() {
+            return isRejection() || status == 502 || status == 503 || status == 504;
+        }
+    }
+
+    /**
+     * @return true if any item was rejected because Elasticsearch queues were full
+     */
+    public boolean anyRejected() {
+        return failures.stream().anyMatch(Failure::isRejection);
+    }
+
+    public static BulkResult parse(InputStream body) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            boolean errors = false;
+            List<Failure> failures = new ArrayList<>();
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+
+                if (field.equals("errors")) {
+                    errors = parser.getBooleanValue();
+                    if (!errors)
+                        break;
+                } else if (field.equals("items")) {
+                    readItems(parser, failures);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            return new BulkResult(errors, failures);
+        }
+    }
+
+    /**
+     * Items look like {"index":{"_id":"42","status":400,"error":{"type":"...","reason":"..."}}}
+     */
+    private static void readItems(JsonParser parser, List<Failure> failures) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_ARRAY);
+
+        int position = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            parser.nextToken(); //The action name
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+
+            String id = null;
+            int status = 0;
+            String type = null;
+            String reason = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+
+                switch (field) {
+                    case "_id" -> id = parser.getText();
+                    case "status" -> status = parser.getIntValue();
+                    case "error" -> {
+                        if (parser.currentToken() != JsonToken.START_OBJECT) {
+                            reason = parser.getText();
+                            break;
+                        }
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String errorField = parser.getCurrentName();
+                            parser.nextToken();
+                            if (errorField.equals("type"))
+                                type = parser.getText();
+                            else if (errorField.equals("reason"))
+                                reason = parser.getText();
+                            else
+                                parser.skipChildren();
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+
+            //A delete of a missing document is a 404 without an error: there is nothing to fix
+            if (reason != null || type != null)
+                failures.add(new Failure(position, id, status, type, reason));
+
+            parser.nextToken(); //End of the item
+            position++;
+        }
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected)
+            throw new IOException("Unexpected bulk response: expected " + expected + " but found " + actual);
+    }
+}
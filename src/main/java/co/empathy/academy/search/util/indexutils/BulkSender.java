@@ -0,0 +1,161 @@
+package co.empathy.academy.search.util.indexutils;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Sends bulk bodies to an index and makes sure every document ends up either indexed or in the dead letter spool.
+ * <p>
+ * A bulk rejected as a whole is sent again after backing off, up to {@link #MAX_REJECTIONS} times in a row: past
+ * that, Elasticsearch is not keeping up at all and the job fails rather than waiting on it forever. Once accepted, every item of the response is checked:
+ * items that failed for a transient reason (full queues, unavailable shards) are sent again on their own, without the
+ * rest of the bulk, and items that failed for good (or too many times) are appended to the {@link DeadLetterSpool}.
+ * <p>
+ * Thread safe: every sender of a pipeline shares the same one.
+ */
+public class BulkSender {
+    private static final Logger logger = LoggerFactory.getLogger(BulkSender.class);
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson");
+    private static final int MAX_ATTEMPTS = 5;
+    //With the backoff doubling up to 30 s, a few minutes of rejections in a row
+    static final int MAX_REJECTIONS = 16;
+
+    private final RestClient client;
+    private final String index;
+    private final BulkThrottle throttle;
+    private final DeadLetterSpool deadLetters;
+    private final IngestProgress progress;
+    private final int maxRejections;
+
+    public BulkSender(RestClient client, String index, BulkThrottle throttle, DeadLetterSpool deadLetters,
+                      IngestProgress progress) {
+        this(client, index, throttle, deadLetters, progress, MAX_REJECTIONS);
+    }
+
+    BulkSender(RestClient client, String index, BulkThrottle throttle, DeadLetterSpool deadLetters,
+               IngestProgress progress, int maxRejections) {
+        this.client = client;
+        this.index = index;
+        this.throttle = throttle;
+        this.deadLetters = deadLetters;
+        this.progress = progress;
+        this.maxRejections = maxRejections;
+    }
+
+    public BulkThrottle throttle() {
+        return throttle;
+    }
+
+    /**
+     * Sends a bulk, blocking until every document in it has been indexed or spooled
+     * @return number of documents spooled as dead letters
+     * @throws IOException if Elasticsearch could not be reached, or rejected the bulk as a whole too many times
+     */
+    public int send(BulkBuffer bulk) throws IOException, InterruptedException {
+        var pending = bulk;
+        int deadLettered = 0;
+
+        for (int attempt = 1; ; attempt++) {
+            var result = sendUntilAccepted(pending);
+            if (!result.errors()) {
+                progress.acknowledged(bulk.documents(), bulk.size(), deadLettered);
+                return deadLettered;
+            }
+
+            BulkBuffer retries = null;
+            for (var failure : result.failures()) {
+                if (failure.isRetryable() && attempt < MAX_ATTEMPTS) {
+                    if (retries == null)
+                        retries = new BulkBuffer(pending.size() / pending.documents() * result.failures().size());
+                    retries.writeDocument(pending, failure.position());
+                } else {
+                    logger.warn("Document {} failed with {} ({}): {}", failure.id(), failure.status(), failure.type(),
+                            failure.reason());
+                    deadLetters.append(pending, failure.position());
+                    forget(bulk, failure.id());
+                    deadLettered++;
+                }
+            }
+
+            if (retries == null) {
+                progress.acknowledged(bulk.documents(), bulk.size(), deadLettered);
+                return deadLettered;
+            }
+
+            logger.info("Retrying {} documents of a bulk of {} (attempt {})", retries.documents(), pending.documents(),
+                    attempt + 1);
+            progress.retried(retries.documents());
+            pending = retries;
+        }
+    }
+
+    /**
+     * Sends a bulk, waiting for the throttle to allow it, and sends it again after backing off for as long as
+     * Elasticsearch rejects it as a whole, up to the maximum rejections in a row. Backs off too if some of its items
+     * were rejected.
+     */
+    private BulkResult sendUntilAccepted(BulkBuffer bulk) throws IOException, InterruptedException {
+        var request = new Request("POST", "/" + index + "/_bulk");
+        request.setEntity(new NByteArrayEntity(bulk.bytes(), 0, bulk.size(), NDJSON));
+
+        for (int rejections = 1; ; rejections++) {
+            throttle.acquire();
+            long start = System.nanoTime();
+            BulkResult result = null;
+            boolean rejected = false;
+            long backoff;
+
+            try {
+                var response = client.performRequest(request);
+                result = BulkResult.parse(response.getEntity().getContent());
+                rejected = result.anyRejected();
+                EntityUtils.consume(response.getEntity());
+            } catch (ResponseException e) {
+                if (!isRejection(e))
+                    throw e;
+                rejected = true;
+                if (rejections >= maxRejections)
+                    throw new IOException("Bulk of " + bulk.documents() + " documents rejected " + rejections
+                            + " times in a row", e);
+            } finally {
+                long latency = System.nanoTime() - start;
+                backoff = throttle.release(latency, rejected);
+                progress.bulkAnswered(latency, rejected);
+            }
+
+            if (backoff > 0)
+                Thread.sleep(backoff);
+            if (result != null)
+                return result;
+        }
+    }
+
+    /**
+     * Drops the fingerprint of a spooled document from the batch it was built from, if the bulk comes from a pipeline
+     */
+    private static void forget(BulkBuffer bulk, String id) {
+        if (bulk.batches().isEmpty())
+            return;
+
+        //Titles are sent with their tconst as id, tt0000042
+        int tconst = Integer.parseInt(id.substring(2));
+        for (int i = 0; i < bulk.batches().size(); i++) {
+            if (bulk.batches().get(i).forget(tconst))
+                return;
+        }
+    }
+
+    private static boolean isRejection(ResponseException e) throws IOException {
+        var entity = e.getResponse().getEntity();
+        return e.getResponse().getStatusLine().getStatusCode() == 429
+                || entity != null && EntityUtils.toString(entity).contains(BulkResult.REJECTED);
+    }
+}
@@ -0,0 +1,116 @@
+package co.empathy.academy.search.util.indexutils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides how big bulks are and how many of them are in flight, from the latency Elasticsearch answers them with.
+ * <p>
+ * While bulks come back faster than the target latency the throttle grows, first their size and then, once they are
+ * as big as allowed, the number of concurrent requests. As soon as a bulk is slower than the target both shrink (a
+ * quarter of the size, one request less), so the cluster keeps room for the query traffic it serves at the same
+ * time. A rejection (HTTP 429 or es_rejected_execution_exception) halves both and makes the sender wait, doubling
+ * the wait on every rejection in a row.
+ * <p>
+ * Thread safe: workers read {@link #bulkBytes()} to cut their buffers and senders go through
+ * {@link #acquire()}/{@link #release}.
+ */
+public class BulkThrottle {
+    private static final Logger logger = LoggerFactory.getLogger(BulkThrottle.class);
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final int SUCCESSES_TO_GROW = 3;
+
+    private final int minBytes;
+    private final int maxBytes;
+    private final int maxInFlight;
+    private final long targetLatencyNanos;
+
+    private volatile int bulkBytes;
+    private int allowedInFlight;
+    private int inFlight;
+    private int fastInARow;
+    private int rejectionsInARow;
+
+    /**
+     * @param maxBytes            biggest bulk body allowed. Bulks start at half of it and never go below a sixteenth
+     * @param maxInFlight         biggest number of concurrent bulk requests, that is, the number of senders
+     * @param targetLatencyMillis latency a bulk should be answered within
+     */
+    public BulkThrottle(int maxBytes, int maxInFlight, long targetLatencyMillis) {
+        this.maxBytes = maxBytes;
+        this.minBytes = Math.max(1, maxBytes / 16);
+        this.maxInFlight = maxInFlight;
+        this.targetLatencyNanos = targetLatencyMillis * 1_000_000;
+        this.bulkBytes = Math.max(minBytes, maxBytes / 2);
+        this.allowedInFlight = Math.max(1, maxInFlight / 2);
+    }
+
+    /**
+     * @return size, in bytes, at which a bulk body should be sent now
+     */
+    public int bulkBytes() {
+        return bulkBytes;
+    }
+
+    public synchronized int allowedInFlight() {
+        return allowedInFlight;
+    }
+
+    /**
+     * Blocks until one more bulk request may be sent
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= allowedInFlight)
+            wait();
+        inFlight++;
+    }
+
+    /**
+     * Gives back the slot taken by {@link #acquire()}, adjusting the limits with the outcome of the request
+     * @param latencyNanos time the request took
+     * @param rejected     whether Elasticsearch rejected it because its queues were full
+     * @return time to wait before sending again, 0 if there is no need to
+     */
+    public synchronized long release(long latencyNanos, boolean rejected) {
+        inFlight--;
+        long backoff = 0;
+
+        if (rejected) {
+            rejectionsInARow++;
+            fastInARow = 0;
+            bulkBytes = Math.max(minBytes, bulkBytes / 2);
+            allowedInFlight = Math.max(1, allowedInFlight / 2);
+            backoff = backoffMillis(rejectionsInARow);
+            logger.warn("Bulk rejected ({} in a row), backing off {} ms: {} bytes, {} in flight",
+                    rejectionsInARow, backoff, bulkBytes, allowedInFlight);
+        } else if (latencyNanos > targetLatencyNanos) {
+            rejectionsInARow = 0;
+            fastInARow = 0;
+            bulkBytes = Math.max(minBytes, bulkBytes - bulkBytes / 4);
+            allowedInFlight = Math.max(1, allowedInFlight - 1);
+        } else {
+            rejectionsInARow = 0;
+            if (++fastInARow >= SUCCESSES_TO_GROW) {
+                fastInARow = 0;
+                if (bulkBytes < maxBytes)
+                    bulkBytes = Math.min(maxBytes, bulkBytes + bulkBytes / 4);
+                else if (allowedInFlight < maxInFlight)
+                    allowedInFlight++;
+            }
+        }
+
+        notifyAll();
+        return backoff;
+    }
+
+    /**
+     * Exponential backoff with full jitter, so senders rejected at the same time don't come back at the same time
+     */
+    private static long backoffMillis(int attempt) {
+        long ceiling = MIN_BACKOFF_MILLIS << Math.min(attempt - 1, 20);
+        return ThreadLocalRandom.current().nextLong(MIN_BACKOFF_MILLIS, Math.min(ceiling, MAX_BACKOFF_MILLIS) + 1);
+    }
+}
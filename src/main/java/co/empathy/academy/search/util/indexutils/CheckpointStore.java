@@ -0,0 +1,60 @@
+package co.empathy.academy.search.util.indexutils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Local file holding the checkpoint of the running (or last failed) ingest job. Every save is written to a temporary
+ * file, synced to disk and moved over the previous one, so a crash in the middle of a save leaves the previous
+ * checkpoint in place.
+ */
+public class CheckpointStore {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Path file;
+
+    public CheckpointStore(Path file) {
+        this.file = file;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * @return the checkpoint of the last job that did not finish, if any
+     */
+    public Optional<IngestCheckpoint> load() throws IOException {
+        if (!Files.exists(file))
+            return Optional.empty();
+        return Optional.of(MAPPER.readValue(file.toFile(), IngestCheckpoint.class));
+    }
+
+    public void save(IngestCheckpoint checkpoint) throws IOException {
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+
+        var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(MAPPER.writeValueAsBytes(checkpoint)));
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Forgets the checkpoint, once its job has finished
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,77 @@
+package co.empathy.academy.search.util.indexutils;
+
+import co.empathy.academy.search.util.indexutils.TsvFileSeeker.TconstRange;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Turns acknowledged batches into checkpoints. Batches of a partition are acknowledged in any order, but its
+ * checkpoint only moves forward over batches whose every predecessor is acknowledged too, so resuming from it never
+ * skips a title. The fingerprints of the titles it moves over are written at the same time, in tconst order, and
+ * synced before the checkpoint is saved, which happens every time any partition moves forward. Titles spooled as dead
+ * letters are written as {@link Fingerprints#MISSING}, so the next delta job sends them again.
+ * <p>
+ * Thread safe: every sender reports to the same tracker.
+ */
+public class CheckpointTracker {
+    private final CheckpointStore store;
+    private IngestCheckpoint checkpoint;
+    private final Map<TconstRange, Integer> partitions = new HashMap<>();
+    private final long[] nextSequence;
+    private final List<TreeMap<Long, RawBatch>> acknowledged;
+    private final List<FingerprintStore.Writer> fingerprints;
+
+    /**
+     * @param store        where checkpoints are saved
+     * @param checkpoint   checkpoint the job starts (or resumes) from
+     * @param fingerprints writer of every partition, in the order of the checkpoint
+     */
+    public CheckpointTracker(CheckpointStore store, IngestCheckpoint checkpoint,
+                             List<FingerprintStore.Writer> fingerprints) {
+        this.store = store;
+        this.checkpoint = checkpoint;
+        this.fingerprints = fingerprints;
+        this.nextSequence = new long[checkpoint.partitions().size()];
+        this.acknowledged = new ArrayList<>();
+
+        for (int i = 0; i < checkpoint.partitions().size(); i++) {
+            partitions.put(checkpoint.partitions().get(i).range(), i);
+            acknowledged.add(new TreeMap<>());
+        }
+    }
+
+    public synchronized IngestCheckpoint checkpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Records that every document of a batch has been acknowledged, saving a new checkpoint if its partition can
+     * move forward
+     */
+    public synchronized void acknowledged(RawBatch batch) throws IOException {
+        int partition = partitions.get(batch.range());
+        var pending = acknowledged.get(partition);
+        var writer = fingerprints.get(partition);
+        pending.put(batch.sequence(), batch);
+
+        RawBatch last = null;
+        while (pending.containsKey(nextSequence[partition])) {
+            last = pending.remove(nextSequence[partition]++);
+            for (int i = 0; i < last.titles().size(); i++)
+                writer.append(last.titles().get(i).tconst(), last.fingerprint(i));
+        }
+
+        if (last != null) {
+            writer.sync();
+            List<IngestCheckpoint.Partition> progress = new ArrayList<>(checkpoint.partitions());
+            progress.set(partition, last.position().withFingerprints(writer.records()));
+            checkpoint = checkpoint.withPartitions(progress);
+            store.save(checkpoint);
+        }
+    }
+}
@@ -1,25 +1,58 @@
 package co.empathy.academy.search.util.indexutils;
 
-import jakarta.json.Json;
-import jakarta.json.JsonObjectBuilder;
+import com.fasterxml.jackson.core.JsonGenerator;
 
-import java.util.Arrays;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
 public class Crew {
     private static final int DIRECTORS = 1;
     private Crew() {}
 
-    public static void addCrews(String line, JsonObjectBuilder builder, List<String> headers, Map<String, String[]> nameBasics, List<String> nameHeaders) {
-        var directorsArray = Json.createArrayBuilder();
+    public static void addCrews(TsvCursor line, TsvCursor items, JsonGenerator json, List<String> headers,
+                                NameDictionary nameBasics, NameDictionary.Entry entry) throws IOException {
+        json.writeArrayFieldStart(headers.get(DIRECTORS));
 
-        var fields = line.split("\t");
+        if (line != null) {
+            items.reset(line.field(DIRECTORS));
+            while (items.nextField())
+                Name.addName(items, json, nameBasics, entry);
+        }
 
-        String[] directorIds = fields[DIRECTORS].split(",");
+        json.writeEndArray();
+    }
 
-        Arrays.stream(directorIds).map(x -> Name.addName(x, nameBasics, nameHeaders)).forEach(directorsArray::add);
+    /**
+     * Stores the directors of a title in a snapshot column: their count (0 if the title has no crew line) and their
+     * nconst numbers, -1 for \N
+     */
+    static void encode(TsvCursor line, TsvCursor items, TitleSnapshot.Output out) throws IOException {
+        out.directors.startValue();
+        if (line == null) {
+            out.directors.varint(0);
+            return;
+        }
+
+        int directors = 0;
+        items.reset(line.field(DIRECTORS));
+        while (items.nextField())
+            directors++;
+        out.directors.varint(directors);
+
+        items.reset(line.field(DIRECTORS));
+        while (items.nextField())
+            out.directors.zigzag(TitleSnapshot.id(items, "nm"));
+    }
 
-        builder.add(headers.get(DIRECTORS), directorsArray);
+    /**
+     * Same as {@link #addCrews(TsvCursor, TsvCursor, JsonGenerator, List, NameDictionary, NameDictionary.Entry)}, for
+     * a title read from a snapshot
+     */
+    public static void addCrews(TitleSnapshot.Input in, JsonGenerator json, List<String> headers,
+                                NameDictionary nameBasics, NameDictionary.Entry entry) throws IOException {
+        json.writeArrayFieldStart(headers.get(DIRECTORS));
+        for (long directors = in.directors.varint(); directors > 0; directors--)
+            Name.addName(in.directors.zigzag(), json, nameBasics, entry);
+        json.writeEndArray();
     }
 }
@@ -0,0 +1,10 @@
+package co.empathy.academy.search.util.indexutils;
+
+/**
+ * Outcome of replaying the dead letter spool.
+ *
+ * @param replayed     number of documents sent again
+ * @param deadLettered number of them Elasticsearch refused again, which are back in the spool
+ */
+public record DeadLetterReplay(long replayed, long deadLettered) {
+}
@@ -0,0 +1,77 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Local NDJSON file with the documents Elasticsearch refused for good (mapping errors, or rejections that outlived
+ * every retry). Documents are kept as they were sent, action line included, so the file is itself a valid bulk body
+ * that can be replayed once the cause has been fixed instead of indexing everything again.
+ * <p>
+ * Thread safe: every sender appends to the same spool.
+ */
+public class DeadLetterSpool {
+    private final Path file;
+    private OutputStream output;
+    private long documents;
+
+    public DeadLetterSpool(Path file) {
+        this.file = file;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * Appends a document of a bulk to the spool, flushing it to disk
+     * @param bulk     buffer holding the document
+     * @param document position of the document in the bulk
+     */
+    public synchronized void append(BulkBuffer bulk, int document) throws IOException {
+        if (output == null) {
+            if (file.getParent() != null)
+                Files.createDirectories(file.getParent());
+            output = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        var single = new BulkBuffer(0);
+        single.writeDocument(bulk, document);
+        output.write(single.bytes(), 0, single.size());
+        output.flush();
+        documents++;
+    }
+
+    /**
+     * @return number of documents spooled since the application started
+     */
+    public synchronized long documents() {
+        return documents;
+    }
+
+    /**
+     * Moves the spooled documents aside so they can be replayed while new failures keep being spooled
+     * @return file holding the documents to replay, or null if there are none
+     */
+    public synchronized Path drain() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+
+        //Left over by a replay that did not finish: it goes first
+        var drained = file.resolveSibling(file.getFileName() + ".replaying");
+        if (Files.exists(drained))
+            return drained;
+
+        if (!Files.exists(file) || Files.size(file) == 0)
+            return null;
+
+        Files.move(file, drained, StandardCopyOption.ATOMIC_MOVE);
+        return drained;
+    }
+}
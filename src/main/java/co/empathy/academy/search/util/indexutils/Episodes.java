@@ -0,0 +1,166 @@
+package co.empathy.academy.search.util.indexutils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Episodes of the series. title.episode is sorted by the tconst of the episode, so it is sorted once by its
+ * parentTconst (through an {@link ExternalSorter}) into {@code <title.episode>.by-parent.tsv}, which can then be
+ * merge joined like any other file: every series gets the lines of its episodes. The sorted file is only rebuilt when
+ * it is older than title.episode, like the {@link NameDictionary}.
+ * <p>
+ * Lines of the sorted file have the parentTconst first: parentTconst, tconst, seasonNumber, episodeNumber.
+ */
+public class Episodes {
+    private static final Logger logger = LoggerFactory.getLogger(Episodes.class);
+    private static final int PARENT_TCONST = 1;
+    //Columns of the sorted file, and the columns of title.episode their names come from
+    private static final int TCONST = 1;
+    private static final int SEASON_NUMBER = 2;
+    private static final int EPISODE_NUMBER = 3;
+    private static final int HEADER_TCONST = 0;
+    private static final int HEADER_SEASON_NUMBER = 2;
+    private static final int HEADER_EPISODE_NUMBER = 3;
+    //Season and episode numbers, and the position of the line, packed in a long to sort a series' episodes
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+
+    private Episodes() {}
+
+    /**
+     * @return path of the episodes sorted by parentTconst
+     */
+    public static String byParent(String episodesPath) {
+        return episodesPath + ".by-parent.tsv";
+    }
+
+    /**
+     * Sorts the episodes by parentTconst, unless that was already done since title.episode last changed
+     */
+    public static void prepare(String episodesPath) throws IOException {
+        long start = System.nanoTime();
+        if (ExternalSorter.sortIfStale(Path.of(episodesPath), PARENT_TCONST, Path.of(byParent(episodesPath))))
+            logger.info("Episodes sorted by series in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Adds the number of episodes and seasons of a series, and its episodes ordered by season and episode number.
+     * Titles without episodes get none of these fields.
+     */
+    public static void addEpisodes(List<byte[]> lines, TsvCursor line, JsonGenerator json, List<String> headers)
+            throws IOException {
+        if (lines.isEmpty())
+            return;
+
+        long[] order = order(lines, line);
+        json.writeNumberField("episodeCount", lines.size());
+        json.writeNumberField("seasonCount", seasons(order));
+        json.writeArrayFieldStart("episodes");
+        for (long episode : order) {
+            line.reset(lines.get((int) (episode & MASK)));
+            json.writeStartObject();
+            Film.writeString(json, headers.get(HEADER_TCONST), line.field(TCONST));
+            writeNumber(json, headers.get(HEADER_SEASON_NUMBER), line.field(SEASON_NUMBER));
+            writeNumber(json, headers.get(HEADER_EPISODE_NUMBER), line.field(EPISODE_NUMBER));
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+    }
+
+    /**
+     * Stores the episodes of a series as its group in a snapshot, already in the order they are written in: their
+     * count and the number of seasons, then the tconst, season and episode number of every episode. Numbers are
+     * stored plus one, so that 0 is \N.
+     */
+    static void encode(List<byte[]> lines, TsvCursor line, TitleSnapshot.Output out) throws IOException {
+        if (lines.isEmpty())
+            return;
+
+        long[] order = order(lines, line);
+        out.episodes.varint(lines.size());
+        out.episodes.varint(seasons(order));
+        for (long episode : order) {
+            line.reset(lines.get((int) (episode & MASK)));
+            out.episodes.varint(TitleSnapshot.id(line.field(TCONST), "tt"));
+            encodeNumber(out, line.field(SEASON_NUMBER));
+            encodeNumber(out, line.field(EPISODE_NUMBER));
+        }
+    }
+
+    /**
+     * Same as {@link #addEpisodes(List, TsvCursor, JsonGenerator, List)}, for a title read from a snapshot
+     */
+    public static void addEpisodes(TitleSnapshot.Input in, JsonGenerator json, List<String> headers) throws IOException {
+        long end = in.episodesOffsets.fixedLong();
+        if (in.episodes.offset() == end)
+            return;
+
+        long episodes = in.episodes.varint();
+        json.writeNumberField("episodeCount", episodes);
+        json.writeNumberField("seasonCount", in.episodes.varint());
+        json.writeArrayFieldStart("episodes");
+        for (; episodes > 0; episodes--) {
+            json.writeStartObject();
+            json.writeFieldName(headers.get(HEADER_TCONST));
+            Name.writeId(json, "tt", (int) in.episodes.varint());
+            writeNumber(json, headers.get(HEADER_SEASON_NUMBER), in.episodes.varint());
+            writeNumber(json, headers.get(HEADER_EPISODE_NUMBER), in.episodes.varint());
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+    }
+
+    /**
+     * @return the episodes of a series in the order they are written in, each one as its season and episode number
+     * and its position in the lines, packed in a long
+     */
+    private static long[] order(List<byte[]> lines, TsvCursor line) {
+        long[] order = new long[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            line.reset(lines.get(i));
+            long season = Math.min(line.field(SEASON_NUMBER).asInt(), MASK);
+            long episode = Math.min(line.field(EPISODE_NUMBER).asInt(), MASK);
+            order[i] = season << (2 * BITS) | episode << BITS | i;
+        }
+        Arrays.sort(order);
+        return order;
+    }
+
+    private static int seasons(long[] order) {
+        int seasons = 0;
+        long lastSeason = -1;
+        for (long episode : order) {
+            long season = episode >>> (2 * BITS);
+            if (season != 0 && season != lastSeason)
+                seasons++;
+            lastSeason = season;
+        }
+        return seasons;
+    }
+
+    /**
+     * Writes a number, leaving the field out if it is \N
+     */
+    private static void writeNumber(JsonGenerator json, String name, TsvCursor field) throws IOException {
+        if (!field.isNull())
+            json.writeNumberField(name, field.asInt());
+    }
+
+    /**
+     * Writes a number stored plus one, leaving the field out if it is 0 (\N)
+     */
+    private static void writeNumber(JsonGenerator json, String name, long stored) throws IOException {
+        if (stored != 0)
+            json.writeNumberField(name, (int) (stored - 1));
+    }
+
+    private static void encodeNumber(TitleSnapshot.Output out, TsvCursor field) throws IOException {
+        out.episodes.varint(field.isNull() ? 0 : Integer.toUnsignedLong(field.asInt()) + 1);
+    }
+}
@@ -0,0 +1,237 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Disk backed merge sort of a TSV by the IMDb id in one of its columns, for files that are not sorted by the key they
+ * have to be joined on. Lines are packed into a fixed run buffer, which is sorted and spilled to a run file every time
+ * it fills up, and the runs are then merged (at most {@link #MAX_FAN_IN} at a time) into the output. Memory is the
+ * run buffer plus a small read buffer per merged run, whatever the size of the file.
+ * <p>
+ * The output has the key column moved first, header included, so it can be read as {@link TsvSortedRows}. The sort
+ * is stable: lines with the same key keep the order of the input.
+ */
+public class ExternalSorter {
+    private static final int MAX_FAN_IN = 64;
+    private static final int RUN_READ_BUFFER = 1 << 16;
+    //Run buffer of the sorts of the IMDb files, done once per dump
+    private static final int STALE_RUN_BYTES = 64 << 20;
+
+    private final Path spillDirectory;
+    private final int runBytes;
+
+    /**
+     * @param spillDirectory where runs are written while sorting. They are deleted once merged
+     * @param runBytes       size of the run buffer, that is, the memory used to sort
+     */
+    public ExternalSorter(Path spillDirectory, int runBytes) {
+        this.spillDirectory = spillDirectory;
+        this.runBytes = runBytes;
+    }
+
+    /**
+     * Sorts a TSV by the id in the given column into another file, unless that was already done since the TSV last
+     * changed. Runs are spilled to a temporary directory next to the sorted file.
+     * @return true if the file was sorted, false if the sorted one was up to date
+     */
+    public static boolean sortIfStale(Path input, int keyColumn, Path output) throws IOException {
+        if (Files.exists(output) && Files.getLastModifiedTime(output).compareTo(Files.getLastModifiedTime(input)) >= 0)
+            return false;
+
+        new ExternalSorter(output.toAbsolutePath().getParent(), STALE_RUN_BYTES).sort(input, keyColumn, output);
+        return true;
+    }
+
+    /**
+     * Sorts a TSV (plain or gzipped) by the id in the given column. Lines whose key is \N are dropped.
+     */
+    public void sort(Path input, int keyColumn, Path output) throws IOException {
+        Files.createDirectories(spillDirectory);
+        var runsDirectory = Files.createTempDirectory(spillDirectory, "runs");
+        try {
+            byte[] header;
+            List<Path> runs = new ArrayList<>();
+
+            try (var lines = new TsvLineReader(TsvInputs.open(input))) {
+                var run = new Run(runBytes);
+                var cursor = TsvCursor.tabs();
+                header = lines.next() ? run.rekeyed(cursor, lines, keyColumn) : new byte[0];
+
+                while (lines.next()) {
+                    if (lines.start() == lines.end())
+                        continue;
+                    cursor.reset(lines.bytes(), lines.start(), lines.end());
+                    if (cursor.field(keyColumn).isNull())
+                        continue;
+
+                    if (!run.add(cursor, lines, keyColumn)) {
+                        runs.add(run.spill(runsDirectory.resolve("run-" + runs.size())));
+                        if (!run.add(cursor, lines, keyColumn))
+                            throw new IOException(input + " has a line longer than the sort buffer");
+                    }
+                }
+
+                if (!run.isEmpty() || runs.isEmpty())
+                    runs.add(run.spill(runsDirectory.resolve("run-" + runs.size())));
+            }
+
+            //Merged in passes, so the number of runs read at once (and their buffers) is bounded too
+            int pass = 0;
+            while (runs.size() > MAX_FAN_IN) {
+                List<Path> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                    var group = runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN));
+                    var next = runsDirectory.resolve("pass-" + pass + "-" + merged.size());
+                    merge(group, null, next);
+                    merged.add(next);
+                }
+                runs = merged;
+                pass++;
+            }
+
+            var temporary = runsDirectory.resolve("sorted");
+            merge(runs, header, temporary);
+            Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            try (var files = Files.list(runsDirectory)) {
+                for (var file : files.toList())
+                    Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(runsDirectory);
+        }
+    }
+
+    /**
+     * K-way merge of sorted runs. Ties go to the earliest run, which keeps the sort stable.
+     */
+    private static void merge(List<Path> runs, byte[] header, Path output) throws IOException {
+        List<TsvSortedRows> readers = new ArrayList<>(runs.size());
+        var queue = new PriorityQueue<Integer>(Comparator
+                .<Integer>comparingInt(i -> readers.get(i).peekKey())
+                .thenComparingInt(i -> i));
+
+        try (var out = new BufferedOutputStream(Files.newOutputStream(output), 1 << 16)) {
+            for (var run : runs) {
+                var reader = new TsvLineReader(Files.newInputStream(run), 0, RUN_READ_BUFFER);
+                readers.add(new TsvSortedRows(run.toString(), reader));
+            }
+            for (int i = 0; i < readers.size(); i++) {
+                if (readers.get(i).peekKey() != SortedRows.EXHAUSTED)
+                    queue.add(i);
+            }
+
+            if (header != null)
+                writeLine(out, header, 0, header.length);
+
+            while (!queue.isEmpty()) {
+                int i = queue.poll();
+                var row = readers.get(i).take();
+                writeLine(out, row, 0, row.length);
+                if (readers.get(i).peekKey() != SortedRows.EXHAUSTED)
+                    queue.add(i);
+            }
+        } finally {
+            for (var reader : readers)
+                reader.close();
+        }
+    }
+
+    private static void writeLine(OutputStream out, byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        out.write('\n');
+    }
+
+    /**
+     * Lines of a run, rekeyed and packed one after the other in a single buffer. They are sorted through an array of
+     * longs holding the key in the high half and the position of the line in the low one, so sorting them is a
+     * primitive sort that keeps the input order on ties.
+     */
+    private static class Run {
+        private final byte[] bytes;
+        private int size;
+        private int[] starts = new int[1 << 16];
+        private long[] keys = new long[1 << 16];
+        private int lines;
+
+        private Run(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        private boolean isEmpty() {
+            return lines == 0;
+        }
+
+        /**
+         * @return false if the line does not fit in what is left of the buffer
+         */
+        private boolean add(TsvCursor cursor, TsvLineReader line, int keyColumn) {
+            if (size + (line.end() - line.start()) > bytes.length)
+                return false;
+
+            if (lines == starts.length) {
+                starts = Arrays.copyOf(starts, lines * 2);
+                keys = Arrays.copyOf(keys, lines * 2);
+            }
+
+            long key = cursor.field(keyColumn).asId();
+            starts[lines] = size;
+            keys[lines] = key << 32 | lines;
+            lines++;
+            size = rekey(cursor, line, keyColumn, bytes, size);
+            return true;
+        }
+
+        private byte[] rekeyed(TsvCursor cursor, TsvLineReader line, int keyColumn) {
+            byte[] rekeyed = new byte[line.end() - line.start()];
+            cursor.reset(line.bytes(), line.start(), line.end());
+            rekey(cursor, line, keyColumn, rekeyed, 0);
+            return rekeyed;
+        }
+
+        /**
+         * Copies the line with its key column moved first
+         * @return offset right after the copy
+         */
+        private static int rekey(TsvCursor cursor, TsvLineReader line, int keyColumn, byte[] target, int offset) {
+            var key = cursor.field(keyColumn);
+            System.arraycopy(key.bytes(), key.start(), target, offset, key.length());
+            offset += key.length();
+
+            cursor.reset(line.bytes(), line.start(), line.end());
+            for (int i = 0; cursor.nextField(); i++) {
+                if (i == keyColumn)
+                    continue;
+                target[offset++] = TsvCursor.TAB;
+                System.arraycopy(cursor.bytes(), cursor.start(), target, offset, cursor.length());
+                offset += cursor.length();
+            }
+            return offset;
+        }
+
+        private Path spill(Path file) throws IOException {
+            Arrays.sort(keys, 0, lines);
+
+            try (var out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+                for (int i = 0; i < lines; i++) {
+                    int line = (int) keys[i];
+                    int end = line + 1 < lines ? starts[line + 1] : size;
+                    writeLine(out, bytes, starts[line], end - starts[line]);
+                }
+            }
+
+            size = 0;
+            lines = 0;
+            return file;
+        }
+    }
+}
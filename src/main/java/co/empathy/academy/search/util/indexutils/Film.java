@@ -1,13 +1,11 @@
 package co.empathy.academy.search.util.indexutils;
 
-import co.empathy.academy.search.util.indexutils.converters.StringToBoolConverter;
-import co.empathy.academy.search.util.indexutils.converters.StringToIntConverter;
-import jakarta.json.Json;
-import jakarta.json.JsonObjectBuilder;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.util.Arrays;
+import java.io.IOException;
 import java.util.List;
 
 @Getter
@@ -24,21 +22,102 @@ public class Film {
     private static final int GENRES = 8;
     private Film(){}
 
-    public static void addFilm(String line, JsonObjectBuilder builder, List<String> headers) {
-        String[] fields = line.split("\t");
+    public static void addFilm(TsvCursor line, TsvCursor items, JsonGenerator json, List<String> headers) throws IOException {
+        writeString(json, headers.get(TCONST), line.field(TCONST));
+        json.writeFieldName(headers.get(TITLE_TYPE));
+        SymbolTable.TITLE_TYPES.write(json, line.field(TITLE_TYPE));
+        writeString(json, headers.get(PRIMARY_TITLE), line.field(PRIMARY_TITLE));
+        writeString(json, headers.get(ORIGINAL_TITLE), line.field(ORIGINAL_TITLE));
+        json.writeBooleanField(headers.get(IS_ADULT), line.field(IS_ADULT).asBool());
+        json.writeNumberField(headers.get(START_YEAR), line.field(START_YEAR).asInt());
+        json.writeNumberField(headers.get(END_YEAR), line.field(END_YEAR).asInt());
+        json.writeNumberField(headers.get(RUNTIME_MINUTES), line.field(RUNTIME_MINUTES).asInt());
 
-        var arrayBuilder = Json.createArrayBuilder();
+        json.writeArrayFieldStart(headers.get(GENRES));
+        items.reset(line.field(GENRES));
+        while (items.nextField())
+            SymbolTable.GENRES.write(json, items);
+        json.writeEndArray();
+    }
+
+    /**
+     * Stores the fields of a film line in the columns of a snapshot, see {@link TitleSnapshot}
+     */
+    static void encode(TsvCursor line, TsvCursor items, TitleSnapshot.Output out) throws IOException {
+        out.titleType.startValue();
+        out.titleType.varint(out.titleTypes.code(line.field(TITLE_TYPE)));
+        writeString(out.primaryTitle, line.field(PRIMARY_TITLE));
+        writeString(out.originalTitle, line.field(ORIGINAL_TITLE));
+        out.isAdult.fixedByte(line.field(IS_ADULT).asBool() ? 1 : 0);
+        out.startYear.startValue();
+        out.startYear.zigzag(line.field(START_YEAR).asInt());
+        out.endYear.startValue();
+        out.endYear.zigzag(line.field(END_YEAR).asInt());
+        out.runtimeMinutes.startValue();
+        out.runtimeMinutes.zigzag(line.field(RUNTIME_MINUTES).asInt());
+
+        int genres = 0;
+        items.reset(line.field(GENRES));
+        while (items.nextField())
+            genres++;
+        out.genreCodes.startValue();
+        out.genreCodes.varint(genres);
+        items.reset(line.field(GENRES));
+        while (items.nextField())
+            out.genreCodes.varint(out.genres.code(items));
+    }
+
+    /**
+     * Same as {@link #addFilm(TsvCursor, TsvCursor, JsonGenerator, List)}, for a title read from a snapshot
+     */
+    public static void addFilm(TitleSnapshot.Input in, int tconst, JsonGenerator json, List<String> headers) throws IOException {
+        json.writeFieldName(headers.get(TCONST));
+        Name.writeId(json, "tt", tconst);
+        writeDictionaryValue(json, headers.get(TITLE_TYPE), in.titleTypes, in.titleType);
+        writeString(json, headers.get(PRIMARY_TITLE), in.primaryTitle);
+        writeString(json, headers.get(ORIGINAL_TITLE), in.originalTitle);
+        json.writeBooleanField(headers.get(IS_ADULT), in.isAdult.fixedByte() != 0);
+        json.writeNumberField(headers.get(START_YEAR), in.startYear.zigzag());
+        json.writeNumberField(headers.get(END_YEAR), in.endYear.zigzag());
+        json.writeNumberField(headers.get(RUNTIME_MINUTES), in.runtimeMinutes.zigzag());
+
+        json.writeArrayFieldStart(headers.get(GENRES));
+        for (long genres = in.genreCodes.varint(); genres > 0; genres--)
+            json.writeString(in.genres[(int) in.genreCodes.varint()]);
+        json.writeEndArray();
+    }
+
+    /**
+     * Writes a field whose value is the (already UTF-8) content of the cursor, without decoding it into a String
+     */
+    static void writeString(JsonGenerator json, String name, TsvCursor value) throws IOException {
+        json.writeFieldName(name);
+        json.writeUTF8String(value.bytes(), value.start(), value.length());
+    }
 
-        Arrays.stream(fields[GENRES].split(",")).forEach(arrayBuilder::add);
+    /**
+     * Writes a field whose value is a string read from a snapshot column
+     */
+    static void writeString(JsonGenerator json, String name, SnapshotColumn.Cursor column) throws IOException {
+        int length = column.string();
+        json.writeFieldName(name);
+        json.writeUTF8String(column.bytes(), 0, length);
+    }
+
+    /**
+     * Writes a field whose value is stored in a snapshot column as its number in a dictionary
+     */
+    static void writeDictionaryValue(JsonGenerator json, String name, SerializedString[] dictionary,
+                                     SnapshotColumn.Cursor column) throws IOException {
+        json.writeFieldName(name);
+        json.writeString(dictionary[(int) column.varint()]);
+    }
 
-        builder.add(headers.get(TCONST), fields[TCONST])
-                .add(headers.get(TITLE_TYPE), fields[TITLE_TYPE])
-                .add(headers.get(PRIMARY_TITLE), fields[PRIMARY_TITLE])
-                .add(headers.get(ORIGINAL_TITLE), fields[ORIGINAL_TITLE])
-                .add(headers.get(IS_ADULT), StringToBoolConverter.getBool(fields[IS_ADULT]))
-                .add(headers.get(START_YEAR), StringToIntConverter.getInt(fields[START_YEAR]))
-                .add(headers.get(END_YEAR), StringToIntConverter.getInt(fields[END_YEAR]))
-                .add(headers.get(RUNTIME_MINUTES), StringToIntConverter.getInt(fields[RUNTIME_MINUTES]))
-                .add(headers.get(GENRES), arrayBuilder.build());
+    /**
+     * Stores the content of the cursor as a value of a string column
+     */
+    static void writeString(SnapshotColumn.Writer column, TsvCursor value) throws IOException {
+        column.startValue();
+        column.string(value.bytes(), value.start(), value.length());
     }
 }
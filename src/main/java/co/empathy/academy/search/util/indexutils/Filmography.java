@@ -0,0 +1,63 @@
+package co.empathy.academy.search.util.indexutils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Titles every person took part in: title.principals joined the other way round, by nconst. The file is sorted by
+ * tconst, so it is sorted once by nconst (through an {@link ExternalSorter}) into
+ * {@code <title.principals>.by-name.tsv}, which can then be merge joined with name.basics. The sorted file is only
+ * rebuilt when it is older than title.principals, like the {@link Episodes}.
+ * <p>
+ * Lines of the sorted file have the nconst first: nconst, tconst, ordering, category, job, characters.
+ */
+public class Filmography {
+    private static final Logger logger = LoggerFactory.getLogger(Filmography.class);
+    private static final int NCONST = 2;
+    //Columns of the sorted file, and the columns of title.principals their names come from
+    private static final int TCONST = 1;
+    private static final int CATEGORY = 3;
+    private static final int HEADER_TCONST = 0;
+    private static final int HEADER_CATEGORY = 3;
+
+    private Filmography() {}
+
+    /**
+     * @return path of the principals sorted by nconst
+     */
+    public static String byName(String principalsPath) {
+        return principalsPath + ".by-name.tsv";
+    }
+
+    /**
+     * Sorts the principals by nconst, unless that was already done since title.principals last changed
+     */
+    public static void prepare(String principalsPath) throws IOException {
+        long start = System.nanoTime();
+        if (ExternalSorter.sortIfStale(Path.of(principalsPath), NCONST, Path.of(byName(principalsPath))))
+            logger.info("Principals sorted by name in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Adds the titles a person took part in, with the category they took part as (actor, director...)
+     */
+    public static void addFilmography(List<byte[]> lines, TsvCursor line, JsonGenerator json, List<String> headers)
+            throws IOException {
+        json.writeArrayFieldStart("filmography");
+
+        for (byte[] principalLine : lines) {
+            line.reset(principalLine);
+            json.writeStartObject();
+            Film.writeString(json, headers.get(HEADER_TCONST), line.field(TCONST));
+            Film.writeString(json, headers.get(HEADER_CATEGORY), line.field(CATEGORY));
+            json.writeEndObject();
+        }
+
+        json.writeEndArray();
+    }
+}
@@ -0,0 +1,164 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Local directory with the {@link Fingerprints} of what is in the index. While a job runs, every partition writes
+ * the fingerprints of its acknowledged titles to a file of its own, in tconst order. Partitions are ranges in
+ * ascending order, so once the job is done their files are simply concatenated into the new fingerprints, which then
+ * replace the current ones.
+ * <p>
+ * It also keeps the {@link RatingsSnapshot} of the ratings last applied to the index, which ratings refreshes diff
+ * the new ratings file against.
+ */
+public class FingerprintStore {
+    private final Path directory;
+
+    public FingerprintStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return fingerprints of what was indexed by the last job that finished
+     */
+    public Fingerprints current() throws IOException {
+        return Fingerprints.open(directory.resolve("fingerprints.bin"));
+    }
+
+    /**
+     * Opens the file of a partition of the running job, dropping anything after the records a checkpoint accounts for
+     * @param partition position of the partition in the checkpoint
+     * @param keep      records to keep, 0 for a partition that has not acknowledged anything yet
+     */
+    public Writer writer(int partition, long keep) throws IOException {
+        Files.createDirectories(directory);
+        return new Writer(partitionFile(partition), keep);
+    }
+
+    /**
+     * Concatenates the files of every partition of the running job
+     * @return the new fingerprints, to be compared with the current ones and {@link #commit committed}
+     */
+    public Path assemble(int partitions) throws IOException {
+        var next = directory.resolve("fingerprints.next");
+        try (var output = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < partitions; i++) {
+                try (var input = FileChannel.open(partitionFile(i), StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (position < input.size())
+                        position += input.transferTo(position, input.size() - position, output);
+                }
+            }
+            output.force(true);
+        }
+        return next;
+    }
+
+    /**
+     * Walks the current and the new fingerprints side by side, both sorted by tconst
+     * @return titles that have a current fingerprint but not a new one, which are no longer in the files
+     */
+    public int[] removed(Path next) throws IOException {
+        var current = current();
+        var upcoming = Fingerprints.open(next);
+        int[] removed = new int[16];
+        int count = 0;
+
+        int j = 0;
+        for (int i = 0; i < current.size(); i++) {
+            int tconst = current.tconst(i);
+            while (j < upcoming.size() && upcoming.tconst(j) < tconst)
+                j++;
+
+            if (j == upcoming.size() || upcoming.tconst(j) != tconst) {
+                if (count == removed.length)
+                    removed = Arrays.copyOf(removed, count * 2);
+                removed[count++] = tconst;
+            }
+        }
+
+        return Arrays.copyOf(removed, count);
+    }
+
+    /**
+     * Makes the new fingerprints the current ones and deletes the files of the partitions
+     */
+    public void commit(Path next, int partitions) throws IOException {
+        Files.move(next, directory.resolve("fingerprints.bin"), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        for (int i = 0; i < partitions; i++)
+            Files.deleteIfExists(partitionFile(i));
+    }
+
+    /**
+     * @return ratings last applied to the index, empty if no job has applied any yet
+     */
+    public RatingsSnapshot ratings() throws IOException {
+        return RatingsSnapshot.load(directory.resolve("ratings.bin"));
+    }
+
+    /**
+     * Replaces the ratings last applied to the index
+     */
+    public void commitRatings(RatingsSnapshot ratings) throws IOException {
+        ratings.save(directory.resolve("ratings.bin"));
+    }
+
+    private Path partitionFile(int partition) {
+        return directory.resolve("partition-" + partition + ".bin");
+    }
+
+    /**
+     * Appends the fingerprints of a partition, in tconst order. Not thread safe.
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final DataOutputStream output;
+        private long records;
+
+        private Writer(Path file, long keep) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.truncate(keep * Fingerprints.RECORD_BYTES);
+            channel.position(keep * Fingerprints.RECORD_BYTES);
+            this.output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            this.records = keep;
+        }
+
+        public void append(int tconst, long hash) throws IOException {
+            output.writeInt(tconst);
+            output.writeLong(hash);
+            records++;
+        }
+
+        /**
+         * @return records in the file, including those kept from before
+         */
+        public long records() {
+            return records;
+        }
+
+        /**
+         * Writes the appended records to disk, before a checkpoint that accounts for them is saved
+         */
+        public void sync() throws IOException {
+            output.flush();
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+}
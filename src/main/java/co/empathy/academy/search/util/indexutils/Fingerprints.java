@@ -0,0 +1,108 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Content hashes of the documents in the index, one per title, as a memory mapped file of (int tconst, long hash)
+ * records sorted by tconst. Comparing the hash of a freshly built document with the one in here tells whether the
+ * title changed since it was last indexed without asking Elasticsearch.
+ */
+public final class Fingerprints {
+    public static final int RECORD_BYTES = Integer.BYTES + Long.BYTES;
+    /**
+     * Returned for titles without a fingerprint. {@link #hash} never returns it
+     */
+    public static final long MISSING = 0;
+    public static final Fingerprints EMPTY = new Fingerprints(null, 0);
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final MappedByteBuffer records;
+    private final int size;
+
+    private Fingerprints(MappedByteBuffer records, int size) {
+        this.records = records;
+        this.size = size;
+    }
+
+    /**
+     * Maps a fingerprints file, or returns {@link #EMPTY} if there is none
+     */
+    public static Fingerprints open(Path path) throws IOException {
+        if (!Files.exists(path))
+            return EMPTY;
+
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long bytes = channel.size();
+            if (bytes % RECORD_BYTES != 0)
+                throw new IOException(path + " is not a fingerprints file");
+            return new Fingerprints(channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes), (int) (bytes / RECORD_BYTES));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int tconst(int record) {
+        return records.getInt(record * RECORD_BYTES);
+    }
+
+    public long hash(int record) {
+        return records.getLong(record * RECORD_BYTES + Integer.BYTES);
+    }
+
+    /**
+     * @return the hash of the title, or {@link #MISSING} if it has none
+     */
+    public long get(int tconst) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int key = tconst(middle);
+            if (key < tconst)
+                low = middle + 1;
+            else if (key > tconst)
+                high = middle - 1;
+            else
+                return hash(middle);
+        }
+
+        return MISSING;
+    }
+
+    /**
+     * 64 bit hash of a slice, eight bytes at a time. It is not cryptographic, only meant to tell documents apart.
+     */
+    public static long hash(byte[] bytes, int offset, int length) {
+        long hash = length * MULTIPLIER;
+        int end = offset + length;
+        int i = offset;
+
+        for (; i + Long.BYTES <= end; i += Long.BYTES)
+            hash = mix(hash ^ mix((long) LONGS.get(bytes, i)));
+
+        long tail = 0;
+        for (int shift = 0; i < end; i++, shift += 8)
+            tail |= (bytes[i] & 0xFFL) << shift;
+        hash = mix(hash ^ mix(tail));
+
+        return hash == MISSING ? 1 : hash;
+    }
+
+    private static long mix(long value) {
+        value *= MULTIPLIER;
+        return value ^ (value >>> 29);
+    }
+}
@@ -0,0 +1,13 @@
+package co.empathy.academy.search.util.indexutils;
+
+/**
+ * Paths of the IMDb TSVs an ingest reads from.
+ */
+public record ImdbFiles(String films,
+                        String ratings,
+                        String akas,
+                        String crew,
+                        String episodes,
+                        String principals,
+                        String nameBasics) {
+}
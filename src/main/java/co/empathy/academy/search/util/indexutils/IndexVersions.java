@@ -0,0 +1,177 @@
+package co.empathy.academy.search.util.indexutils;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Versioned indices behind a serving alias. Every ingest builds a new index (films_v20220501093000) while searches
+ * keep hitting the previous one through the alias, and the alias is only moved once the new index is complete, so
+ * searches never see an empty or half built index.
+ * <p>
+ * While loading, the new index has no replicas, no refresh and an async translog, which is what makes a bulk load
+ * fast. Once loaded, the serving settings are restored, the index is force merged and the alias is moved to it in a
+ * single atomic request. The indices it was moved from are deleted.
+ */
+public class IndexVersions {
+    private static final Logger logger = LoggerFactory.getLogger(IndexVersions.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final DateTimeFormatter VERSION = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final String LOADING_SETTINGS =
+            "{\"index\":{\"refresh_interval\":\"-1\",\"number_of_replicas\":0,\"translog\":{\"durability\":\"async\"}}}";
+    private static final String SERVING_SETTINGS =
+            "{\"index\":{\"refresh_interval\":null,\"translog\":{\"durability\":\"request\"}}}";
+    //Merging a whole index takes far longer than the default socket timeout
+    private static final RequestOptions FORCE_MERGE_OPTIONS = RequestOptions.DEFAULT.toBuilder()
+            .setRequestConfig(RequestConfig.custom().setSocketTimeout(60 * 60 * 1000).build())
+            .build();
+
+    private final ElasticsearchClient client;
+    private final RestClient restClient;
+    private final String alias;
+    private final String mappingsResource;
+    private final int servingReplicas;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param alias            name searches use, such as films
+     * @param mappingsResource resource with the mappings of the index
+     * @param servingReplicas  replicas the index gets once it is loaded
+     */
+    public IndexVersions(ElasticsearchClient client, RestClient restClient, String alias, String mappingsResource,
+                         int servingReplicas) {
+        this.client = client;
+        this.restClient = restClient;
+        this.alias = alias;
+        this.mappingsResource = mappingsResource;
+        this.servingReplicas = servingReplicas;
+    }
+
+    public String alias() {
+        return alias;
+    }
+
+    /**
+     * Registers a listener called whenever what searches see through the alias changes: a version is published, or
+     * a job is done writing into the live index. Caches of search responses are dropped with it.
+     */
+    public void onChange(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Tells the listeners that the documents behind the alias changed in place, as after a delta job
+     */
+    public void changed() {
+        for (var listener : listeners)
+            listener.run();
+    }
+
+    /**
+     * Creates a new version of the index, with the analyzers of the application, its mappings and the settings of a
+     * bulk load
+     * @return name of the new index
+     */
+    public String create() throws IOException {
+        String index = alias + "_v" + ZonedDateTime.now(ZoneOffset.UTC).format(VERSION);
+
+        try (var analyzers = resource("analyzers.json"); var mappings = resource(mappingsResource)) {
+            client.indices().create(c -> c.index(index).withJson(analyzers));
+            perform("PUT", "/" + index + "/_settings", LOADING_SETTINGS);
+            client.indices().putMapping(m -> m.index(index).withJson(mappings));
+        }
+
+        logger.info("Created {} to load into", index);
+        return index;
+    }
+
+    /**
+     * Makes a loaded index the one searches hit: restores its serving settings, refreshes and force merges it, gives
+     * it its replicas and atomically moves the alias to it, deleting the indices it was on.
+     */
+    public void publish(String index) throws IOException {
+        perform("PUT", "/" + index + "/_settings", SERVING_SETTINGS);
+        perform("POST", "/" + index + "/_refresh", null);
+
+        //Merged before adding replicas, so they copy the final segments instead of merging them all over again
+        var forceMerge = new Request("POST", "/" + index + "/_forcemerge");
+        forceMerge.addParameter("max_num_segments", "1");
+        forceMerge.setOptions(FORCE_MERGE_OPTIONS);
+        EntityUtils.consume(restClient.performRequest(forceMerge).getEntity());
+
+        perform("PUT", "/" + index + "/_settings", "{\"index\":{\"number_of_replicas\":" + servingReplicas + "}}");
+
+        var previous = indicesBehindAlias();
+        List<String> actions = new ArrayList<>();
+        actions.add("{\"add\":{\"index\":\"" + index + "\",\"alias\":\"" + alias + "\"}}");
+        if (previous == null) {
+            //An index was created with the name of the alias before versions were used: it goes in the same request
+            if (exists(alias))
+                actions.add("{\"remove_index\":{\"index\":\"" + alias + "\"}}");
+        } else {
+            for (String old : previous) {
+                if (!old.equals(index))
+                    actions.add("{\"remove\":{\"index\":\"" + old + "\",\"alias\":\"" + alias + "\"}}");
+            }
+        }
+        perform("POST", "/_aliases", "{\"actions\":[" + String.join(",", actions) + "]}");
+        logger.info("Alias {} moved to {}", alias, index);
+        changed();
+
+        if (previous != null) {
+            for (String old : previous) {
+                if (!old.equals(index))
+                    perform("DELETE", "/" + old, null);
+            }
+        }
+    }
+
+    /**
+     * @return indices the alias points to, or null if there is no such alias
+     */
+    private List<String> indicesBehindAlias() throws IOException {
+        try {
+            var response = restClient.performRequest(new Request("GET", "/_alias/" + alias));
+            List<String> indices = new ArrayList<>();
+            MAPPER.readTree(response.getEntity().getContent()).fieldNames().forEachRemaining(indices::add);
+            return indices;
+        } catch (ResponseException e) {
+            if (e.getResponse().getStatusLine().getStatusCode() == 404)
+                return null;
+            throw e;
+        }
+    }
+
+    private boolean exists(String index) throws IOException {
+        var response = restClient.performRequest(new Request("HEAD", "/" + index));
+        return response.getStatusLine().getStatusCode() == 200;
+    }
+
+    private void perform(String method, String endpoint, String json) throws IOException {
+        var request = new Request(method, endpoint);
+        if (json != null)
+            request.setJsonEntity(json);
+        EntityUtils.consume(restClient.performRequest(request).getEntity());
+    }
+
+    private InputStreamReader resource(String name) {
+        return new InputStreamReader(getClass().getClassLoader().getResourceAsStream(name), StandardCharsets.UTF_8);
+    }
+}
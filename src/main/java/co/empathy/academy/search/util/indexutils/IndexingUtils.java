@@ -1,54 +1,425 @@
 package co.empathy.academy.search.util.indexutils;
 
-import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch._types.ElasticsearchException;
-import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
 import co.empathy.academy.search.exception.InternalServerException;
+import co.empathy.academy.search.exception.InvalidCheckpointException;
 import co.empathy.academy.search.util.ClientCustomConfiguration;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.elasticsearch.client.RestClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
- * Used for reading data from the file specified on batches
+ * Used for reading data from the file specified on batches and indexing it through an {@link IngestPipeline}
  */
 public class IndexingUtils {
-    //Size of the batches
-    private static final int BATCH_SIZE = 25000;
     private static final Logger logger = LoggerFactory.getLogger(IndexingUtils.class);
-    private final ElasticsearchClient client =  ClientCustomConfiguration.getClient();
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .setRootValueSeparator(null)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private final RestClient client = ClientCustomConfiguration.getRestClient();
+    private final IngestSettings settings;
+    private final DeadLetterSpool deadLetters;
+    private final CheckpointStore checkpoints;
+    private final IndexVersions versions;
+    private final FingerprintStore fingerprints;
+    private final IngestProgress progress;
 
     /**
-     * Index the data
+     * @param progress progress of the job the methods run for, see {@link IngestJobs}
      */
-    public void indexData(String filmsPath, String ratingsPath, String akasPath, String crewPath, String episodesPath, String principalPath, String nameBasicsPath) {
+    public IndexingUtils(IngestSettings settings, DeadLetterSpool deadLetters, CheckpointStore checkpoints,
+                         IndexVersions versions, FingerprintStore fingerprints, IngestProgress progress) {
+        this.settings = settings;
+        this.deadLetters = deadLetters;
+        this.checkpoints = checkpoints;
+        this.versions = versions;
+        this.fingerprints = fingerprints;
+        this.progress = progress;
+    }
+
+    /**
+     * Index the data from the beginning of the files. A checkpoint is saved as bulks are acknowledged, so the job
+     * can be resumed with {@link #resume(IngestCheckpoint)} if it does not finish.
+     * <p>
+     * A full job sends every title to a new version of the index and publishes it once done. A delta job sends to
+     * the live index only the titles whose document changed (or is new) since the last job, going by their
+     * fingerprints, and deletes those that are no longer in the files.
+     * @param index version created by {@link IndexVersions#create()}, or the alias for a delta job
+     * @param delta whether only the changes since the last job are sent
+     */
+    public void indexData(String index, boolean delta, String filmsPath, String ratingsPath, String akasPath, String crewPath, String episodesPath, String principalPath, String nameBasicsPath) {
+        var files = new ImdbFiles(filmsPath, ratingsPath, akasPath, crewPath, episodesPath, principalPath, nameBasicsPath);
+        List<BatchReader> batchReaders = List.of();
+
+        try {
+            batchReaders = BatchReader.partitioned(files, settings.readPartitions(), settings.batchSize());
+            var checkpoint = IngestCheckpoint.start(index, delta, files,
+                    batchReaders.stream().map(BatchReader::range).toList());
+            checkpoints.save(checkpoint);
+            run(checkpoint, batchReaders);
+        } catch(IOException e) {
+            throw new InternalServerException(e);
+        } finally {
+            close(batchReaders);
+        }
+    }
+
+    /**
+     * Index the titles of a snapshot, as {@link #indexData} does with the TSVs it was converted from. The documents
+     * are the same, only no text is parsed.
+     * @param snapshotDirectory directory of a snapshot written by {@link #buildSnapshot}, whose current version is read
+     */
+    public void indexSnapshot(String index, boolean delta, String snapshotDirectory) {
+        try {
+            var snapshot = TitleSnapshot.current(Path.of(snapshotDirectory));
+            var batchReaders = BatchReader.partitioned(snapshot, settings.readPartitions(), settings.batchSize());
+            var checkpoint = IngestCheckpoint.start(index, delta, snapshot,
+                    batchReaders.stream().map(BatchReader::range).toList());
+            checkpoints.save(checkpoint);
+            run(checkpoint, batchReaders);
+        } catch(IOException e) {
+            throw new InternalServerException(e);
+        }
+    }
+
+    /**
+     * Converts the TSVs into a new version of the {@link TitleSnapshot} in the directory, deleting the previous ones.
+     * It must run as a job on the films index, so that no job reading a snapshot runs at the same time.
+     */
+    public void buildSnapshot(ImdbFiles files, String snapshotDirectory) {
+        try {
+            TitleSnapshot.build(files, Path.of(snapshotDirectory));
+        } catch (IOException e) {
+            throw new InternalServerException(e);
+        }
+    }
+
+    /**
+     * @return the checkpoint left by the last job that did not finish
+     * @throws InvalidCheckpointException if there is none, or its files have changed since
+     */
+    public IngestCheckpoint checkpointToResume() {
+        try {
+            var checkpoint = checkpoints.load().orElseThrow(() -> new InvalidCheckpointException(
+                    "There is no unfinished indexing job to resume", new NoSuchFileException(checkpoints.file().toString())));
+
+            if (!checkpoint.filesUnchanged())
+                throw new InvalidCheckpointException("The files have changed since the job started, it must be run again",
+                        new IllegalStateException("Sizes differ from " + checkpoint.sizes()));
+
+            return checkpoint;
+        } catch (IOException e) {
+            throw new InvalidCheckpointException("The checkpoint could not be read", e);
+        }
+    }
+
+    /**
+     * Index the data that was not acknowledged before the job of the checkpoint stopped. Every partition is read
+     * again straight from its offsets, so only the titles after its last acknowledged one are sent.
+     */
+    public void resume(IngestCheckpoint checkpoint) {
+        List<BatchReader> batchReaders = List.of();
+
+        try {
+            batchReaders = BatchReader.resumed(checkpoint, settings.batchSize());
+            logger.info("Resuming {} partitions from {}", batchReaders.size(), checkpoint.partitions());
+            run(checkpoint, batchReaders);
+        } catch(IOException e) {
+            throw new InternalServerException(e);
+        } finally {
+            close(batchReaders);
+        }
+    }
+
+    private void run(IngestCheckpoint checkpoint, List<BatchReader> batchReaders) throws IOException {
+        logger.info("Started indexing with {}", settings);
+        long start = System.nanoTime();
+
+        int partitions = checkpoint.partitions().size();
+        List<FingerprintStore.Writer> writers = new ArrayList<>(partitions);
+        try {
+            for (int i = 0; i < partitions; i++)
+                writers.add(fingerprints.writer(i, checkpoint.partitions().get(i).fingerprints()));
+
+            if (!batchReaders.isEmpty()) {
+                long toRead = 0;
+                for (var batchReader : batchReaders) {
+                    long remaining = batchReader.remainingFilmsBytes();
+                    toRead = toRead < 0 || remaining < 0 ? -1 : toRead + remaining;
+                }
+                progress.expect(toRead);
+
+                //A full job sends everything: nothing is compared with what the previous version of the index had
+                var previous = checkpoint.delta() ? fingerprints.current() : Fingerprints.EMPTY;
+                var tracker = new CheckpointTracker(checkpoints, checkpoint, writers);
+                long refused = new IngestPipeline(client, batchReaders, settings, checkpoint.index(), deadLetters,
+                        tracker, previous, progress).run();
+                if (refused > 0)
+                    logger.warn("{} documents were refused and spooled to {}", refused, deadLetters.file());
+            }
+        } finally {
+            for (var writer : writers)
+                writer.close();
+        }
+
+        var next = fingerprints.assemble(partitions);
+        if (checkpoint.delta()) {
+            delete(checkpoint.index(), fingerprints.removed(next));
+            versions.changed();
+        } else {
+            versions.publish(checkpoint.index());
+        }
+
+        fingerprints.commit(next, partitions);
+        //What the documents were built with is the baseline of the next ratings refresh
+        fingerprints.commitRatings(checkpoint.snapshot() != null
+                ? TitleSnapshot.open(Path.of(checkpoint.snapshot())).ratings()
+                : RatingsSnapshot.read(Path.of(checkpoint.files().ratings())));
+        checkpoints.delete();
+        logger.info("Indexed in {} s", (System.nanoTime() - start) / 1_000_000_000);
+    }
+
+    /**
+     * Deletes the documents of the titles that are no longer in the files
+     */
+    private void delete(String index, int[] tconsts) throws IOException {
+        if (tconsts.length == 0)
+            return;
+
+        var throttle = new BulkThrottle(settings.bulkBytes(), settings.bulkSenders(), settings.bulkLatency());
+        var sender = new BulkSender(client, index, throttle, deadLetters, progress);
+        var bulk = new BulkBuffer(settings.bulkBytes());
+
+        try {
+            for (int tconst : tconsts) {
+                bulk.write(String.format("{\"delete\":{\"_id\":\"tt%07d\"}}\n", tconst).getBytes(StandardCharsets.UTF_8));
+                bulk.documentWritten();
+
+                if (bulk.size() >= throttle.bulkBytes()) {
+                    sender.send(bulk);
+                    bulk.reset();
+                }
+            }
+
+            if (!bulk.isEmpty())
+                sender.send(bulk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServerException(e);
+        }
+
+        logger.info("Deleted {} titles that are no longer in the files", tconsts.length);
+    }
+
+    /**
+     * Applies a new ratings file to the live index without rebuilding any document. The file is walked alongside the
+     * ratings last applied (both are sorted by tconst) and only the titles whose rating changed get a partial update
+     * with their new averageRating and numVotes. Titles that lost their rating go back to 0, as if they never had one.
+     * <p>
+     * Titles that are not in the index are skipped: the next indexing job builds them with their rating. The
+     * fingerprints are left as they are, so the next delta job sends the updated titles again as changed.
+     */
+    public RatingsRefresh refreshRatings(String ratingsPath) {
+        long updated = 0;
+        long unchanged = 0;
+        long notIndexed = 0;
+        long refused = 0;
+        long start = System.nanoTime();
+
+        try {
+            var previous = fingerprints.ratings();
+            var indexed = fingerprints.current();
+            var applied = new RatingsSnapshot.Builder(previous.size());
+
+            var throttle = new BulkThrottle(settings.bulkBytes(), 1, settings.bulkLatency());
+            var sender = new BulkSender(client, versions.alias(), throttle, deadLetters, progress);
+            var bulk = new BulkBuffer(settings.bulkBytes());
+            var line = TsvCursor.tabs();
+
+            try (var lines = new TsvLineReader(TsvInputs.open(Path.of(ratingsPath)));
+                 var json = JSON_FACTORY.createGenerator(bulk)) {
+                if (!lines.next())
+                    throw new IOException(ratingsPath + " is empty");
+                line.reset(lines.bytes(), lines.start(), lines.end());
+                String averageRating = line.field(1).asString();
+                String numVotes = line.field(2).asString();
+
+                int j = 0;
+                boolean more = true;
+                while (more) {
+                    more = lines.next();
+                    if (more && lines.start() == lines.end())
+                        continue;
+
+                    int tconst = Integer.MAX_VALUE;
+                    float rating = 0;
+                    int votes = 0;
+                    if (more) {
+                        line.reset(lines.bytes(), lines.start(), lines.end());
+                        tconst = line.field(0).asId();
+                        rating = (float) line.field(1).asDouble();
+                        votes = line.field(2).asInt();
+                        applied.add(tconst, rating, votes);
+                    }
+
+                    //Titles of the previous ratings that are not in the new file lost their rating
+                    for (; j < previous.size() && previous.tconst(j) < tconst; j++) {
+                        if (previous.averageRating(j) == 0 && previous.numVotes(j) == 0) {
+                            unchanged++;
+                        } else if (indexed.get(previous.tconst(j)) == Fingerprints.MISSING) {
+                            notIndexed++;
+                        } else {
+                            writeRating(json, bulk, previous.tconst(j), averageRating, 0, numVotes, 0);
+                            updated++;
+                        }
+                    }
+
+                    if (more) {
+                        boolean same = j < previous.size() && previous.tconst(j) == tconst
+                                && previous.averageRating(j) == rating && previous.numVotes(j) == votes;
+                        if (j < previous.size() && previous.tconst(j) == tconst)
+                            j++;
+
+                        if (same) {
+                            unchanged++;
+                        } else if (indexed.get(tconst) == Fingerprints.MISSING) {
+                            notIndexed++;
+                        } else {
+                            writeRating(json, bulk, tconst, averageRating, rating, numVotes, votes);
+                            updated++;
+                        }
+                    }
+
+                    if (bulk.size() >= throttle.bulkBytes()) {
+                        refused += sender.send(bulk);
+                        bulk.reset();
+                    }
+                }
+
+                if (!bulk.isEmpty())
+                    refused += sender.send(bulk);
+            }
+
+            fingerprints.commitRatings(applied.build());
+            if (updated > 0)
+                versions.changed();
+        } catch (IOException e) {
+            throw new InternalServerException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServerException(e);
+        }
+
+        logger.info("Refreshed ratings in {} ms: {} updated, {} unchanged, {} not indexed, {} refused",
+                (System.nanoTime() - start) / 1_000_000, updated, unchanged, notIndexed, refused);
+        return new RatingsRefresh(updated, unchanged, notIndexed, refused);
+    }
+
+    /**
+     * Appends the update action and partial document of a title's rating
+     */
+    private static void writeRating(JsonGenerator json, BulkBuffer bulk, int tconst, String averageRating,
+                                    float rating, String numVotes, int votes) throws IOException {
+        json.writeStartObject();
+        json.writeObjectFieldStart("update");
+        json.writeStringField("_id", String.format("tt%07d", tconst));
+        json.writeEndObject();
+        json.writeEndObject();
+        json.writeRaw('\n');
+
+        json.writeStartObject();
+        json.writeObjectFieldStart("doc");
+        json.writeNumberField(averageRating, rating);
+        json.writeNumberField(numVotes, votes);
+        json.writeEndObject();
+        json.writeEndObject();
+        json.writeRaw('\n');
+
+        json.flush();
+        bulk.documentWritten();
+    }
+
+    /**
+     * Sends again the documents in the dead letter spool, one bulk at a time. Those refused again go back to it.
+     */
+    public DeadLetterReplay replayDeadLetters() {
+        long replayed = 0;
+        long refused = 0;
+
         try {
-            logger.info("Started indexing");
-            var batchReader = new BatchReader(filmsPath, ratingsPath, akasPath, crewPath, episodesPath, principalPath, nameBasicsPath, BATCH_SIZE);
+            var drained = deadLetters.drain();
+            if (drained == null)
+                return new DeadLetterReplay(0, 0);
+
+            var throttle = new BulkThrottle(settings.bulkBytes(), 1, settings.bulkLatency());
+            var sender = new BulkSender(client, versions.alias(), throttle, deadLetters, progress);
+            var bulk = new BulkBuffer(settings.bulkBytes());
 
-            while(!batchReader.hasFinished()) {
-                var batch = batchReader.getBatch();
+            try (var lines = new TsvLineReader(Files.newInputStream(drained))) {
+                //The spool is a bulk body itself: an action line followed by a source line for every document,
+                //but for deletes, which have no source
+                while (lines.next()) {
+                    if (lines.start() == lines.end())
+                        continue;
+                    bulk.write(lines.bytes(), lines.start(), lines.end() - lines.start());
+                    bulk.write('\n');
 
-                client.bulk(_0 -> _0
-                    .operations(batch.stream()
-                        .map(x ->
-                                BulkOperation.of(_1 -> _1
-                                    .index(_2 -> _2
-                                            .index("films")
-                                            .document(x.json())
-                                            .id(x.id())
-                                    )
-                                )
-                        ).toList())
-                );
+                    if (!isDelete(lines)) {
+                        if (!lines.next())
+                            throw new IOException(drained + " ends with an action line without its document");
+                        bulk.write(lines.bytes(), lines.start(), lines.end() - lines.start());
+                        bulk.write('\n');
+                    }
+                    bulk.documentWritten();
+                    replayed++;
 
+                    if (bulk.size() >= throttle.bulkBytes()) {
+                        refused += sender.send(bulk);
+                        bulk.reset();
+                    }
+                }
+
+                if (!bulk.isEmpty())
+                    refused += sender.send(bulk);
             }
 
-            logger.info("Indexed");
-            batchReader.close();
-        } catch(IOException | ElasticsearchException e) {
+            Files.delete(drained);
+            if (replayed > refused)
+                versions.changed();
+        } catch (IOException e) {
+            throw new InternalServerException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new InternalServerException(e);
         }
+
+        logger.info("Replayed {} dead letters, {} refused again", replayed, refused);
+        return new DeadLetterReplay(replayed, refused);
+    }
+
+    private static boolean isDelete(TsvLineReader line) {
+        byte[] delete = "{\"delete\"".getBytes(StandardCharsets.UTF_8);
+        return line.end() - line.start() >= delete.length
+                && Arrays.equals(line.bytes(), line.start(), line.start() + delete.length, delete, 0, delete.length);
+    }
+
+    private static void close(List<BatchReader> batchReaders) {
+        for (var batchReader : batchReaders) {
+            try {
+                batchReader.close();
+            } catch (IOException e) {
+                logger.warn("Could not close reader of {}", batchReader.range(), e);
+            }
+        }
     }
 }
@@ -0,0 +1,139 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decompressed contents of a gzip file, inflated ahead of the reader by a thread of its own. The inflater fills large
+ * chunks and hands them over through a bounded queue, so while the join parses one chunk the next ones are already
+ * being inflated, and the reader only waits if inflating is slower than parsing.
+ * <p>
+ * Chunks are reused: there are only {@link #CHUNKS} of them, so a reader that falls behind stops the inflater instead
+ * of filling the heap. Not thread safe, like any other input stream.
+ */
+public class InflatingInputStream extends InputStream {
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int CHUNKS = 4;
+    private static final Chunk END = new Chunk(new byte[0], 0);
+
+    private final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<>(CHUNKS + 1);
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(CHUNKS);
+    private final Thread inflater;
+    private IOException failure;
+    private Chunk current;
+    private int position;
+    private boolean ended;
+
+    public InflatingInputStream(Path file) throws IOException {
+        var input = new GZIPInputStream(Files.newInputStream(file), 1 << 16);
+        for (int i = 0; i < CHUNKS; i++)
+            free.add(new byte[CHUNK_SIZE]);
+
+        this.inflater = new Thread(() -> inflate(input), "inflate-" + file.getFileName());
+        inflater.setDaemon(true);
+        inflater.start();
+    }
+
+    private void inflate(GZIPInputStream input) {
+        try (input) {
+            int read = CHUNK_SIZE;
+            while (read == CHUNK_SIZE) {
+                byte[] chunk = free.take();
+                read = input.readNBytes(chunk, 0, CHUNK_SIZE);
+                if (read > 0)
+                    filled.put(new Chunk(chunk, read));
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            //The reader was closed, nobody is waiting for the rest
+            return;
+        }
+
+        //There are never more filled chunks than chunks, so there is always room for the end
+        filled.add(END);
+    }
+
+    /**
+     * Makes sure there are bytes left in the current chunk, waiting for the inflater if needed
+     * @return false at the end of the file
+     */
+    private boolean fill() throws IOException {
+        while (current == null || position == current.length) {
+            if (ended)
+                return false;
+
+            if (current != null)
+                free.add(current.bytes);
+
+            try {
+                current = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + inflater.getName());
+            }
+            position = 0;
+
+            if (current == END) {
+                ended = true;
+                current = null;
+                if (failure != null)
+                    throw failure;
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? current.bytes[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+        if (!fill())
+            return -1;
+
+        int read = Math.min(length, current.length - position);
+        System.arraycopy(current.bytes, position, bytes, offset, read);
+        position += read;
+        return read;
+    }
+
+    /**
+     * Skips without copying: whole chunks are just handed back to the inflater
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            int step = (int) Math.min(n - skipped, current.length - position);
+            position += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() {
+        inflater.interrupt();
+    }
+
+    private record Chunk(byte[] bytes, int length) {
+    }
+}
@@ -0,0 +1,88 @@
+package co.empathy.academy.search.util.indexutils;
+
+import co.empathy.academy.search.util.indexutils.TsvFileSeeker.TconstRange;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress of an ingest job, enough to resume it after a crash without reading again what is already indexed. Every
+ * partition records the last tconst whose documents (and those of every tconst before it in the partition) have been
+ * acknowledged by Elasticsearch, and the offset of every joined file right after it.
+ *
+ * @param index      index the documents are sent to
+ * @param delta      whether only the titles that changed since the last job are sent
+ * @param files      files being read
+ * @param snapshot   directory of the {@link TitleSnapshot} being read instead of the files, or null
+ * @param sizes      size of every joined file (or of every file of the snapshot) when the job started, to notice if
+ *                   they change before resuming
+ * @param partitions progress of every partition
+ */
+public record IngestCheckpoint(String index, boolean delta, ImdbFiles files, String snapshot, List<Long> sizes,
+                               List<Partition> partitions) {
+
+    /**
+     * @param from         first tconst of the partition
+     * @param to           tconst the partition ends before
+     * @param lastTconst   last tconst acknowledged, or 0 if none is yet
+     * @param offsets      offset of every joined file (in {@link BatchReader} order) to read again from, or the row
+     *                     of a snapshot, or null to start from the beginning of the partition
+     * @param fingerprints number of fingerprints the partition has written, those of every title up to lastTconst
+     * @param finished     whether every title of the partition has been acknowledged
+     */
+    public record Partition(int from, int to, int lastTconst, List<Long> offsets, long fingerprints, boolean finished) {
+
+        public static Partition start(TconstRange range) {
+            return new Partition(range.from(), range.to(), 0, null, 0, false);
+        }
+
+        public Partition withFingerprints(long fingerprints) {
+            return new Partition(from, to, lastTconst, offsets, fingerprints, finished);
+        }
+
+        public TconstRange range() {
+            return new TconstRange(from, to);
+        }
+    }
+
+    /**
+     * Checkpoint of a job that has not indexed anything yet
+     */
+    public static IngestCheckpoint start(String index, boolean delta, ImdbFiles files, List<TconstRange> ranges) throws IOException {
+        return new IngestCheckpoint(index, delta, files, null, sizesOf(files),
+                ranges.stream().map(Partition::start).toList());
+    }
+
+    /**
+     * Checkpoint of a job reading a snapshot that has not indexed anything yet
+     */
+    public static IngestCheckpoint start(String index, boolean delta, TitleSnapshot snapshot, List<TconstRange> ranges) throws IOException {
+        return new IngestCheckpoint(index, delta, snapshot.files(), snapshot.directory().toString(), snapshot.sizes(),
+                ranges.stream().map(Partition::start).toList());
+    }
+
+    /**
+     * @return true if the files still have the sizes they had when the checkpoint was taken, so its offsets are valid
+     */
+    public boolean filesUnchanged() throws IOException {
+        if (snapshot != null)
+            return TitleSnapshot.exists(Path.of(snapshot)) && sizes.equals(TitleSnapshot.open(Path.of(snapshot)).sizes());
+        return sizes.equals(sizesOf(files));
+    }
+
+    public IngestCheckpoint withPartitions(List<Partition> partitions) {
+        return new IngestCheckpoint(index, delta, files, snapshot, sizes, partitions);
+    }
+
+    private static List<Long> sizesOf(ImdbFiles files) throws IOException {
+        List<Long> sizes = new ArrayList<>();
+        for (String path : BatchReader.joinedPaths(files))
+            sizes.add(Files.size(Path.of(path)));
+        //The episodes are joined from a sorted copy, which is only rebuilt when title.episode changes
+        sizes.add(Files.size(Path.of(files.episodes())));
+        return sizes;
+    }
+}
@@ -0,0 +1,76 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.time.Instant;
+
+/**
+ * An ingest job run by {@link IngestJobs} on a thread of its own. It is cancelled by interrupting that thread, which
+ * stops its pipeline the same way a failure does: whatever was acknowledged stays in the checkpoint, so a cancelled
+ * job can be resumed.
+ */
+public class IngestJob {
+    public enum State { RUNNING, SUCCEEDED, FAILED, CANCELLED }
+
+    private final String id;
+    private final String type;
+    private final String index;
+    private final IngestProgress progress;
+    private final Instant startedAt = Instant.now();
+    private volatile Thread thread;
+    private volatile State state = State.RUNNING;
+    private volatile boolean cancelled;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    IngestJob(String id, String type, String index, IngestProgress progress) {
+        this.id = id;
+        this.type = type;
+        this.index = index;
+        this.progress = progress;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String index() {
+        return index;
+    }
+
+    public IngestProgress progress() {
+        return progress;
+    }
+
+    public boolean isRunning() {
+        return state == State.RUNNING;
+    }
+
+    void runOn(Thread thread) {
+        this.thread = thread;
+    }
+
+    void cancel() {
+        cancelled = true;
+        thread.interrupt();
+    }
+
+    void succeeded() {
+        finish(State.SUCCEEDED, null);
+    }
+
+    void failed(Exception e) {
+        var cause = e.getCause() == null ? e : e.getCause();
+        finish(cancelled ? State.CANCELLED : State.FAILED, cancelled ? null : cause.toString());
+    }
+
+    private void finish(State state, String error) {
+        this.error = error;
+        this.finishedAt = Instant.now();
+        this.state = state;
+    }
+
+    public IngestJobStatus status() {
+        return new IngestJobStatus(id, type, index, state, startedAt, finishedAt, progress.documents(),
+                progress.bytes(), progress.failedItems(), progress.unchanged(), progress.documentsPerSecond(),
+                progress.bytesPerSecond(), isRunning() ? progress.etaSeconds() : null, error);
+    }
+}
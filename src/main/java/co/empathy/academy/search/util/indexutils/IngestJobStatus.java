@@ -0,0 +1,36 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.time.Instant;
+
+/**
+ * Snapshot of an ingest job, as returned by the job endpoints.
+ *
+ * @param id                 id to ask for the job with
+ * @param type               kind of job: full, delta, resume, ratings or replay
+ * @param index              index the job writes to, only one job at a time
+ * @param state              whether it is running or how it ended
+ * @param finishedAt         null while it runs
+ * @param documents          documents acknowledged by Elasticsearch so far
+ * @param bytes              bulk bytes acknowledged so far
+ * @param failedItems        documents refused and spooled as dead letters
+ * @param unchanged          documents not sent because they did not change since the last job
+ * @param documentsPerSecond documents acknowledged per second since it started
+ * @param bytesPerSecond     bulk bytes acknowledged per second since it started
+ * @param etaSeconds         estimated seconds left to read its files, null if unknown or not running
+ * @param error              why it failed, if it did
+ */
+public record IngestJobStatus(String id,
+                              String type,
+                              String index,
+                              IngestJob.State state,
+                              Instant startedAt,
+                              Instant finishedAt,
+                              long documents,
+                              long bytes,
+                              long failedItems,
+                              long unchanged,
+                              double documentsPerSecond,
+                              double bytesPerSecond,
+                              Long etaSeconds,
+                              String error) {
+}
@@ -0,0 +1,116 @@
+package co.empathy.academy.search.util.indexutils;
+
+import co.empathy.academy.search.exception.JobAlreadyRunningException;
+import co.empathy.academy.search.exception.JobNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Starts ingest jobs on threads of their own and keeps track of them, so they can be listed, looked at and cancelled.
+ * Only one job at a time may run on an index: two jobs writing (or swapping aliases) on the same index would race.
+ * The last {@link #KEPT_FINISHED} finished jobs are kept for their status.
+ */
+public class IngestJobs {
+    private static final Logger logger = LoggerFactory.getLogger(IngestJobs.class);
+    private static final int KEPT_FINISHED = 20;
+
+    private final IngestMetrics metrics;
+    private final Map<String, IngestJob> jobs = new LinkedHashMap<>();
+    private final Map<String, IngestJob> running = new HashMap<>();
+
+    public IngestJobs(IngestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * What a job does, reporting to its progress
+     */
+    @FunctionalInterface
+    public interface Work {
+        void run(IngestProgress progress) throws Exception;
+    }
+
+    /**
+     * Starts a job, unless there is one running on the same index already
+     * @param index index the job writes to
+     * @param type  kind of job, for its status
+     * @throws JobAlreadyRunningException if the index is busy
+     */
+    public synchronized IngestJob start(String index, String type, Work work) {
+        var busy = running.get(index);
+        if (busy != null)
+            throw new JobAlreadyRunningException(index, new IllegalStateException("Job " + busy.id() + " is running"));
+
+        var progress = metrics.start(type);
+        var job = new IngestJob(UUID.randomUUID().toString(), type, index, progress);
+        var thread = new Thread(() -> run(job, work), "ingest-job-" + type);
+        job.runOn(thread);
+
+        jobs.put(job.id(), job);
+        running.put(index, job);
+        forgetFinished();
+        thread.start();
+
+        logger.info("Started {} job {} on {}", type, job.id(), index);
+        return job;
+    }
+
+    private void run(IngestJob job, Work work) {
+        try {
+            work.run(job.progress());
+            job.succeeded();
+            logger.info("Job {} finished: {}", job.id(), job.status());
+        } catch (Exception e) {
+            job.failed(e);
+            logger.error("Job {} did not finish: {}", job.id(), job.status(), e);
+        } finally {
+            metrics.finished(job.progress());
+            synchronized (this) {
+                running.remove(job.index());
+            }
+        }
+    }
+
+    /**
+     * @throws JobNotFoundException if there is no such job, or it finished too long ago
+     */
+    public synchronized IngestJob get(String id) {
+        var job = jobs.get(id);
+        if (job == null)
+            throw new JobNotFoundException(id, new NoSuchElementException(id));
+        return job;
+    }
+
+    public synchronized List<IngestJob> list() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Interrupts a running job. It is still running when this returns, until its pipeline stops.
+     */
+    public synchronized IngestJob cancel(String id) {
+        var job = get(id);
+        if (job.isRunning())
+            job.cancel();
+        return job;
+    }
+
+    private void forgetFinished() {
+        int finished = jobs.size() - running.size();
+        var iterator = jobs.values().iterator();
+        while (finished > KEPT_FINISHED && iterator.hasNext()) {
+            if (!iterator.next().isRunning()) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+}
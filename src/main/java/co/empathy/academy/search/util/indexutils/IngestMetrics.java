@@ -0,0 +1,149 @@
+package co.empathy.academy.search.util.indexutils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer meters of the ingest jobs, published through the actuator:
+ * <ul>
+ *     <li>ingest.documents, ingest.bytes, ingest.failed.items, ingest.retried.items, ingest.unchanged and
+ *     ingest.bulk.rejections: counters over every job, whose rate (per second) is what an alert should watch.</li>
+ *     <li>ingest.bulk.latency: histogram of the latency of every bulk request.</li>
+ *     <li>ingest.documents.rate, ingest.bytes.rate and ingest.eta: throughput and estimated time left of the
+ *     running jobs, tagged with their type (full, names, ratings...), or 0 if none of that type is running.</li>
+ *     <li>ingest.queue.depth: items waiting in front of a stage of the running pipelines, tagged with their type
+ *     and the stage (parse or send). A full queue in front of a stage makes it the bottleneck.</li>
+ * </ul>
+ * Jobs of different types (films and names, for instance) run at the same time, so each type reports on its own.
+ * Should two jobs of the same type run at once, their rates and queues add up and the later ETA is reported.
+ * Thread safe: every stage of every job records into the same meters, through its {@link IngestProgress}.
+ */
+public class IngestMetrics {
+    private final Counter documents;
+    private final Counter bytes;
+    private final Counter failedItems;
+    private final Counter retriedItems;
+    private final Counter unchanged;
+    private final Counter rejections;
+    private final Timer bulkLatency;
+    private final MeterRegistry registry;
+    private final Set<String> types = ConcurrentHashMap.newKeySet();
+    private final Map<IngestProgress, String> running = new ConcurrentHashMap<>();
+
+    public IngestMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.documents = Counter.builder("ingest.documents")
+                .description("Documents acknowledged by Elasticsearch")
+                .register(registry);
+        this.bytes = Counter.builder("ingest.bytes")
+                .description("Bulk bytes acknowledged by Elasticsearch")
+                .baseUnit("bytes")
+                .register(registry);
+        this.failedItems = Counter.builder("ingest.failed.items")
+                .description("Documents refused by Elasticsearch and spooled as dead letters")
+                .register(registry);
+        this.retriedItems = Counter.builder("ingest.retried.items")
+                .description("Documents sent again after a transient failure")
+                .register(registry);
+        this.unchanged = Counter.builder("ingest.unchanged")
+                .description("Documents not sent because they did not change since the last job")
+                .register(registry);
+        this.rejections = Counter.builder("ingest.bulk.rejections")
+                .description("Bulk requests Elasticsearch rejected because it was overloaded")
+                .register(registry);
+        this.bulkLatency = Timer.builder("ingest.bulk.latency")
+                .description("Time Elasticsearch took to answer a bulk request")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * @param type kind of job, which its gauges are tagged with
+     * @return a new progress, which the gauges of its type report from on
+     */
+    public IngestProgress start(String type) {
+        if (types.add(type))
+            registerGauges(type);
+
+        var progress = new IngestProgress(this);
+        running.put(progress, type);
+        return progress;
+    }
+
+    /**
+     * Stops reporting from a progress
+     */
+    public void finished(IngestProgress progress) {
+        running.remove(progress);
+    }
+
+    void acknowledged(int documents, int bytes) {
+        this.documents.increment(documents);
+        this.bytes.increment(bytes);
+    }
+
+    void bulkAnswered(long latencyNanos, boolean rejected) {
+        bulkLatency.record(latencyNanos, TimeUnit.NANOSECONDS);
+        if (rejected)
+            rejections.increment();
+    }
+
+    void failed(int documents) {
+        failedItems.increment(documents);
+    }
+
+    void retried(int documents) {
+        retriedItems.increment(documents);
+    }
+
+    void unchanged(int documents) {
+        unchanged.increment(documents);
+    }
+
+    private void registerGauges(String type) {
+        gauge(type, "ingest.documents.rate", "documents/s", "Documents per second of the running jobs",
+                IngestProgress::documentsPerSecond, false);
+        gauge(type, "ingest.bytes.rate", "bytes/s", "Bulk bytes per second of the running jobs",
+                IngestProgress::bytesPerSecond, false);
+        gauge(type, "ingest.eta", "seconds", "Estimated time left for the running jobs to read their files",
+                p -> p.etaSeconds() == null ? 0 : p.etaSeconds(), true);
+        for (var stage : IngestProgress.Stage.values()) {
+            Gauge.builder("ingest.queue.depth", this, m -> m.ofRunning(type, p -> p.queueDepth(stage), false))
+                    .description("Items waiting in the queue in front of a stage of the running jobs")
+                    .tag("type", type)
+                    .tag("stage", stage.name().toLowerCase())
+                    .register(registry);
+        }
+    }
+
+    private void gauge(String type, String name, String unit, String description,
+                       ToDoubleFunction<IngestProgress> value, boolean latest) {
+        Gauge.builder(name, this, m -> m.ofRunning(type, value, latest))
+                .description(description)
+                .baseUnit(unit)
+                .tag("type", type)
+                .register(registry);
+    }
+
+    /**
+     * @param latest whether to report the highest value of the running jobs of the type rather than their sum
+     */
+    private double ofRunning(String type, ToDoubleFunction<IngestProgress> value, boolean latest) {
+        double result = 0;
+        for (var entry : running.entrySet()) {
+            if (!entry.getValue().equals(type))
+                continue;
+            double current = value.applyAsDouble(entry.getKey());
+            result = latest ? Math.max(result, current) : result + current;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,218 @@
+package co.empathy.academy.search.util.indexutils;
+
+import co.empathy.academy.search.exception.InternalServerException;
+import co.empathy.academy.search.util.indexutils.TsvFileSeeker.TconstRange;
+import org.elasticsearch.client.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Staged indexing pipeline. One reader thread per {@link BatchReader} pulls raw batches out of its range of the
+ * files, a pool of workers streams them as bulk NDJSON into pooled buffers and a pool of senders ships the buffers
+ * to Elasticsearch through the low level client, so disk, CPU and the cluster are busy at the same time. Stages are
+ * connected by bounded queues: when Elasticsearch slows down the senders stop taking bulks, the workers run out of
+ * buffers and block, and so do the readers on a full queue. Memory is bounded by the queues and the buffer pool, and
+ * not by the number of documents per bulk.
+ * <p>
+ * How big bulks are and how many of them are in flight is decided by a {@link BulkThrottle} from the latency of the
+ * previous ones, and the {@link BulkSender} makes sure every document is either indexed or spooled as a dead letter.
+ * Once every document of a batch is, the {@link CheckpointTracker} records it, so a failed job can be resumed.
+ * <p>
+ * Ordering: documents inside a bulk keep the order of the films file, but batches are read, built and sent
+ * concurrently, so they may reach Elasticsearch in any order. Every document has its own id (the tconst), so the
+ * final index does not depend on that order.
+ */
+public class IngestPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(IngestPipeline.class);
+    //Markers telling the next stage that no more batches will come. Compared by identity.
+    private static final RawBatch NO_MORE_TITLES = new RawBatch(TconstRange.ALL, -1, List.of(), null);
+    private static final BulkBuffer NO_MORE_BULKS = new BulkBuffer(0);
+
+    private final List<BatchReader> batchReaders;
+    private final IngestSettings settings;
+    private final BulkSender sender;
+    private final CheckpointTracker checkpoints;
+    private final Fingerprints previous;
+    private final IngestProgress progress;
+    private final BlockingQueue<RawBatch> rawBatches;
+    private final BlockingQueue<BulkBuffer> bulks;
+    private final BulkBufferPool bufferPool;
+    private final BulkThrottle throttle;
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicInteger runningReaders;
+    private final AtomicInteger runningWorkers;
+
+    public IngestPipeline(RestClient client, List<BatchReader> batchReaders, IngestSettings settings, String index,
+                          DeadLetterSpool deadLetters, CheckpointTracker checkpoints, Fingerprints previous,
+                          IngestProgress progress) {
+        this.batchReaders = batchReaders;
+        this.settings = settings;
+        this.checkpoints = checkpoints;
+        this.previous = previous;
+        this.progress = progress;
+        this.rawBatches = new ArrayBlockingQueue<>(settings.queueCapacity());
+        this.bulks = new ArrayBlockingQueue<>(settings.queueCapacity());
+        //Enough buffers for every worker filling one, a full queue and every sender holding one
+        this.bufferPool = new BulkBufferPool(settings.parseWorkers() + settings.queueCapacity() + settings.bulkSenders(),
+                settings.bulkBytes() + settings.bulkBytes() / 4);
+        this.throttle = new BulkThrottle(settings.bulkBytes(), settings.bulkSenders(), settings.bulkLatency());
+        this.sender = new BulkSender(client, index, throttle, deadLetters, progress);
+        this.runningReaders = new AtomicInteger(batchReaders.size());
+        this.runningWorkers = new AtomicInteger(settings.parseWorkers());
+    }
+
+    /**
+     * Runs every stage and blocks until all the bulks have been acknowledged by Elasticsearch. If any stage fails,
+     * the rest of them are interrupted and the failure is rethrown.
+     * @return number of documents Elasticsearch refused, spooled as dead letters
+     */
+    public long run() {
+        int stages = batchReaders.size() + settings.parseWorkers() + settings.bulkSenders();
+        ExecutorService executor = Executors.newFixedThreadPool(stages, stageThreadFactory());
+        CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+        progress.watch(IngestProgress.Stage.PARSE, rawBatches);
+        progress.watch(IngestProgress.Stage.SEND, bulks);
+
+        for (var batchReader : batchReaders)
+            completion.submit(() -> read(batchReader));
+        for (int i = 0; i < settings.parseWorkers(); i++)
+            completion.submit(this::parse);
+        for (int i = 0; i < settings.bulkSenders(); i++)
+            completion.submit(this::send);
+
+        try {
+            for (int i = 0; i < stages; i++)
+                completion.take().get();
+        } catch (ExecutionException e) {
+            throw new InternalServerException(e.getCause() instanceof Exception cause ? cause : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServerException(e);
+        } finally {
+            executor.shutdownNow();
+            progress.unwatch();
+        }
+
+        if (unchanged.get() > 0)
+            logger.info("{} titles had not changed and were not sent", unchanged.get());
+        return deadLettered.get();
+    }
+
+    private Void read(BatchReader batchReader) throws Exception {
+        long sequence = 0;
+        long offset = batchReader.filmsOffset();
+
+        while (!batchReader.hasFinished()) {
+            var titles = batchReader.readBatch();
+            long read = batchReader.filmsOffset();
+            progress.read(read - offset);
+            offset = read;
+
+            var batch = new RawBatch(batchReader.range(), sequence++, titles, batchReader.position());
+
+            //An empty batch (the end of the partition) has nothing to wait for
+            if (titles.isEmpty())
+                checkpoints.acknowledged(batch);
+            else
+                rawBatches.put(batch);
+        }
+
+        //The last reader to finish lets the workers know
+        if (runningReaders.decrementAndGet() == 0) {
+            for (int i = 0; i < settings.parseWorkers(); i++)
+                rawBatches.put(NO_MORE_TITLES);
+        }
+
+        return null;
+    }
+
+    /**
+     * Fills buffers with documents until they reach the current bulk size, whatever the batches they come from.
+     * Every document is fingerprinted, and those whose fingerprint did not change since the previous job are taken
+     * out of the buffer again.
+     */
+    private Void parse() throws Exception {
+        //Every partition reads the same headers and shares the name dictionary, so any of them can write any title
+        var writer = batchReaders.get(0).documentWriter();
+        var buffer = bufferPool.acquire();
+        var batch = rawBatches.take();
+
+        while (batch != NO_MORE_TITLES) {
+            var titles = batch.titles();
+            for (int i = 0; i < titles.size(); i++) {
+                writer.write(titles.get(i), buffer);
+
+                long fingerprint = Fingerprints.hash(buffer.bytes(), buffer.lastDocumentStart(),
+                        buffer.size() - buffer.lastDocumentStart());
+                batch.fingerprint(i, fingerprint);
+
+                if (previous.get(titles.get(i).tconst()) == fingerprint) {
+                    buffer.dropLastDocument();
+                    unchanged.incrementAndGet();
+                    progress.unchanged(1);
+                    if (batch.acknowledge(1))
+                        checkpoints.acknowledged(batch);
+                    continue;
+                }
+
+                buffer.cameFrom(batch);
+
+                if (buffer.size() >= throttle.bulkBytes()) {
+                    bulks.put(buffer);
+                    buffer = bufferPool.acquire();
+                }
+            }
+
+            batch = rawBatches.take();
+        }
+
+        if (buffer.isEmpty())
+            bufferPool.release(buffer);
+        else
+            bulks.put(buffer);
+
+        //The last worker to finish lets the senders know
+        if (runningWorkers.decrementAndGet() == 0) {
+            for (int i = 0; i < settings.bulkSenders(); i++)
+                bulks.put(NO_MORE_BULKS);
+        }
+
+        return null;
+    }
+
+    private Void send() throws Exception {
+        var buffer = bulks.take();
+
+        while (buffer != NO_MORE_BULKS) {
+            deadLettered.addAndGet(sender.send(buffer));
+
+            //Every document is now either indexed or spooled, so their batches can move the checkpoint forward
+            for (int i = 0; i < buffer.batches().size(); i++) {
+                var batch = buffer.batches().get(i);
+                if (batch.acknowledge(buffer.batchDocuments(i)))
+                    checkpoints.acknowledged(batch);
+            }
+
+            logger.info("Done bulk of {} documents ({} bytes)", buffer.documents(), buffer.size());
+            bufferPool.release(buffer);
+            buffer = bulks.take();
+        }
+
+        return null;
+    }
+
+    private static ThreadFactory stageThreadFactory() {
+        var counter = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, "ingest-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,130 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a single ingest job: what it has sent so far, how fast, and how much of its films file is left to
+ * read. Every count is also recorded into the {@link IngestMetrics} it was started from.
+ * <p>
+ * The time left is estimated from the bytes of the films file read so far, so it is only known for plain files: the
+ * size of a gzipped one is not known until it has been inflated.
+ * <p>
+ * Thread safe: every stage of a job records into the same progress.
+ */
+public class IngestProgress {
+    /**
+     * Stages with a queue in front of them
+     */
+    public enum Stage { PARSE, SEND }
+
+    private final IngestMetrics metrics;
+    private final long started = System.nanoTime();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong failedItems = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong filmsBytesRead = new AtomicLong();
+    private volatile long filmsBytesToRead = -1;
+    private final Map<Stage, Queue<?>> queues = new EnumMap<>(Stage.class);
+
+    IngestProgress(IngestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Records a bulk whose documents are all either indexed or spooled
+     * @param documents    documents in the bulk
+     * @param bytes        size of its body
+     * @param deadLettered how many of them were spooled
+     */
+    public void acknowledged(int documents, int bytes, int deadLettered) {
+        this.documents.addAndGet(documents - deadLettered);
+        this.bytes.addAndGet(bytes);
+        this.failedItems.addAndGet(deadLettered);
+        metrics.acknowledged(documents - deadLettered, bytes);
+        metrics.failed(deadLettered);
+    }
+
+    public void bulkAnswered(long latencyNanos, boolean rejected) {
+        metrics.bulkAnswered(latencyNanos, rejected);
+    }
+
+    public void retried(int documents) {
+        metrics.retried(documents);
+    }
+
+    public void unchanged(int documents) {
+        unchanged.addAndGet(documents);
+        metrics.unchanged(documents);
+    }
+
+    /**
+     * @param bytes bytes of the films file the job has to read, or -1 if unknown
+     */
+    public void expect(long bytes) {
+        filmsBytesToRead = bytes;
+    }
+
+    public void read(long filmsBytes) {
+        filmsBytesRead.addAndGet(filmsBytes);
+    }
+
+    /**
+     * Reports the size of the queue in front of a stage, until the job is done
+     */
+    public synchronized void watch(Stage stage, Queue<?> queue) {
+        queues.put(stage, queue);
+    }
+
+    public synchronized void unwatch() {
+        queues.clear();
+    }
+
+    public synchronized int queueDepth(Stage stage) {
+        var queue = queues.get(stage);
+        return queue == null ? 0 : queue.size();
+    }
+
+    public long documents() {
+        return documents.get();
+    }
+
+    public long bytes() {
+        return bytes.get();
+    }
+
+    public long failedItems() {
+        return failedItems.get();
+    }
+
+    public long unchanged() {
+        return unchanged.get();
+    }
+
+    public double documentsPerSecond() {
+        return documents.get() / elapsedSeconds();
+    }
+
+    public double bytesPerSecond() {
+        return bytes.get() / elapsedSeconds();
+    }
+
+    /**
+     * @return seconds left to read the films file at the pace it has been read so far, or null if unknown
+     */
+    public Long etaSeconds() {
+        long toRead = filmsBytesToRead;
+        long read = filmsBytesRead.get();
+        if (toRead < 0 || read == 0)
+            return null;
+
+        return (long) (Math.max(0, toRead - read) / (read / elapsedSeconds()));
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(1e-3, (System.nanoTime() - started) / 1e9);
+    }
+}
@@ -0,0 +1,38 @@
+package co.empathy.academy.search.util.indexutils;
+
+/**
+ * Concurrency knobs of the ingest pipeline.
+ *
+ * @param batchSize      number of films each reader hands over to the workers at once
+ * @param bulkBytes      biggest size, in bytes, a bulk body may reach. The actual size is tuned while indexing
+ * @param bulkLatency    milliseconds a bulk request should be answered within. Bulks shrink when they take longer
+ * @param readPartitions number of tconst ranges the files are split into, each one read by its own thread
+ * @param parseWorkers   number of threads turning raw TSV lines into documents
+ * @param bulkSenders    biggest number of bulk requests that can be in flight at the same time
+ * @param queueCapacity  number of batches (or bulks) each stage can queue before it blocks the previous one
+ */
+public record IngestSettings(int batchSize, int bulkBytes, int bulkLatency,
+                             int readPartitions, int parseWorkers, int bulkSenders, int queueCapacity) {
+
+    public IngestSettings {
+        if (batchSize < 1 || bulkBytes < 1 || bulkLatency < 1
+                || readPartitions < 1 || parseWorkers < 1 || bulkSenders < 1 || queueCapacity < 1)
+            throw new IllegalArgumentException("Ingest settings must be positive");
+    }
+
+    /**
+     * Builds the settings, sizing with the available cores every value that is not positive. A quarter of the cores
+     * read and join the files, a quarter sends bulks (they mostly wait on Elasticsearch) and the others parse. Queues
+     * are kept short by default: every queued batch or bulk is heap, and a couple per sender is enough to never starve.
+     */
+    public static IngestSettings of(int batchSize, int bulkBytes, int bulkLatency,
+                                    int readPartitions, int parseWorkers, int bulkSenders, int queueCapacity) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int readers = readPartitions > 0 ? readPartitions : Math.max(1, cores / 4);
+        int senders = bulkSenders > 0 ? bulkSenders : Math.max(2, cores / 4);
+        int parsers = parseWorkers > 0 ? parseWorkers : Math.max(1, cores - readers - cores / 4);
+        int capacity = queueCapacity > 0 ? queueCapacity : 2 * senders;
+
+        return new IngestSettings(batchSize, bulkBytes, bulkLatency, readers, parsers, senders, capacity);
+    }
+}
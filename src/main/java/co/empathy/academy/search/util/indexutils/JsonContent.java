@@ -1,9 +0,0 @@
-package co.empathy.academy.search.util.indexutils;
-
-import jakarta.json.JsonObject;
-
-public record JsonContent(String id, JsonObject json) {
-
-
-
-}
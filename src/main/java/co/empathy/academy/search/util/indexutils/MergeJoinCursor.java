@@ -0,0 +1,82 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Single pass k-way join of inputs sorted by the same key. Every step moves to the smallest key any input has left
+ * and takes, from every input, all its rows with that key: none, one or many. Inputs only look one row ahead, so
+ * nothing is read twice and memory only depends on the rows of the current key.
+ * <p>
+ * It is a full outer join: a key is returned as long as any input has it. Callers that want a left join just skip
+ * the keys without rows on their driving input.
+ */
+public class MergeJoinCursor {
+    private final List<? extends SortedRows> inputs;
+    private final int endKey;
+    private final List<byte[]>[] rows;
+    private int key;
+
+    /**
+     * @param inputs inputs to join, all of them sorted by key
+     * @param endKey keys greater or equal than this one are not joined
+     */
+    @SuppressWarnings("unchecked")
+    public MergeJoinCursor(List<? extends SortedRows> inputs, int endKey) {
+        this.inputs = inputs;
+        this.endKey = endKey;
+        this.rows = new List[inputs.size()];
+        this.key = -1;
+        Arrays.fill(rows, List.of());
+    }
+
+    /**
+     * Moves to the next key.
+     * @return false if no input has more rows before the end key
+     */
+    public boolean next() throws IOException {
+        int min = SortedRows.EXHAUSTED;
+        for (var input : inputs)
+            min = Math.min(min, input.peekKey());
+
+        if (min == SortedRows.EXHAUSTED || min >= endKey)
+            return false;
+
+        key = min;
+        for (int i = 0; i < inputs.size(); i++) {
+            var input = inputs.get(i);
+
+            if (input.peekKey() != key) {
+                rows[i] = List.of();
+                continue;
+            }
+
+            List<byte[]> group = new ArrayList<>(2);
+            while (input.peekKey() == key)
+                group.add(input.take());
+            rows[i] = group;
+        }
+
+        return true;
+    }
+
+    public int key() {
+        return key;
+    }
+
+    /**
+     * @return the rows of the given input (by position) with the current key
+     */
+    public List<byte[]> rows(int input) {
+        return rows[input];
+    }
+
+    /**
+     * @return the only row of the given input with the current key, or null if it has none
+     */
+    public byte[] row(int input) {
+        return rows[input].isEmpty() ? null : rows[input].get(0);
+    }
+}
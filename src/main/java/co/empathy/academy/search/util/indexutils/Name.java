@@ -1,37 +1,95 @@
 package co.empathy.academy.search.util.indexutils;
 
-import jakarta.json.Json;
-import jakarta.json.JsonObject;
+import com.fasterxml.jackson.core.JsonGenerator;
 
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
 public class Name {
     private static final int NCONST = 0;
     private static final int PRIMARY_NAME = 1;
     private static final int KNOWN_FOR_TITLES = 5;
+    static final int ID_DIGITS = 7;
+    //Ids are written for every title and known title of every person, so they are built in a buffer of the thread
+    private static final ThreadLocal<byte[]> ID_BUFFER = ThreadLocal.withInitial(() -> new byte[12]);
     private Name(){}
 
-    public static JsonObject addName(String id, Map<String, String[]> nameBasics, List<String> nameHeaders) {
-        return Json.createObjectBuilder()
-                .add("nconst", id)
-                .build();
+    /**
+     * Writes a person, resolving its name and known titles through the dictionary. People who are not in
+     * name.basics (or placeholders such as \N) are written with their id only.
+     * @param nconst cursor placed on the id of the person
+     * @param entry  reusable entry to look the person up
+     */
+    public static void addName(TsvCursor nconst, JsonGenerator json, NameDictionary nameBasics,
+                               NameDictionary.Entry entry) throws IOException {
+        json.writeStartObject();
+        json.writeFieldName(nameBasics.headers().get(NCONST));
+        json.writeUTF8String(nconst.bytes(), nconst.start(), nconst.length());
 
-        //Names dont fit in the heap
-        //TODO change names to index them separately
-        /*var fields = nameBasics.get(id);
+        if (!nconst.isNull())
+            addKnownFor(nconst.asId(), json, nameBasics, entry);
 
-        var knownTitlesArray = Json.createArrayBuilder();
+        json.writeEndObject();
+    }
+
+    /**
+     * Same as {@link #addName(TsvCursor, JsonGenerator, NameDictionary, NameDictionary.Entry)}, for a person read
+     * from a snapshot
+     * @param nconst number of the id of the person, or -1 for \N
+     */
+    public static void addName(int nconst, JsonGenerator json, NameDictionary nameBasics,
+                               NameDictionary.Entry entry) throws IOException {
+        json.writeStartObject();
+        json.writeFieldName(nameBasics.headers().get(NCONST));
+        writeId(json, "nm", nconst);
+
+        if (nconst >= 0)
+            addKnownFor(nconst, json, nameBasics, entry);
+
+        json.writeEndObject();
+    }
+
+    private static void addKnownFor(int nconst, JsonGenerator json, NameDictionary nameBasics,
+                                    NameDictionary.Entry entry) throws IOException {
+        if (!nameBasics.find(nconst, entry))
+            return;
+
+        List<String> nameHeaders = nameBasics.headers();
+        json.writeFieldName(nameHeaders.get(PRIMARY_NAME));
+        json.writeUTF8String(entry.name(), 0, entry.nameLength());
+
+        json.writeFieldName(nameHeaders.get(KNOWN_FOR_TITLES));
+        json.writeStartArray();
+        for (int i = 0; i < entry.titleCount(); i++)
+            writeId(json, "tt", entry.knownForTitle(i));
+        json.writeEndArray();
+    }
+
+    /**
+     * Writes the number of an IMDb id back as the id, zero padded to seven digits (42 -> tt0000042). -1 is written
+     * as \N
+     * @param prefix its two letters, such as tt or nm
+     */
+    static void writeId(JsonGenerator json, String prefix, int number) throws IOException {
+        if (number < 0) {
+            json.writeString("\\N");
+            return;
+        }
 
-        var knownTitles = fields[KNOWN_FOR_TITLES].split(",");
-        Arrays.stream(knownTitles).forEach(knownTitlesArray::add);
+        byte[] id = ID_BUFFER.get();
+        int position = id.length;
+        int value = number;
 
+        do {
+            id[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
 
-        var result = Json.createObjectBuilder()
-                .add(nameHeaders.get(NCONST), fields[NCONST])
-                .add(nameHeaders.get(PRIMARY_NAME), fields[PRIMARY_NAME])
-                .add(nameHeaders.get(KNOWN_FOR_TITLES), knownTitlesArray);
+        while (id.length - position < ID_DIGITS)
+            id[--position] = '0';
+        id[--position] = (byte) prefix.charAt(1);
+        id[--position] = (byte) prefix.charAt(0);
 
-        return result.build();*/
+        json.writeUTF8String(id, position, id.length - position);
     }
 }
@@ -0,0 +1,245 @@
+package co.empathy.academy.search.util.indexutils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Read only nconst -> (primaryName, knownForTitles) store, kept off heap in two memory mapped files built from
+ * name.basics.tsv. Names don't fit in the heap as a map, so they are compiled once into:
+ * <ul>
+ *     <li>{@code <name.basics>.idx}: one int per nconst number (nm0000123 -> 123) holding the offset of its
+ *     record plus one, or 0 if there is no such person. Looking someone up is a single array access.</li>
+ *     <li>{@code <name.basics>.dat}: the records, each one an unsigned short with the UTF-8 length of the name,
+ *     the name bytes, an unsigned byte with the number of known titles and one int per title (tt0000042 -> 42).</li>
+ * </ul>
+ * The files are rebuilt only when they are older than the TSV. Lookups only use absolute reads on the buffers,
+ * so one instance can be shared by every ingest worker. A {@link TitleSnapshot} keeps a copy of them, written by
+ * {@link #save}, so it is read without name.basics.tsv.
+ */
+public class NameDictionary {
+    private static final Logger logger = LoggerFactory.getLogger(NameDictionary.class);
+    private static final String NULL_VALUE = "\\N";
+    private static final int NCONST = 0;
+    private static final int PRIMARY_NAME = 1;
+    private static final int KNOWN_FOR_TITLES = 5;
+
+    private final List<String> headers;
+    private final ByteBuffer index;
+    private final ByteBuffer data;
+    private final int maxId;
+
+    private NameDictionary(List<String> headers, ByteBuffer index, ByteBuffer data) {
+        this.headers = headers;
+        this.index = index;
+        this.data = data;
+        this.maxId = index.capacity() / Integer.BYTES - 1;
+    }
+
+    /**
+     * Opens the dictionary of the given name.basics.tsv, building it first if it doesn't exist or is outdated.
+     */
+    public static NameDictionary open(String nameBasicsPath) throws IOException {
+        Path source = Path.of(nameBasicsPath);
+        Path indexPath = Path.of(nameBasicsPath + ".idx");
+        Path dataPath = Path.of(nameBasicsPath + ".dat");
+
+        if (isOutdated(indexPath, source) || isOutdated(dataPath, source))
+            build(source, indexPath, dataPath);
+
+        List<String> headers;
+        try (var reader = TsvInputs.reader(source)) {
+            headers = List.of(reader.readLine().split("\t"));
+        }
+
+        return open(indexPath, dataPath, headers);
+    }
+
+    /**
+     * Opens a dictionary whose files are already written, such as those written by {@link #save}
+     * @param headers header of the name.basics.tsv it was built from
+     */
+    public static NameDictionary open(Path indexPath, Path dataPath, List<String> headers) throws IOException {
+        return new NameDictionary(headers, map(indexPath), map(dataPath));
+    }
+
+    /**
+     * Writes the files of the dictionary again, as they were when it was opened, whatever has happened to
+     * name.basics.tsv since
+     */
+    public void save(Path indexPath, Path dataPath) throws IOException {
+        write(index, indexPath);
+        write(data, dataPath);
+    }
+
+    /**
+     * @return the header of name.basics.tsv, whose names are used as the field names of the documents
+     */
+    public List<String> headers() {
+        return headers;
+    }
+
+    /**
+     * Copies a person into a reusable entry, so looking people up doesn't allocate.
+     * @param nconst number of the nconst of the person (nm0000123 -> 123)
+     * @return false if the person is not in name.basics
+     */
+    public boolean find(int nconst, Entry entry) {
+        if (nconst < 0 || nconst > maxId)
+            return false;
+
+        int position = index.getInt(nconst * Integer.BYTES) - 1;
+        if (position < 0)
+            return false;
+
+        int nameLength = Short.toUnsignedInt(data.getShort(position));
+        position += Short.BYTES;
+        entry.nameLength = nameLength;
+        if (entry.name.length < nameLength)
+            entry.name = new byte[nameLength];
+        data.get(position, entry.name, 0, nameLength);
+        position += nameLength;
+
+        int titleCount = Byte.toUnsignedInt(data.get(position));
+        position++;
+        entry.titleCount = titleCount;
+        for (int i = 0; i < titleCount; i++, position += Integer.BYTES)
+            entry.knownForTitles[i] = data.getInt(position);
+
+        return true;
+    }
+
+    private static boolean isOutdated(Path compiled, Path source) throws IOException {
+        return !Files.exists(compiled)
+                || Files.getLastModifiedTime(compiled).compareTo(Files.getLastModifiedTime(source)) < 0;
+    }
+
+    private static void write(ByteBuffer buffer, Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            var bytes = buffer.duplicate().clear();
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+        }
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Compiles name.basics.tsv in a single streaming pass. The TSV is sorted by nconst, so the index can be written
+     * sequentially, padding with zeros the numbers nobody has. Both files are written aside and then moved, so a
+     * failed build never leaves a half written dictionary behind.
+     */
+    private static void build(Path source, Path indexPath, Path dataPath) throws IOException {
+        logger.info("Building name dictionary for {}", source);
+        Path indexTmp = Files.createTempFile(indexPath.toAbsolutePath().getParent(), "names", ".idx.tmp");
+        Path dataTmp = Files.createTempFile(dataPath.toAbsolutePath().getParent(), "names", ".dat.tmp");
+
+        try (var reader = TsvInputs.reader(source);
+             var indexOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexTmp), 1 << 16));
+             var dataOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dataTmp), 1 << 16))) {
+            reader.readLine(); //Header
+
+            int nextId = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                var fields = line.split("\t");
+                int id = parseId(fields[NCONST], "nm");
+                if (id < nextId)
+                    throw new IOException("name.basics must be sorted by nconst, found " + fields[NCONST]);
+
+                long offset = dataOut.size();
+                if (offset >= Integer.MAX_VALUE)
+                    throw new IOException("Name dictionary doesn't fit in a 2 GB mapping");
+
+                for (; nextId < id; nextId++)
+                    indexOut.writeInt(0);
+                indexOut.writeInt((int) offset + 1);
+                nextId++;
+
+                writeRecord(dataOut, fields[PRIMARY_NAME], fields[KNOWN_FOR_TITLES]);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(indexTmp);
+            Files.deleteIfExists(dataTmp);
+            throw e;
+        }
+
+        Files.move(dataTmp, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(indexTmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Name dictionary built ({} bytes of records)", Files.size(dataPath));
+    }
+
+    private static void writeRecord(DataOutputStream out, String primaryName, String knownForTitles) throws IOException {
+        byte[] name = primaryName.getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(name.length, 0xFFFF);
+        out.writeShort(nameLength);
+        out.write(name, 0, nameLength);
+
+        if (knownForTitles.equals(NULL_VALUE)) {
+            out.writeByte(0);
+            return;
+        }
+
+        var titles = knownForTitles.split(",");
+        int titleCount = Math.min(titles.length, 0xFF);
+        out.writeByte(titleCount);
+        for (int i = 0; i < titleCount; i++)
+            out.writeInt(parseId(titles[i], "tt"));
+    }
+
+    /**
+     * @return the number of an IMDb id (nm0000123 -> 123), or -1 if it doesn't have the expected prefix
+     */
+    static int parseId(String id, String prefix) {
+        if (id.length() <= prefix.length() || !id.startsWith(prefix))
+            return -1;
+
+        try {
+            return Integer.parseInt(id, prefix.length(), id.length(), 10);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A person as stored in the dictionary: the UTF-8 bytes of its name and the tconst numbers of its known titles.
+     * Entries are meant to be reused, one per thread.
+     */
+    public static class Entry {
+        private byte[] name = new byte[256];
+        private int nameLength;
+        private final int[] knownForTitles = new int[0xFF];
+        private int titleCount;
+
+        public byte[] name() {
+            return name;
+        }
+
+        public int nameLength() {
+            return nameLength;
+        }
+
+        public int knownForTitle(int i) {
+            return knownForTitles[i];
+        }
+
+        public int titleCount() {
+            return titleCount;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package co.empathy.academy.search.util.indexutils;
+
+import co.empathy.academy.search.exception.InternalServerException;
+import co.empathy.academy.search.util.ClientCustomConfiguration;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.elasticsearch.client.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the names index: one document per person of name.basics, with their filmography. name.basics is merge joined
+ * by nconst with the principals sorted by nconst (see {@link Filmography}), so every person comes with all the titles
+ * they took part in, in a single streaming pass.
+ * <p>
+ * Building a person is cheap, so a single thread reads and writes the documents into pooled buffers, and its own pool
+ * of senders ships them. If any of them fails, the rest are interrupted and the failure is rethrown. It shares nothing
+ * with the films pipeline but the cluster, so both can run at the same time. Like the films, it is loaded into a new
+ * version of the index and the alias is moved once done.
+ */
+public class NamesIngest {
+    private static final Logger logger = LoggerFactory.getLogger(NamesIngest.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .setRootValueSeparator(null)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final BulkBuffer NO_MORE_BULKS = new BulkBuffer(0);
+    //Position of every file in the join, and columns of name.basics
+    private static final int NAMES = 0;
+    private static final int FILMOGRAPHY = 1;
+    private static final int NCONST = 0;
+    private static final int PRIMARY_NAME = 1;
+    private static final int BIRTH_YEAR = 2;
+    private static final int DEATH_YEAR = 3;
+    private static final int PRIMARY_PROFESSION = 4;
+    private static final int KNOWN_FOR_TITLES = 5;
+
+    private final RestClient client;
+    private final IngestSettings settings;
+    private final DeadLetterSpool deadLetters;
+    private final IndexVersions versions;
+    private final IngestProgress progress;
+
+    /**
+     * @param deadLetters spool of the names, not the one of the films: its documents go to another index
+     * @param versions    versions behind the names alias
+     */
+    public NamesIngest(IngestSettings settings, DeadLetterSpool deadLetters, IndexVersions versions,
+                       IngestProgress progress) {
+        this(ClientCustomConfiguration.getRestClient(), settings, deadLetters, versions, progress);
+    }
+
+    NamesIngest(RestClient client, IngestSettings settings, DeadLetterSpool deadLetters, IndexVersions versions,
+                IngestProgress progress) {
+        this.client = client;
+        this.settings = settings;
+        this.deadLetters = deadLetters;
+        this.versions = versions;
+        this.progress = progress;
+    }
+
+    /**
+     * Indexes every person into a new version of the names index and publishes it
+     */
+    public void indexNames(String nameBasicsPath, String principalsPath) {
+        long start = System.nanoTime();
+
+        try {
+            Filmography.prepare(principalsPath);
+            var index = versions.create();
+            long refused = load(index, Path.of(nameBasicsPath), Path.of(principalsPath));
+            if (refused > 0)
+                logger.warn("{} names were refused and spooled to {}", refused, deadLetters.file());
+            versions.publish(index);
+        } catch (IOException e) {
+            throw new InternalServerException(e);
+        }
+
+        logger.info("Indexed names in {} s", (System.nanoTime() - start) / 1_000_000_000);
+    }
+
+    /**
+     * Writes every person into an index, blocking until all the bulks have been acknowledged
+     * @return number of names Elasticsearch refused, spooled as dead letters
+     */
+    long load(String index, Path nameBasics, Path principals) {
+        var throttle = new BulkThrottle(settings.bulkBytes(), settings.bulkSenders(), settings.bulkLatency());
+        var sender = new BulkSender(client, index, throttle, deadLetters, progress);
+        var pool = new BulkBufferPool(1 + settings.queueCapacity() + settings.bulkSenders(),
+                settings.bulkBytes() + settings.bulkBytes() / 4);
+        BlockingQueue<BulkBuffer> bulks = new ArrayBlockingQueue<>(settings.queueCapacity());
+        var deadLettered = new AtomicLong();
+
+        //The writer runs along with the senders, so it is interrupted rather than left waiting for them if they fail
+        int stages = 1 + settings.bulkSenders();
+        ExecutorService executor = Executors.newFixedThreadPool(stages, stageThreadFactory());
+        CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+        completion.submit(() -> {
+            write(nameBasics, principals, throttle, pool, bulks);
+            for (int i = 0; i < settings.bulkSenders(); i++)
+                bulks.put(NO_MORE_BULKS);
+            return null;
+        });
+        for (int i = 0; i < settings.bulkSenders(); i++) {
+            completion.submit(() -> {
+                var bulk = bulks.take();
+                while (bulk != NO_MORE_BULKS) {
+                    deadLettered.addAndGet(sender.send(bulk));
+                    pool.release(bulk);
+                    bulk = bulks.take();
+                }
+                return null;
+            });
+        }
+        progress.watch(IngestProgress.Stage.SEND, bulks);
+
+        try {
+            for (int i = 0; i < stages; i++)
+                completion.take().get();
+        } catch (ExecutionException e) {
+            throw new InternalServerException(e.getCause() instanceof Exception cause ? cause : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServerException(e);
+        } finally {
+            executor.shutdownNow();
+            progress.unwatch();
+        }
+
+        return deadLettered.get();
+    }
+
+    /**
+     * Reads and joins the files, writing a document per person into buffers that are queued for the senders as soon
+     * as they reach the bulk size
+     */
+    private void write(Path nameBasics, Path principals, BulkThrottle throttle, BulkBufferPool pool,
+                       BlockingQueue<BulkBuffer> bulks) throws IOException, InterruptedException {
+        List<String> nameHeaders;
+        List<String> principalHeaders;
+        try (var reader = TsvInputs.reader(nameBasics)) {
+            nameHeaders = List.of(reader.readLine().split("\t"));
+        }
+        try (var reader = TsvInputs.reader(principals)) {
+            principalHeaders = List.of(reader.readLine().split("\t"));
+        }
+
+        var filmography = Path.of(Filmography.byName(principals.toString()));
+        var line = TsvCursor.tabs();
+        var items = TsvCursor.commas();
+        var bulk = pool.acquire();
+        var json = JSON_FACTORY.createGenerator(bulk);
+
+        try (var names = new TsvSortedRows(nameBasics.toString(), TsvInputs.openFrom(nameBasics, 0));
+             var titles = new TsvSortedRows(filmography.toString(), TsvInputs.openFrom(filmography, 0))) {
+            var join = new MergeJoinCursor(List.of(names, titles), Integer.MAX_VALUE);
+
+            while (join.next()) {
+                //Principals of people who are not in name.basics are skipped
+                if (join.rows(NAMES).isEmpty())
+                    continue;
+
+                writePerson(join.row(NAMES), join.rows(FILMOGRAPHY), line, items, json, nameHeaders, principalHeaders);
+                bulk.documentWritten();
+
+                if (bulk.size() >= throttle.bulkBytes()) {
+                    bulks.put(bulk);
+                    bulk = pool.acquire();
+                    json = JSON_FACTORY.createGenerator(bulk);
+                }
+            }
+        }
+
+        if (bulk.isEmpty())
+            pool.release(bulk);
+        else
+            bulks.put(bulk);
+    }
+
+    private static void writePerson(byte[] person, List<byte[]> titles, TsvCursor line, TsvCursor items,
+                                    JsonGenerator json, List<String> headers, List<String> principalHeaders)
+            throws IOException {
+        line.reset(person);
+
+        json.writeStartObject();
+        json.writeObjectFieldStart("index");
+        Film.writeString(json, "_id", line.field(NCONST));
+        json.writeEndObject();
+        json.writeEndObject();
+        json.writeRaw('\n');
+
+        json.writeStartObject();
+        Film.writeString(json, headers.get(NCONST), line.field(NCONST));
+        Film.writeString(json, headers.get(PRIMARY_NAME), line.field(PRIMARY_NAME));
+        writeYear(json, headers.get(BIRTH_YEAR), line.field(BIRTH_YEAR));
+        writeYear(json, headers.get(DEATH_YEAR), line.field(DEATH_YEAR));
+        writeList(json, headers.get(PRIMARY_PROFESSION), line.field(PRIMARY_PROFESSION), items);
+        writeList(json, headers.get(KNOWN_FOR_TITLES), line.field(KNOWN_FOR_TITLES), items);
+        Filmography.addFilmography(titles, line, json, principalHeaders);
+        json.writeEndObject();
+        json.writeRaw('\n');
+
+        json.flush();
+    }
+
+    /**
+     * Writes a year, leaving the field out if it is \N
+     */
+    private static void writeYear(JsonGenerator json, String name, TsvCursor year) throws IOException {
+        if (!year.isNull())
+            json.writeNumberField(name, year.asInt());
+    }
+
+    /**
+     * Writes a comma separated field as an array, empty if it is \N
+     */
+    private static void writeList(JsonGenerator json, String name, TsvCursor field, TsvCursor items) throws IOException {
+        json.writeArrayFieldStart(name);
+        if (!field.isNull()) {
+            items.reset(field);
+            while (items.nextField())
+                json.writeUTF8String(items.bytes(), items.start(), items.length());
+        }
+        json.writeEndArray();
+    }
+
+    private static ThreadFactory stageThreadFactory() {
+        var counter = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, "names-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,9 +1,9 @@
 package co.empathy.academy.search.util.indexutils;
 
-import jakarta.json.Json;
-import jakarta.json.JsonObjectBuilder;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
 public class Principals {
     private static final int NCONST = 2;
@@ -12,17 +12,52 @@ public class Principals {
     private Principals() {}
 
 
-    public static void addPrincipals(List<String> principalsLines, JsonObjectBuilder builder, List<String> akasHeaders, Map<String, String[]> nameBasics, List<String> nameHeaders) {
-        var principalsArray = Json.createArrayBuilder();
-        for(String principalLine : principalsLines) {
-            var fields = principalLine.split("\t");
+    public static void addPrincipals(List<byte[]> principalsLines, TsvCursor line, JsonGenerator json, List<String> akasHeaders,
+                                     NameDictionary nameBasics, NameDictionary.Entry entry) throws IOException {
+        json.writeArrayFieldStart("principals");
+
+        for (int i = 0; i < principalsLines.size(); i++) {
+            line.reset(principalsLines.get(i));
+
+            json.writeStartObject();
+            json.writeFieldName("name");
+            Name.addName(line.field(NCONST), json, nameBasics, entry);
+            Film.writeString(json, akasHeaders.get(CHARACTERS), line.field(CHARACTERS));
+            json.writeEndObject();
+        }
+
+        json.writeEndArray();
+    }
+
+    /**
+     * Stores the principals of a title as its group in a snapshot
+     */
+    static void encode(List<byte[]> principalsLines, TsvCursor line, TitleSnapshot.Output out) throws IOException {
+        for (byte[] principalLine : principalsLines) {
+            line.reset(principalLine);
+            out.principals.zigzag(TitleSnapshot.id(line.field(NCONST), "nm"));
+            var characters = line.field(CHARACTERS);
+            out.principals.string(characters.bytes(), characters.start(), characters.length());
+        }
+    }
+
+    /**
+     * Same as {@link #addPrincipals(List, TsvCursor, JsonGenerator, List, NameDictionary, NameDictionary.Entry)}, for
+     * a title read from a snapshot
+     */
+    public static void addPrincipals(TitleSnapshot.Input in, JsonGenerator json, List<String> akasHeaders,
+                                     NameDictionary nameBasics, NameDictionary.Entry entry) throws IOException {
+        json.writeArrayFieldStart("principals");
 
-            principalsArray.add(Json.createObjectBuilder()
-                    .add("name", Name.addName(fields[NCONST], nameBasics, nameHeaders))
-                    .add(akasHeaders.get(CHARACTERS), fields[CHARACTERS])
-            );
+        long end = in.principalsOffsets.fixedLong();
+        while (in.principals.offset() < end) {
+            json.writeStartObject();
+            json.writeFieldName("name");
+            Name.addName(in.principals.zigzag(), json, nameBasics, entry);
+            Film.writeString(json, akasHeaders.get(CHARACTERS), in.principals);
+            json.writeEndObject();
         }
 
-        builder.add("principals", principalsArray);
+        json.writeEndArray();
     }
-}
\ No newline at end of file
+}
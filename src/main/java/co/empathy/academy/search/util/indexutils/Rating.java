@@ -1,9 +1,8 @@
 package co.empathy.academy.search.util.indexutils;
 
-import co.empathy.academy.search.util.indexutils.converters.StringToDoubleConverter;
-import co.empathy.academy.search.util.indexutils.converters.StringToIntConverter;
-import jakarta.json.JsonObjectBuilder;
+import com.fasterxml.jackson.core.JsonGenerator;
 
+import java.io.IOException;
 import java.util.List;
 
 public class Rating {
@@ -12,10 +11,34 @@ public class Rating {
 
     private Rating(){}
 
-    public static void addRating(String line, JsonObjectBuilder builder, List<String> headers) {
-        String[] fields = line.split("\t");
+    /**
+     * Adds the rating of a film. Films without a line in title.ratings get 0 in both fields, like \N values.
+     */
+    public static void addRating(TsvCursor line, JsonGenerator json, List<String> headers) throws IOException {
+        if (line == null) {
+            json.writeNumberField(headers.get(AVERAGE_RATING), 0.0);
+            json.writeNumberField(headers.get(NUM_VOTES), 0);
+            return;
+        }
 
-        builder.add(headers.get(AVERAGE_RATING), StringToDoubleConverter.getDouble(fields[AVERAGE_RATING]))
-                .add(headers.get(NUM_VOTES), StringToIntConverter.getInt(fields[NUM_VOTES]));
+        json.writeNumberField(headers.get(AVERAGE_RATING), line.field(AVERAGE_RATING).asDouble());
+        json.writeNumberField(headers.get(NUM_VOTES), line.field(NUM_VOTES).asInt());
+    }
+
+    /**
+     * Stores the rating of a film in the columns of a snapshot, 0 in both fields if it has none
+     */
+    static void encode(TsvCursor line, TitleSnapshot.Output out) throws IOException {
+        out.averageRating.fixedDouble(line == null ? 0.0 : line.field(AVERAGE_RATING).asDouble());
+        out.numVotes.startValue();
+        out.numVotes.zigzag(line == null ? 0 : line.field(NUM_VOTES).asInt());
+    }
+
+    /**
+     * Same as {@link #addRating(TsvCursor, JsonGenerator, List)}, for a title read from a snapshot
+     */
+    public static void addRating(TitleSnapshot.Input in, JsonGenerator json, List<String> headers) throws IOException {
+        json.writeNumberField(headers.get(AVERAGE_RATING), in.averageRating.fixedDouble());
+        json.writeNumberField(headers.get(NUM_VOTES), in.numVotes.zigzag());
     }
 }
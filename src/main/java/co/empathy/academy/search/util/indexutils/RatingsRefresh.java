@@ -0,0 +1,12 @@
+package co.empathy.academy.search.util.indexutils;
+
+/**
+ * Outcome of a ratings refresh.
+ *
+ * @param updated      number of titles whose rating changed, sent as partial updates
+ * @param unchanged    number of titles whose rating was already in the index
+ * @param notIndexed   number of titles with a changed rating that are not in the index, left to the next indexing job
+ * @param deadLettered number of updates Elasticsearch refused, which were spooled
+ */
+public record RatingsRefresh(long updated, long unchanged, long notIndexed, long deadLettered) {
+}
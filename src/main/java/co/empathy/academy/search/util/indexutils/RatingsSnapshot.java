@@ -0,0 +1,142 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Ratings that were last applied to the index, as a primitive map from tconst to (averageRating, numVotes): three
+ * parallel arrays sorted by tconst, so a ratings file (which is sorted too) can be diffed against it in a single walk,
+ * without boxing a value per title.
+ * <p>
+ * It is saved as (int tconst, float averageRating, int numVotes) records.
+ */
+public final class RatingsSnapshot {
+    public static final int RECORD_BYTES = Integer.BYTES + Float.BYTES + Integer.BYTES;
+    public static final RatingsSnapshot EMPTY = new RatingsSnapshot(new int[0], new float[0], new int[0], 0);
+
+    private final int[] tconsts;
+    private final float[] ratings;
+    private final int[] votes;
+    private final int size;
+
+    private RatingsSnapshot(int[] tconsts, float[] ratings, int[] votes, int size) {
+        this.tconsts = tconsts;
+        this.ratings = ratings;
+        this.votes = votes;
+        this.size = size;
+    }
+
+    /**
+     * Reads a saved snapshot, or returns {@link #EMPTY} if there is none
+     */
+    public static RatingsSnapshot load(Path file) throws IOException {
+        if (!Files.exists(file))
+            return EMPTY;
+
+        long bytes = Files.size(file);
+        if (bytes % RECORD_BYTES != 0)
+            throw new IOException(file + " is not a ratings snapshot");
+
+        var builder = new Builder((int) (bytes / RECORD_BYTES));
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            for (long i = 0; i < bytes / RECORD_BYTES; i++)
+                builder.add(input.readInt(), input.readFloat(), input.readInt());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads the ratings of a title.ratings TSV, plain or gzipped
+     */
+    public static RatingsSnapshot read(Path tsv) throws IOException {
+        var builder = new Builder(1 << 20);
+        var line = TsvCursor.tabs();
+
+        try (var lines = new TsvLineReader(TsvInputs.open(tsv))) {
+            lines.next(); //Header
+            while (lines.next()) {
+                if (lines.start() == lines.end())
+                    continue;
+                line.reset(lines.bytes(), lines.start(), lines.end());
+                builder.add(line.field(0).asId(), (float) line.field(1).asDouble(), line.field(2).asInt());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Writes the snapshot to a temporary file first, so a crash never leaves half a snapshot behind
+     */
+    public void save(Path file) throws IOException {
+        var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+
+        try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            for (int i = 0; i < size; i++) {
+                output.writeInt(tconsts[i]);
+                output.writeFloat(ratings[i]);
+                output.writeInt(votes[i]);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int tconst(int i) {
+        return tconsts[i];
+    }
+
+    public float averageRating(int i) {
+        return ratings[i];
+    }
+
+    public int numVotes(int i) {
+        return votes[i];
+    }
+
+    /**
+     * Appends ratings in tconst order, growing the arrays as needed
+     */
+    public static class Builder {
+        private int[] tconsts;
+        private float[] ratings;
+        private int[] votes;
+        private int size;
+
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 16);
+            this.tconsts = new int[capacity];
+            this.ratings = new float[capacity];
+            this.votes = new int[capacity];
+        }
+
+        public void add(int tconst, float averageRating, int numVotes) throws IOException {
+            if (size > 0 && tconsts[size - 1] >= tconst)
+                throw new IOException("Ratings are not sorted by tconst: tt" + tconst + " after tt" + tconsts[size - 1]);
+
+            if (size == tconsts.length) {
+                tconsts = Arrays.copyOf(tconsts, size * 2);
+                ratings = Arrays.copyOf(ratings, size * 2);
+                votes = Arrays.copyOf(votes, size * 2);
+            }
+            tconsts[size] = tconst;
+            ratings[size] = averageRating;
+            votes[size++] = numVotes;
+        }
+
+        public RatingsSnapshot build() {
+            return new RatingsSnapshot(tconsts, ratings, votes, size);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package co.empathy.academy.search.util.indexutils;
+
+import co.empathy.academy.search.util.indexutils.TsvFileSeeker.TconstRange;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch of raw titles on its way through the pipeline, along with where its partition would have to be read again
+ * from once all of them are acknowledged. Its documents may end up in several bulks, so it counts how many of them
+ * are still waiting for Elasticsearch (or for a worker to find out they have not changed and need no sending).
+ */
+public class RawBatch {
+    private final TconstRange range;
+    private final long sequence;
+    private final List<RawTitle> titles;
+    private final IngestCheckpoint.Partition position;
+    private final AtomicInteger pending;
+    private final long[] fingerprints;
+
+    /**
+     * @param range    range of the partition the batch was read from
+     * @param sequence position of the batch in its partition, starting at 0
+     * @param titles   titles read
+     * @param position progress of the partition once this batch and every previous one are acknowledged
+     */
+    public RawBatch(TconstRange range, long sequence, List<RawTitle> titles, IngestCheckpoint.Partition position) {
+        this.range = range;
+        this.sequence = sequence;
+        this.titles = titles;
+        this.position = position;
+        this.pending = new AtomicInteger(titles.size());
+        this.fingerprints = new long[titles.size()];
+    }
+
+    public TconstRange range() {
+        return range;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+
+    public List<RawTitle> titles() {
+        return titles;
+    }
+
+    public IngestCheckpoint.Partition position() {
+        return position;
+    }
+
+    /**
+     * Records the hash of the document built for the title at the given position of the batch
+     */
+    public void fingerprint(int title, long hash) {
+        fingerprints[title] = hash;
+    }
+
+    public long fingerprint(int title) {
+        return fingerprints[title];
+    }
+
+    /**
+     * Forgets the hash of a title whose document was spooled as a dead letter, so it is recorded as
+     * {@link Fingerprints#MISSING} and the next delta job sends it again
+     * @return true if the title is in the batch
+     */
+    public boolean forget(int tconst) {
+        for (int i = 0; i < titles.size(); i++) {
+            if (titles.get(i).tconst() == tconst) {
+                fingerprints[i] = Fingerprints.MISSING;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts some of its documents as acknowledged (indexed, spooled as dead letters or unchanged)
+     * @return true if that was the last of them
+     */
+    public boolean acknowledge(int documents) {
+        return pending.addAndGet(-documents) == 0;
+    }
+}
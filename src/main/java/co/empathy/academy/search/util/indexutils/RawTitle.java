@@ -0,0 +1,26 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.util.List;
+
+/**
+ * Unparsed lines belonging to a single title, as read from every TSV. It is what the reader stage hands over to
+ * the workers that build the documents. Lines are kept as UTF-8 bytes, without their line break. Only series have
+ * episodes lines, those of their episodes.
+ * <p>
+ * Titles read from a {@link TitleSnapshot} have no lines, only the row the workers read them from.
+ *
+ * @param snapshotRow row of the title in the snapshot it was read from, or -1 if it was read from the TSVs
+ */
+public record RawTitle(int tconst,
+                       byte[] filmLine,
+                       byte[] ratingLine,
+                       List<byte[]> akasLines,
+                       byte[] crewLine,
+                       List<byte[]> principalsLines,
+                       List<byte[]> episodesLines,
+                       int snapshotRow) {
+
+    public static RawTitle inSnapshot(int tconst, int row) {
+        return new RawTitle(tconst, null, null, List.of(), null, List.of(), List.of(), row);
+    }
+}
@@ -0,0 +1,304 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A column of a {@link TitleSnapshot}: one value per title (or a group of values per title), one after the other in
+ * a file of its own. Numbers are varints, zigzag encoded when they may be negative, strings a varint length followed
+ * by their UTF-8 bytes and lists a varint count followed by their varints. Fixed size columns (ints, longs, doubles
+ * and single bytes) are read at the position of the value.
+ * <p>
+ * Variable size values can't be jumped to, so every {@link #STRIDE}th value has its offset recorded in a
+ * {@code .idx} file next to the column: seeking is a jump to the closest recorded value and a skip over at most
+ * STRIDE - 1 values. Columns are read through memory mapped windows of up to {@link #WINDOW_BYTES}, moved forward as
+ * the cursor reads along, so a column may be bigger than what a single mapping holds.
+ */
+public class SnapshotColumn {
+    public static final int STRIDE = 128;
+    static final long WINDOW_BYTES = 1L << 30;
+    private static final int MAX_VARINT_BYTES = 10;
+
+    /**
+     * How the values of a column are laid out
+     */
+    public enum Kind {
+        VARINT(0), BYTES(0), VARINT_LIST(0), GROUPS(0), BYTE(1), INT(Integer.BYTES), LONG(Long.BYTES), DOUBLE(Double.BYTES);
+
+        private final int size;
+
+        Kind(int size) {
+            this.size = size;
+        }
+
+        /**
+         * @return bytes of every value, or 0 if they are variable
+         */
+        public int size() {
+            return size;
+        }
+    }
+
+    private final Path file;
+    private final Kind kind;
+    private final long length;
+    private final long[] index;
+
+    private SnapshotColumn(Path file, Kind kind, long length, long[] index) {
+        this.file = file;
+        this.kind = kind;
+        this.length = length;
+        this.index = index;
+    }
+
+    /**
+     * Opens a column written by a {@link Writer}. Only the stride index is read, into the heap
+     */
+    public static SnapshotColumn open(Path file, Kind kind) throws IOException {
+        long[] index = null;
+        if (kind.size() == 0 && kind != Kind.GROUPS) {
+            var indexFile = indexOf(file);
+            index = new long[(int) (Files.size(indexFile) / Long.BYTES)];
+            try (var input = new DataInputStream(Files.newInputStream(indexFile))) {
+                for (int i = 0; i < index.length; i++)
+                    index[i] = input.readLong();
+            }
+        }
+        return new SnapshotColumn(file, kind, Files.size(file), index);
+    }
+
+    private static Path indexOf(Path file) {
+        return file.resolveSibling(file.getFileName() + ".idx");
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    /**
+     * @return a new cursor at the first value. Cursors are not thread safe: every thread needs its own
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Reads the values of a column, mapping a window of the file at a time. Strings are copied into a buffer of the
+     * cursor, which the next string overwrites.
+     */
+    public class Cursor {
+        private MappedByteBuffer window;
+        private long windowStart;
+        private byte[] bytes = new byte[256];
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves to the value with the given (0 based) index
+         */
+        public void seek(long value) throws IOException {
+            if (kind.size() > 0) {
+                seekOffset(value * kind.size());
+                return;
+            }
+
+            seekOffset(index[(int) (value / STRIDE)]);
+            for (long i = value - value % STRIDE; i < value; i++)
+                skip();
+        }
+
+        /**
+         * Moves to a position of the file. Groups are only found through their offsets, see {@link TitleSnapshot}
+         */
+        public void seekOffset(long offset) throws IOException {
+            if (window == null || offset < windowStart || offset > windowStart + window.limit())
+                map(offset);
+            else
+                window.position((int) (offset - windowStart));
+        }
+
+        /**
+         * @return position of the cursor in the file
+         */
+        public long offset() {
+            return window == null ? 0 : windowStart + window.position();
+        }
+
+        public long varint() throws IOException {
+            ensure(MAX_VARINT_BYTES);
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = window.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                    return value;
+            }
+        }
+
+        public int zigzag() throws IOException {
+            long value = varint();
+            return (int) ((value >>> 1) ^ -(value & 1));
+        }
+
+        /**
+         * Reads a string into the buffer of the cursor
+         * @return its length
+         */
+        public int string() throws IOException {
+            int length = (int) varint();
+            ensure(length);
+            if (bytes.length < length)
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            window.get(bytes, 0, length);
+            return length;
+        }
+
+        /**
+         * @return the buffer the last string was read into
+         */
+        public byte[] bytes() {
+            return bytes;
+        }
+
+        public byte fixedByte() throws IOException {
+            ensure(1);
+            return window.get();
+        }
+
+        public int fixedInt() throws IOException {
+            ensure(Integer.BYTES);
+            return window.getInt();
+        }
+
+        public long fixedLong() throws IOException {
+            ensure(Long.BYTES);
+            return window.getLong();
+        }
+
+        public double fixedDouble() throws IOException {
+            ensure(Double.BYTES);
+            return window.getDouble();
+        }
+
+        private void skip() throws IOException {
+            switch (kind) {
+                case VARINT -> varint();
+                case BYTES -> {
+                    long length = varint();
+                    seekOffset(offset() + length);
+                }
+                case VARINT_LIST -> {
+                    for (long items = varint(); items > 0; items--)
+                        varint();
+                }
+                default -> throw new IllegalStateException(kind + " values are not skipped");
+            }
+        }
+
+        /**
+         * Moves the window forward if it does not hold the next bytes. Near the end of the file, it holds what is left.
+         */
+        private void ensure(int bytes) throws IOException {
+            long offset = offset();
+            if (window == null)
+                map(offset);
+            else if (window.remaining() < bytes && windowStart + window.limit() < length)
+                map(offset);
+        }
+
+        private void map(long offset) throws IOException {
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                windowStart = offset;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_BYTES, length - offset));
+            }
+        }
+    }
+
+    /**
+     * Appends the values of a column, recording its stride index as it goes. Every value must be started with
+     * {@link #startValue()}, except in fixed size and group columns, and may then be written with any number of calls.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream data;
+        private final DataOutputStream index;
+        private long position;
+        private long values;
+
+        public Writer(Path file, Kind kind) throws IOException {
+            this.data = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+            this.index = kind.size() == 0 && kind != Kind.GROUPS
+                    ? new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexOf(file)), 1 << 12))
+                    : null;
+        }
+
+        public void startValue() throws IOException {
+            if (values++ % STRIDE == 0)
+                index.writeLong(position);
+        }
+
+        /**
+         * @return bytes written so far, which is where the next value starts
+         */
+        public long position() {
+            return position;
+        }
+
+        public void varint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        public void zigzag(int value) throws IOException {
+            varint(Integer.toUnsignedLong((value << 1) ^ (value >> 31)));
+        }
+
+        public void string(byte[] bytes, int offset, int length) throws IOException {
+            varint(length);
+            data.write(bytes, offset, length);
+            position += length;
+        }
+
+        public void fixedByte(int value) throws IOException {
+            write(value);
+        }
+
+        public void fixedInt(int value) throws IOException {
+            data.writeInt(value);
+            position += Integer.BYTES;
+        }
+
+        public void fixedLong(long value) throws IOException {
+            data.writeLong(value);
+            position += Long.BYTES;
+        }
+
+        public void fixedDouble(double value) throws IOException {
+            data.writeDouble(value);
+            position += Double.BYTES;
+        }
+
+        private void write(int b) throws IOException {
+            data.write(b);
+            position++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+            if (index != null)
+                index.close();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Rows sorted by an int key (the number of a tconst or nconst) that can be looked one row ahead without consuming
+ * it. It is what {@link MergeJoinCursor} joins.
+ */
+public interface SortedRows extends Closeable {
+    /**
+     * Key returned by {@link #peekKey()} when there are no more rows. It sorts after every real key.
+     */
+    int EXHAUSTED = Integer.MAX_VALUE;
+
+    /**
+     * @return the key of the next row, or {@link #EXHAUSTED}
+     */
+    int peekKey();
+
+    /**
+     * @return the next row, moving past it
+     */
+    byte[] take() throws IOException;
+}
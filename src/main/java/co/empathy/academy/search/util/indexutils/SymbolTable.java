@@ -0,0 +1,132 @@
+package co.empathy.academy.search.util.indexutils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Canonical values of a low cardinality field (titleType, genres, region, language), shared by every ingest worker.
+ * A value is looked up by hashing its bytes in place, and comes with its JSON string already quoted and escaped, so
+ * writing it is a copy instead of a scan of every byte.
+ * <p>
+ * The table is open addressed over an {@link AtomicReferenceArray}: lookups are plain reads, and a new value is added
+ * with a compare and set on its slot, so workers never wait for each other. It never grows: once it holds
+ * {@code capacity} values, or for values longer than {@code maxValueBytes}, there is no symbol and callers write the
+ * bytes as they are. A field that turns out not to be low cardinality costs a failed lookup, not the heap.
+ */
+public class SymbolTable {
+    public static final SymbolTable TITLE_TYPES = new SymbolTable(256, 64);
+    public static final SymbolTable GENRES = new SymbolTable(256, 64);
+    public static final SymbolTable REGIONS = new SymbolTable(1024, 16);
+    public static final SymbolTable LANGUAGES = new SymbolTable(1024, 16);
+
+    private final AtomicReferenceArray<Symbol> slots;
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private final int maxValueBytes;
+
+    /**
+     * A value of the table. Its code is its slot, which is stable for the life of the table
+     */
+    public record Symbol(int code, byte[] bytes, SerializedString json) {
+        /**
+         * Writes the value as a JSON string
+         */
+        public void writeTo(JsonGenerator json) throws IOException {
+            json.writeString(this.json);
+        }
+    }
+
+    /**
+     * @param capacity      most values the table holds
+     * @param maxValueBytes longest value the table holds
+     */
+    public SymbolTable(int capacity, int maxValueBytes) {
+        this.slots = new AtomicReferenceArray<>(Integer.highestOneBit(capacity * 2 - 1) * 2);
+        this.capacity = capacity;
+        this.maxValueBytes = maxValueBytes;
+    }
+
+    /**
+     * @return the symbol of the value in the cursor, adding it if it is new, or null if the table can't hold it
+     */
+    public Symbol symbol(TsvCursor value) {
+        return symbol(value.bytes(), value.start(), value.end());
+    }
+
+    public Symbol symbol(byte[] bytes, int from, int to) {
+        if (to - from > maxValueBytes)
+            return null;
+
+        int mask = slots.length() - 1;
+        for (int slot = hash(bytes, from, to) & mask; ; slot = (slot + 1) & mask) {
+            var symbol = slots.get(slot);
+            if (symbol == null) {
+                //Claims the capacity before the slot, so the table never fills up and probes always end
+                if (size.incrementAndGet() > capacity) {
+                    size.decrementAndGet();
+                    return null;
+                }
+                symbol = create(slot, bytes, from, to);
+                if (slots.compareAndSet(slot, null, symbol))
+                    return symbol;
+                //Another worker took the slot: it may have added this very value
+                size.decrementAndGet();
+                symbol = slots.get(slot);
+            }
+            if (Arrays.equals(symbol.bytes(), 0, symbol.bytes().length, bytes, from, to))
+                return symbol;
+        }
+    }
+
+    /**
+     * @return the symbol with the given code, or null if there is none
+     */
+    public Symbol byCode(int code) {
+        return code < 0 || code >= slots.length() ? null : slots.get(code);
+    }
+
+    /**
+     * @return number of values in the table
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Writes the value in the cursor as a JSON string, from its symbol if the table holds it
+     */
+    public void write(JsonGenerator json, TsvCursor value) throws IOException {
+        var symbol = symbol(value);
+        if (symbol == null)
+            json.writeUTF8String(value.bytes(), value.start(), value.length());
+        else
+            symbol.writeTo(json);
+    }
+
+    /**
+     * @return a string whose JSON form is computed once, for values that are written over and over
+     */
+    static SerializedString encoded(String value) {
+        var string = new SerializedString(value);
+        string.asQuotedUTF8();
+        return string;
+    }
+
+    static int hash(byte[] bytes, int from, int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++)
+            hash = 31 * hash + bytes[i];
+        return hash ^ (hash >>> 16);
+    }
+
+    private static Symbol create(int slot, byte[] bytes, int from, int to) {
+        byte[] value = Arrays.copyOfRange(bytes, from, to);
+        return new Symbol(slot, value, encoded(new String(value, StandardCharsets.UTF_8)));
+    }
+}
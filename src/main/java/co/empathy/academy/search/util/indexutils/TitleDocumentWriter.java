@@ -0,0 +1,126 @@
+package co.empathy.academy.search.util.indexutils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Streams the documents of raw titles as bulk NDJSON into a {@link BulkBuffer}: an index action line and a source
+ * line per title. Rows go straight from their TSV bytes to the JSON generator, so no object tree or intermediate
+ * String is built. Titles read from a {@link TitleSnapshot} are streamed from its columns instead, into the very
+ * same documents. A writer keeps its own cursors and generator, so each ingest worker needs its own.
+ */
+public class TitleDocumentWriter {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .setRootValueSeparator(null)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final BatchReader.Headers headers;
+    private final NameDictionary nameBasics;
+    private final TsvCursor line = TsvCursor.tabs();
+    private final TsvCursor items = TsvCursor.commas();
+    private final NameDictionary.Entry entry = new NameDictionary.Entry();
+    private final RetargetableOutput output = new RetargetableOutput();
+    private final TitleSnapshot.Input snapshot;
+    private final JsonGenerator json;
+
+    /**
+     * @param snapshot snapshot the titles are read from, or null if they are read from the TSVs
+     */
+    public TitleDocumentWriter(BatchReader.Headers headers, NameDictionary nameBasics, TitleSnapshot snapshot) {
+        this.headers = headers;
+        this.nameBasics = nameBasics;
+
+        try {
+            this.snapshot = snapshot == null ? null : snapshot.input();
+            this.json = JSON_FACTORY.createGenerator(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends the action and source lines of a title to the buffer
+     */
+    public void write(RawTitle title, BulkBuffer buffer) throws IOException {
+        output.target = buffer;
+        if (title.snapshotRow() >= 0)
+            writeFromSnapshot(title.snapshotRow());
+        else
+            writeFromLines(title);
+
+        json.flush();
+        buffer.documentWritten();
+    }
+
+    private void writeFromLines(RawTitle title) throws IOException {
+        line.reset(title.filmLine()).field(0);
+
+        json.writeStartObject();
+        json.writeObjectFieldStart("index");
+        Film.writeString(json, "_id", line);
+        json.writeEndObject();
+        json.writeEndObject();
+        json.writeRaw('\n');
+
+        json.writeStartObject();
+        Film.addFilm(line, items, json, headers.films());
+        Rating.addRating(over(title.ratingLine()), json, headers.ratings());
+        Akas.addAkas(title.akasLines(), line, json, headers.akas());
+        Crew.addCrews(over(title.crewLine()), items, json, headers.crew(), nameBasics, entry);
+        Principals.addPrincipals(title.principalsLines(), line, json, headers.principals(), nameBasics, entry);
+        Episodes.addEpisodes(title.episodesLines(), line, json, headers.episodes());
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+
+    private void writeFromSnapshot(int row) throws IOException {
+        int tconst = snapshot.moveTo(row);
+
+        json.writeStartObject();
+        json.writeObjectFieldStart("index");
+        json.writeFieldName("_id");
+        Name.writeId(json, "tt", tconst);
+        json.writeEndObject();
+        json.writeEndObject();
+        json.writeRaw('\n');
+
+        json.writeStartObject();
+        Film.addFilm(snapshot, tconst, json, headers.films());
+        Rating.addRating(snapshot, json, headers.ratings());
+        Akas.addAkas(snapshot, json, headers.akas());
+        Crew.addCrews(snapshot, json, headers.crew(), nameBasics, entry);
+        Principals.addPrincipals(snapshot, json, headers.principals(), nameBasics, entry);
+        Episodes.addEpisodes(snapshot, json, headers.episodes());
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+
+    /**
+     * @return the cursor over the given line, or null if the title has no such line
+     */
+    private TsvCursor over(byte[] row) {
+        return row == null ? null : line.reset(row);
+    }
+
+    /**
+     * Lets a single generator write to a different buffer for every bulk
+     */
+    private static class RetargetableOutput extends OutputStream {
+        private OutputStream target;
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            target.write(bytes, offset, length);
+        }
+    }
+}
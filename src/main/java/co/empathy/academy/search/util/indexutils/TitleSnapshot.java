@@ -0,0 +1,567 @@
+package co.empathy.academy.search.util.indexutils;
+
+import co.empathy.academy.search.util.indexutils.SnapshotColumn.Kind;
+import co.empathy.academy.search.util.indexutils.TsvFileSeeker.TconstRange;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compact binary copy of the IMDb TSVs, so that indexing them again (after a mapping change, or into a new cluster)
+ * does not parse any text. It is converted once from the files and then read through memory mapped columns by
+ * {@link BatchReader#partitioned(TitleSnapshot, int, int)}; the documents built from it are byte for byte those built
+ * from the TSVs, so their fingerprints match too.
+ * <p>
+ * Every build writes a new version of the snapshot, a directory of its own inside the snapshot directory, and then
+ * switches {@code CURRENT}, a file naming the version jobs read, over to it. A version is never written again once
+ * it is complete, so a job (or a checkpoint) keeps reading the very version it started with. Older versions are
+ * deleted by the next build, which runs as a job on the films index, so no job can be reading them.
+ * <p>
+ * A version is a directory holding:
+ * <ul>
+ *     <li>{@code snapshot.json}: number of titles, headers of the TSVs, the files it was converted from and the
+ *     dictionaries of titleType, genres, region and language, whose values are stored as their position in them</li>
+ *     <li>{@code tconst}: the tconst number of every title as an int, in ascending order, so a tconst is found with
+ *     a binary search</li>
+ *     <li>a {@link SnapshotColumn} per field of the films, ratings and crew, with a value per title</li>
+ *     <li>{@code akas}, {@code principals} and {@code episodes}: the lines of every title packed one group after
+ *     the other, and {@code <group>.offsets}, where the group of every title starts (and the last one ends)</li>
+ *     <li>{@code ratings.bin}: the ratings, as the {@link RatingsSnapshot} documents are built with</li>
+ *     <li>{@code names.idx} and {@code names.dat}: the {@link NameDictionary} of name.basics the names of the crew
+ *     and principals are looked up in, so that name.basics can change or go away without changing the documents</li>
+ * </ul>
+ * Only what the documents are built from is kept: a new field of the TSVs needs a new snapshot.
+ */
+public class TitleSnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(TitleSnapshot.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int FORMAT = 2;
+    private static final String META = "snapshot.json";
+    private static final String CURRENT = "CURRENT";
+    private static final String VERSION = "version-";
+    private static final String RATINGS = "ratings.bin";
+    private static final String NAMES_INDEX = "names.idx";
+    private static final String NAMES_DATA = "names.dat";
+    private static final String OFFSETS = ".offsets";
+    private static final int BATCH_SIZE = 1000;
+
+    private final Path directory;
+    private final Meta meta;
+    private final ByteBuffer tconsts;
+
+    /**
+     * What a snapshot holds, besides its columns
+     * @param format      version of the layout, snapshots of any other are not read
+     * @param rows        number of titles
+     * @param files       files it was converted from
+     * @param nameHeaders header of name.basics, whose names are the field names of the people in the documents
+     */
+    public record Meta(int format, int rows, ImdbFiles files, BatchReader.Headers headers, List<String> nameHeaders,
+                       List<String> titleTypes, List<String> genres, List<String> regions, List<String> languages) {
+    }
+
+    private TitleSnapshot(Path directory, Meta meta, ByteBuffer tconsts) {
+        this.directory = directory;
+        this.meta = meta;
+        this.tconsts = tconsts;
+    }
+
+    /**
+     * @return true if there is a complete snapshot in the directory
+     */
+    public static boolean exists(Path directory) {
+        return Files.exists(directory.resolve(META));
+    }
+
+    /**
+     * Opens the version of the snapshot that {@code CURRENT} names
+     * @param directory snapshot directory, holding every version
+     */
+    public static TitleSnapshot current(Path directory) throws IOException {
+        var current = directory.resolve(CURRENT);
+        if (!Files.exists(current))
+            throw new IOException("No snapshot was built in " + directory);
+        return open(directory.resolve(Files.readString(current, StandardCharsets.UTF_8).strip()));
+    }
+
+    /**
+     * Opens a version of the snapshot
+     * @param directory directory of the version, as {@link #directory()} returns it
+     */
+    public static TitleSnapshot open(Path directory) throws IOException {
+        var meta = MAPPER.readValue(directory.resolve(META).toFile(), Meta.class);
+        if (meta.format() != FORMAT)
+            throw new IOException(directory + " has a snapshot of format " + meta.format() + ", expected " + FORMAT);
+
+        try (var channel = FileChannel.open(directory.resolve("tconst"), StandardOpenOption.READ)) {
+            return new TitleSnapshot(directory, meta, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return directory of the version that was opened, which keeps being this very one whatever is built later
+     */
+    public Path directory() {
+        return directory;
+    }
+
+    public int rows() {
+        return meta.rows();
+    }
+
+    public ImdbFiles files() {
+        return meta.files();
+    }
+
+    public BatchReader.Headers headers() {
+        return meta.headers();
+    }
+
+    /**
+     * @return the tconst number of the title in the given row
+     */
+    public int tconst(int row) {
+        return tconsts.getInt(row * Integer.BYTES);
+    }
+
+    /**
+     * @return the row of the first title whose tconst is not lower than the given one, or {@link #rows()} if none
+     */
+    public int rowOf(int tconst) {
+        int low = 0;
+        int high = rows();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tconst(middle) < tconst)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Splits the titles into, at most, the given number of tconst ranges with the same number of titles
+     */
+    public List<TconstRange> split(int partitions) {
+        List<TconstRange> ranges = new ArrayList<>(partitions);
+        int from = 0;
+
+        for (int i = 1; i < partitions; i++) {
+            int row = (int) ((long) rows() * i / partitions);
+            if (row == rows())
+                break;
+
+            int to = tconst(row);
+            if (to > from) {
+                ranges.add(new TconstRange(from, to));
+                from = to;
+            }
+        }
+
+        ranges.add(new TconstRange(from, Integer.MAX_VALUE));
+        return ranges;
+    }
+
+    /**
+     * @return the ratings the documents of the snapshot are built with
+     */
+    public RatingsSnapshot ratings() throws IOException {
+        return RatingsSnapshot.load(directory.resolve(RATINGS));
+    }
+
+    /**
+     * @return the names the documents of the snapshot are built with, from its own copy of the dictionary
+     */
+    public NameDictionary names() throws IOException {
+        return NameDictionary.open(directory.resolve(NAMES_INDEX), directory.resolve(NAMES_DATA), meta.nameHeaders());
+    }
+
+    /**
+     * @return size of every file of the snapshot, in name order, to notice if it is converted again before a job
+     * reading it is resumed
+     */
+    public List<Long> sizes() throws IOException {
+        List<Long> sizes = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (var file : files.sorted().toList())
+                sizes.add(Files.size(file));
+        }
+        return sizes;
+    }
+
+    /**
+     * @return cursors over every column, placed at the first title. Not thread safe: every worker needs its own
+     */
+    public Input input() throws IOException {
+        return new Input();
+    }
+
+    /**
+     * Converts the TSVs into a new version of the snapshot in a single pass of a {@link BatchReader} over them. The
+     * version is written aside and only moved into place once complete, and {@code CURRENT} is then replaced in a
+     * single atomic move, so an interrupted conversion leaves the previous version as the current one. Every other
+     * version is deleted afterwards: the caller must make sure no job is reading them.
+     * @param directory snapshot directory, holding every version
+     */
+    public static void build(ImdbFiles files, Path directory) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        var version = directory.resolve(VERSION + nextVersion(directory));
+        var temporary = Files.createTempDirectory(directory, "building.");
+        int rows = 0;
+        BatchReader.Headers headers;
+
+        try {
+            Episodes.prepare(files.episodes());
+            var names = NameDictionary.open(files.nameBasics());
+            try (var reader = new BatchReader(files, names, TconstRange.ALL, BATCH_SIZE);
+                 var out = new Output(temporary)) {
+                headers = reader.headers();
+                var line = TsvCursor.tabs();
+                var items = TsvCursor.commas();
+
+                while (!reader.hasFinished()) {
+                    for (var title : reader.readBatch()) {
+                        out.tconst.fixedInt(id(line.reset(title.filmLine()).field(0), "tt"));
+                        Film.encode(line, items, out);
+                        Rating.encode(title.ratingLine() == null ? null : line.reset(title.ratingLine()), out);
+                        Akas.encode(title.akasLines(), line, out);
+                        Crew.encode(title.crewLine() == null ? null : line.reset(title.crewLine()), items, out);
+                        Principals.encode(title.principalsLines(), line, out);
+                        Episodes.encode(title.episodesLines(), line, out);
+                        out.titleWritten();
+                        rows++;
+                    }
+                }
+
+                RatingsSnapshot.read(Path.of(files.ratings())).save(temporary.resolve(RATINGS));
+                names.save(temporary.resolve(NAMES_INDEX), temporary.resolve(NAMES_DATA));
+                MAPPER.writeValue(temporary.resolve(META).toFile(), new Meta(FORMAT, rows, files, headers,
+                        names.headers(), out.titleTypes.values(), out.genres.values(), out.regions.values(),
+                        out.languages.values()));
+            }
+
+            Files.move(temporary, version, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            delete(temporary);
+            throw e;
+        }
+
+        var current = directory.resolve(CURRENT);
+        var next = directory.resolve(CURRENT + ".next");
+        Files.writeString(next, version.getFileName().toString(), StandardCharsets.UTF_8);
+        Files.move(next, current, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        //Previous versions, conversions that were interrupted and snapshots written before there were versions
+        try (Stream<Path> others = Files.list(directory)) {
+            for (var other : others.filter(path -> !path.equals(current) && !path.equals(version)).toList()) {
+                if (Files.isDirectory(other))
+                    delete(other);
+                else
+                    Files.delete(other);
+            }
+        }
+
+        logger.info("Snapshot of {} titles written to {} in {} s", rows, version,
+                (System.nanoTime() - start) / 1_000_000_000);
+    }
+
+    /**
+     * @return number of the version following the last one in the directory
+     */
+    private static long nextVersion(Path directory) throws IOException {
+        long last = 0;
+        try (Stream<Path> versions = Files.list(directory)) {
+            for (var version : versions.map(path -> path.getFileName().toString()).toList()) {
+                if (!version.startsWith(VERSION))
+                    continue;
+                try {
+                    last = Math.max(last, Long.parseLong(version.substring(VERSION.length())));
+                } catch (NumberFormatException e) {
+                    //Not a version, deleted along with the rest once the new one is current
+                }
+            }
+        }
+        return last + 1;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory))
+            return;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (var file : files.toList())
+                Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Parses an IMDb id to be stored as its number, checking it is written the way it is written back (two letters
+     * and at least seven digits), so documents built from the snapshot have the very same ids.
+     * @return the number of the id, or -1 if it is \N
+     * @throws IOException if the id can't be written back as it is
+     */
+    static int id(TsvCursor field, String prefix) throws IOException {
+        if (field.isNull())
+            return -1;
+
+        byte[] bytes = field.bytes();
+        if (field.length() > 2 && bytes[field.start()] == prefix.charAt(0) && bytes[field.start() + 1] == prefix.charAt(1)) {
+            try {
+                int id = field.asId();
+                if (id >= 0 && field.length() == 2 + Math.max(Name.ID_DIGITS, Integer.toString(id).length()))
+                    return id;
+            } catch (NumberFormatException e) {
+                //Thrown below, with the rest of ids that can't be stored
+            }
+        }
+        throw new IOException("Id " + field.asString() + " can't be stored in a snapshot");
+    }
+
+    /**
+     * Values of a low cardinality field, numbered as they first appear. Lookups hash the bytes of the field in
+     * place, so encoding a value allocates nothing unless it is new.
+     */
+    static class Dictionary {
+        private final List<byte[]> values = new ArrayList<>();
+        private int[] table = new int[64];
+
+        /**
+         * @return number of the value of the field, adding it if it is new
+         */
+        int code(TsvCursor field) {
+            int hash = SymbolTable.hash(field.bytes(), field.start(), field.end());
+            int mask = table.length - 1;
+
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int code = table[slot] - 1;
+                if (code < 0)
+                    break;
+                byte[] value = values.get(code);
+                if (Arrays.equals(value, 0, value.length, field.bytes(), field.start(), field.end()))
+                    return code;
+            }
+
+            values.add(Arrays.copyOfRange(field.bytes(), field.start(), field.end()));
+            if (values.size() * 2 > table.length)
+                rehash(table.length * 2);
+            else
+                insert(values.size() - 1, hash);
+            return values.size() - 1;
+        }
+
+        List<String> values() {
+            return values.stream().map(value -> new String(value, StandardCharsets.UTF_8)).toList();
+        }
+
+        private void rehash(int size) {
+            table = new int[size];
+            for (int code = 0; code < values.size(); code++) {
+                byte[] value = values.get(code);
+                insert(code, SymbolTable.hash(value, 0, value.length));
+            }
+        }
+
+        private void insert(int code, int hash) {
+            int mask = table.length - 1;
+            int slot = hash & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = code + 1;
+        }
+
+    }
+
+    /**
+     * Writers of every column, and the dictionaries of the encoded fields, for the conversion
+     */
+    static class Output implements Closeable {
+        final SnapshotColumn.Writer tconst;
+        final SnapshotColumn.Writer titleType;
+        final SnapshotColumn.Writer primaryTitle;
+        final SnapshotColumn.Writer originalTitle;
+        final SnapshotColumn.Writer isAdult;
+        final SnapshotColumn.Writer startYear;
+        final SnapshotColumn.Writer endYear;
+        final SnapshotColumn.Writer runtimeMinutes;
+        final SnapshotColumn.Writer genreCodes;
+        final SnapshotColumn.Writer averageRating;
+        final SnapshotColumn.Writer numVotes;
+        final SnapshotColumn.Writer directors;
+        final SnapshotColumn.Writer akas;
+        final SnapshotColumn.Writer principals;
+        final SnapshotColumn.Writer episodes;
+        private final SnapshotColumn.Writer akasOffsets;
+        private final SnapshotColumn.Writer principalsOffsets;
+        private final SnapshotColumn.Writer episodesOffsets;
+        private final List<SnapshotColumn.Writer> writers = new ArrayList<>();
+        final Dictionary titleTypes = new Dictionary();
+        final Dictionary genres = new Dictionary();
+        final Dictionary regions = new Dictionary();
+        final Dictionary languages = new Dictionary();
+        private final Path directory;
+
+        private Output(Path directory) throws IOException {
+            this.directory = directory;
+            try {
+                tconst = writer("tconst", Kind.INT);
+                titleType = writer("titleType", Kind.VARINT);
+                primaryTitle = writer("primaryTitle", Kind.BYTES);
+                originalTitle = writer("originalTitle", Kind.BYTES);
+                isAdult = writer("isAdult", Kind.BYTE);
+                startYear = writer("startYear", Kind.VARINT);
+                endYear = writer("endYear", Kind.VARINT);
+                runtimeMinutes = writer("runtimeMinutes", Kind.VARINT);
+                genreCodes = writer("genres", Kind.VARINT_LIST);
+                averageRating = writer("averageRating", Kind.DOUBLE);
+                numVotes = writer("numVotes", Kind.VARINT);
+                directors = writer("directors", Kind.VARINT_LIST);
+                akas = writer("akas", Kind.GROUPS);
+                principals = writer("principals", Kind.GROUPS);
+                episodes = writer("episodes", Kind.GROUPS);
+                akasOffsets = writer("akas" + OFFSETS, Kind.LONG);
+                principalsOffsets = writer("principals" + OFFSETS, Kind.LONG);
+                episodesOffsets = writer("episodes" + OFFSETS, Kind.LONG);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+
+            //The first group starts at 0, and every title then records where its group ends
+            akasOffsets.fixedLong(0);
+            principalsOffsets.fixedLong(0);
+            episodesOffsets.fixedLong(0);
+        }
+
+        private SnapshotColumn.Writer writer(String name, Kind kind) throws IOException {
+            var writer = new SnapshotColumn.Writer(directory.resolve(name), kind);
+            writers.add(writer);
+            return writer;
+        }
+
+        private void titleWritten() throws IOException {
+            akasOffsets.fixedLong(akas.position());
+            principalsOffsets.fixedLong(principals.position());
+            episodesOffsets.fixedLong(episodes.position());
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (var writer : writers) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    /**
+     * Cursors over every column of the snapshot, and its decoded dictionaries. Titles are meant to be read in row
+     * order, which reads every column sequentially: moving anywhere else seeks every cursor.
+     */
+    public class Input {
+        final SnapshotColumn.Cursor titleType;
+        final SnapshotColumn.Cursor primaryTitle;
+        final SnapshotColumn.Cursor originalTitle;
+        final SnapshotColumn.Cursor isAdult;
+        final SnapshotColumn.Cursor startYear;
+        final SnapshotColumn.Cursor endYear;
+        final SnapshotColumn.Cursor runtimeMinutes;
+        final SnapshotColumn.Cursor genreCodes;
+        final SnapshotColumn.Cursor averageRating;
+        final SnapshotColumn.Cursor numVotes;
+        final SnapshotColumn.Cursor directors;
+        final SnapshotColumn.Cursor akas;
+        final SnapshotColumn.Cursor akasOffsets;
+        final SnapshotColumn.Cursor principals;
+        final SnapshotColumn.Cursor principalsOffsets;
+        final SnapshotColumn.Cursor episodes;
+        final SnapshotColumn.Cursor episodesOffsets;
+        final SerializedString[] titleTypes;
+        final SerializedString[] genres;
+        final SerializedString[] regions;
+        final SerializedString[] languages;
+        private final List<SnapshotColumn.Cursor> rowCursors;
+        private int nextRow = -1;
+
+        private Input() throws IOException {
+            titleType = cursor("titleType", Kind.VARINT);
+            primaryTitle = cursor("primaryTitle", Kind.BYTES);
+            originalTitle = cursor("originalTitle", Kind.BYTES);
+            isAdult = cursor("isAdult", Kind.BYTE);
+            startYear = cursor("startYear", Kind.VARINT);
+            endYear = cursor("endYear", Kind.VARINT);
+            runtimeMinutes = cursor("runtimeMinutes", Kind.VARINT);
+            genreCodes = cursor("genres", Kind.VARINT_LIST);
+            averageRating = cursor("averageRating", Kind.DOUBLE);
+            numVotes = cursor("numVotes", Kind.VARINT);
+            directors = cursor("directors", Kind.VARINT_LIST);
+            akas = cursor("akas", Kind.GROUPS);
+            akasOffsets = cursor("akas" + OFFSETS, Kind.LONG);
+            principals = cursor("principals", Kind.GROUPS);
+            principalsOffsets = cursor("principals" + OFFSETS, Kind.LONG);
+            episodes = cursor("episodes", Kind.GROUPS);
+            episodesOffsets = cursor("episodes" + OFFSETS, Kind.LONG);
+            rowCursors = List.of(titleType, primaryTitle, originalTitle, isAdult, startYear, endYear, runtimeMinutes,
+                    genreCodes, averageRating, numVotes, directors);
+
+            titleTypes = encoded(meta.titleTypes());
+            genres = encoded(meta.genres());
+            regions = encoded(meta.regions());
+            languages = encoded(meta.languages());
+        }
+
+        private SnapshotColumn.Cursor cursor(String name, Kind kind) throws IOException {
+            return SnapshotColumn.open(directory.resolve(name), kind).cursor();
+        }
+
+        private SerializedString[] encoded(List<String> values) {
+            return values.stream().map(SymbolTable::encoded).toArray(SerializedString[]::new);
+        }
+
+        /**
+         * Places every cursor at the given row, unless they already are
+         * @return the tconst number of the title
+         */
+        public int moveTo(int row) throws IOException {
+            if (row != nextRow) {
+                for (var cursor : rowCursors)
+                    cursor.seek(row);
+                seekGroup(akasOffsets, akas, row);
+                seekGroup(principalsOffsets, principals, row);
+                seekGroup(episodesOffsets, episodes, row);
+            }
+            nextRow = row + 1;
+            return tconst(row);
+        }
+
+        /**
+         * Places the group at the start of the given row. Its end, the next offset, is read along with the group
+         */
+        private void seekGroup(SnapshotColumn.Cursor offsets, SnapshotColumn.Cursor group, int row) throws IOException {
+            offsets.seek(row);
+            group.seekOffset(offsets.fixedLong());
+        }
+    }
+}
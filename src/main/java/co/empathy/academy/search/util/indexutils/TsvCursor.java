@@ -0,0 +1,224 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable cursor over the fields of a delimited byte slice, such as a TSV line or a comma separated list inside one
+ * of its fields. It never copies the bytes: fields are views over the slice and values are parsed in place, so a
+ * String is only allocated when {@link #asString()} is called to emit one.
+ * <p>
+ * A cursor is not thread safe. Each thread keeps its own and resets it for every line.
+ */
+public final class TsvCursor {
+    public static final byte TAB = '\t';
+    public static final byte COMMA = ',';
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final byte delimiter;
+    private byte[] bytes;
+    private int sliceStart;
+    private int sliceEnd;
+    private int fieldStart;
+    private int fieldEnd;
+    private int fieldIndex;
+
+    public TsvCursor(byte delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Cursor over the fields of a TSV line
+     */
+    public static TsvCursor tabs() {
+        return new TsvCursor(TAB);
+    }
+
+    /**
+     * Cursor over the items of a comma separated list, such as genres or directors
+     */
+    public static TsvCursor commas() {
+        return new TsvCursor(COMMA);
+    }
+
+    /**
+     * Points the cursor to a new slice. No field is selected until {@link #nextField()} or {@link #field(int)}.
+     */
+    public TsvCursor reset(byte[] bytes, int start, int end) {
+        this.bytes = bytes;
+        this.sliceStart = start;
+        this.sliceEnd = end;
+        this.fieldIndex = -1;
+        this.fieldStart = start;
+        this.fieldEnd = start - 1;
+        return this;
+    }
+
+    public TsvCursor reset(byte[] bytes) {
+        return reset(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Points the cursor to the items of the current field of another cursor
+     */
+    public TsvCursor reset(TsvCursor field) {
+        return reset(field.bytes, field.fieldStart, field.fieldEnd);
+    }
+
+    /**
+     * Moves to the next field.
+     * @return false if there are no more fields in the slice
+     */
+    public boolean nextField() {
+        if (fieldEnd >= sliceEnd)
+            return false;
+
+        fieldStart = fieldEnd + 1;
+        int i = fieldStart;
+        while (i < sliceEnd && bytes[i] != delimiter)
+            i++;
+        fieldEnd = i;
+        fieldIndex++;
+
+        return true;
+    }
+
+    /**
+     * Moves to the field with the given (0 based) index. Moving forward only scans the bytes in between, so mappers
+     * should ask for their fields in increasing order.
+     * @throws IllegalArgumentException if the slice doesn't have that many fields
+     */
+    public TsvCursor field(int index) {
+        if (index < fieldIndex)
+            reset(bytes, sliceStart, sliceEnd);
+
+        while (fieldIndex < index) {
+            if (!nextField())
+                throw new IllegalArgumentException("Line has only " + (fieldIndex + 1) + " fields, asked for " + index);
+        }
+
+        return this;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public int start() {
+        return fieldStart;
+    }
+
+    public int end() {
+        return fieldEnd;
+    }
+
+    public int length() {
+        return fieldEnd - fieldStart;
+    }
+
+    /**
+     * @return true if the field is the IMDb null value, \N
+     */
+    public boolean isNull() {
+        return length() == 2 && bytes[fieldStart] == '\\' && bytes[fieldStart + 1] == 'N';
+    }
+
+    public boolean isEmpty() {
+        return length() == 0;
+    }
+
+    public boolean asBool() {
+        return length() == 1 && bytes[fieldStart] == '1';
+    }
+
+    /**
+     * @return the field as an int, or 0 if it is \N
+     */
+    public int asInt() {
+        return isNull() ? 0 : parseInt(fieldStart);
+    }
+
+    /**
+     * @return the number of an IMDb id (tt0000042 -> 42, nm0000123 -> 123), skipping its two letter prefix
+     */
+    public int asId() {
+        return parseInt(fieldStart + 2);
+    }
+
+    /**
+     * Parses plain decimals such as ratings (7.5) without going through a String. Values that would not be exact
+     * with this method, such as exponents or too many digits, fall back to {@link Double#parseDouble(String)}.
+     * @return the field as a double, or 0 if it is \N
+     */
+    public double asDouble() {
+        if (isNull())
+            return 0;
+
+        int i = fieldStart;
+        boolean negative = i < fieldEnd && bytes[i] == '-';
+        if (negative)
+            i++;
+
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; i < fieldEnd; i++) {
+            byte b = bytes[i];
+            if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (b >= '0' && b <= '9' && digits < 18) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (decimals >= 0)
+                    decimals++;
+            } else {
+                return Double.parseDouble(asString());
+            }
+        }
+
+        if (digits == 0)
+            throw new NumberFormatException("Not a number: " + asString());
+
+        double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+
+    public String asString() {
+        return new String(bytes, fieldStart, length(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return true if the field has exactly the given ASCII content
+     */
+    public boolean contentEquals(String ascii) {
+        if (ascii.length() != length())
+            return false;
+
+        for (int i = 0; i < ascii.length(); i++) {
+            if (bytes[fieldStart + i] != ascii.charAt(i))
+                return false;
+        }
+
+        return true;
+    }
+
+    private int parseInt(int from) {
+        if (from >= fieldEnd)
+            throw new NumberFormatException("Not a number: " + asString());
+
+        int i = from;
+        boolean negative = bytes[i] == '-';
+        if (negative)
+            i++;
+
+        int value = 0;
+        for (; i < fieldEnd; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Not a number: " + asString());
+            value = value * 10 + digit;
+        }
+
+        return negative ? -value : value;
+    }
+}
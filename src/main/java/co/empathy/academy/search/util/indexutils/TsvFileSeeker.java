@@ -0,0 +1,145 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds byte offsets inside IMDb TSVs sorted by tconst, so they can be read from any title on without scanning the
+ * lines before it. Every lookup is a binary search over the bytes of the file: jump to the middle, move forward to
+ * the next line boundary and compare its tconst.
+ * <p>
+ * Gzipped files cannot be jumped into, so they are neither searched nor split.
+ */
+public class TsvFileSeeker {
+    private static final int CHUNK = 4096;
+
+    private TsvFileSeeker() {}
+
+    /**
+     * @return the byte offset of the first line whose tconst is greater or equal than the given one, or the size of
+     * the file if there is none
+     */
+    public static long offsetOf(Path file, int tconst) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long low = dataStart(channel);
+            long high = size;
+
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                long line = lineStartFrom(channel, middle, size);
+
+                if (line == size || keyAt(channel, line) >= tconst)
+                    high = middle;
+                else
+                    low = middle + 1;
+            }
+
+            return lineStartFrom(channel, low, size);
+        }
+    }
+
+    /**
+     * Splits the tconst key space of a file into, at most, the given number of contiguous ranges holding about the
+     * same number of bytes. The first range starts at 0 and the last one has no upper limit. A gzipped file is never
+     * split: every range would have to inflate it from its first byte, so it is read whole by a single partition.
+     */
+    public static List<TconstRange> split(Path file, int partitions) throws IOException {
+        if (TsvInputs.isGzipped(file))
+            return List.of(TconstRange.ALL);
+
+        List<TconstRange> ranges = new ArrayList<>(partitions);
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = dataStart(channel);
+            int from = 0;
+
+            for (int i = 1; i < partitions; i++) {
+                long line = lineStartFrom(channel, start + (size - start) * i / partitions, size);
+                if (line == size)
+                    break;
+
+                int to = keyAt(channel, line);
+                if (to > from) {
+                    ranges.add(new TconstRange(from, to));
+                    from = to;
+                }
+            }
+
+            ranges.add(new TconstRange(from, Integer.MAX_VALUE));
+        }
+
+        return ranges;
+    }
+
+    /**
+     * @return the offset right after the header line
+     */
+    private static long dataStart(FileChannel channel) throws IOException {
+        return lineStartFrom(channel, 1, channel.size());
+    }
+
+    /**
+     * @return the first offset, greater or equal than the given one, where a line starts
+     */
+    private static long lineStartFrom(FileChannel channel, long position, long size) throws IOException {
+        if (position >= size)
+            return size;
+
+        //A line starts at the position if the previous byte is a line break
+        long current = position - 1;
+        var buffer = ByteBuffer.allocate(CHUNK);
+
+        while (current < size) {
+            buffer.clear();
+            int read = channel.read(buffer, current);
+            if (read <= 0)
+                return size;
+
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n')
+                    return current + i + 1;
+            }
+            current += read;
+        }
+
+        return size;
+    }
+
+    /**
+     * @return the number of the tconst (tt0000042 -> 42) of the line starting at the given offset
+     */
+    private static int keyAt(FileChannel channel, long lineStart) throws IOException {
+        var buffer = ByteBuffer.allocate(32);
+        int read = channel.read(buffer, lineStart);
+
+        int key = 0;
+        //Skips the "tt" prefix
+        for (int i = 2; i < read; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9')
+                break;
+            key = key * 10 + (b - '0');
+        }
+
+        return key;
+    }
+
+    /**
+     * Half open range of tconst numbers, [from, to).
+     */
+    public record TconstRange(int from, int to) {
+
+        public static final TconstRange ALL = new TconstRange(0, Integer.MAX_VALUE);
+
+        public boolean contains(int tconst) {
+            return tconst >= from && tconst < to;
+        }
+    }
+}
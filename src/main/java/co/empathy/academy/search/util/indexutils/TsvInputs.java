@@ -0,0 +1,106 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Opens the IMDb TSVs whether they are plain files or the gzipped dumps IMDb publishes (*.tsv.gz), so ingests can run
+ * straight from the downloaded archives. Gzipped files are inflated on a thread of their own by an
+ * {@link InflatingInputStream}.
+ * <p>
+ * Offsets are always offsets in the decompressed contents. A plain file is opened at one with a seek, found with a
+ * binary search through {@link TsvFileSeeker}, while a gzipped one has to be inflated up to it. That is why gzipped
+ * files are read whole by a single partition, and resuming one inflates again everything before its checkpoint.
+ */
+public class TsvInputs {
+
+    private TsvInputs() {}
+
+    public static boolean isGzipped(Path file) {
+        return file.getFileName().toString().endsWith(".gz");
+    }
+
+    /**
+     * @return the decompressed contents of the file, from its beginning
+     */
+    public static InputStream open(Path file) throws IOException {
+        return isGzipped(file) ? new InflatingInputStream(file) : Files.newInputStream(file);
+    }
+
+    /**
+     * @return the size of the decompressed contents of the file. For a gzipped one it is estimated from the size
+     * its trailer records, which is only kept modulo 4 GiB: it is taken as the smallest such size not below the
+     * compressed one, right for the dumps IMDb publishes but a guess for anything compressed more than that
+     */
+    public static long size(Path file) throws IOException {
+        if (!isGzipped(file))
+            return Files.size(file);
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long compressed = channel.size();
+            if (compressed < 4)
+                return 0;
+
+            var trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(trailer, compressed - 4);
+            long size = Integer.toUnsignedLong(trailer.getInt(0));
+            while (size < compressed)
+                size += 1L << 32;
+            return size;
+        }
+    }
+
+    public static BufferedReader reader(Path file) throws IOException {
+        return new BufferedReader(new InputStreamReader(open(file), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * Opens a file at the given offset, which must be the start of a line
+     */
+    public static TsvLineReader openAt(Path file, long offset) throws IOException {
+        var input = open(file);
+        try {
+            input.skipNBytes(offset);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+        return new TsvLineReader(input, offset);
+    }
+
+    /**
+     * Opens a file at its first line whose tconst is greater or equal than the given one, past the header
+     */
+    public static TsvLineReader openFrom(Path file, int tconst) throws IOException {
+        if (!isGzipped(file))
+            return openAt(file, TsvFileSeeker.offsetOf(file, tconst));
+
+        //No seeking into a gzip stream: lines are inflated and skipped until the tconst is reached
+        var reader = new TsvLineReader(open(file));
+        var cursor = TsvCursor.tabs();
+        try {
+            if (!reader.next())
+                return reader;
+
+            while (reader.next()) {
+                if (cursor.reset(reader.bytes(), reader.start(), reader.end()).field(0).asId() >= tconst) {
+                    reader.pushBack();
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+        return reader;
+    }
+}
@@ -0,0 +1,142 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads lines as slices of a reusable byte buffer instead of Strings. A slice is only valid until the next call to
+ * {@link #next()}: whoever needs to keep a line must {@link #copy()} it.
+ */
+public class TsvLineReader implements Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final InputStream input;
+    private byte[] buffer;
+    private int limit;
+    private int lineStart;
+    private int lineEnd;
+    private int nextStart;
+    private long bufferPosition;
+    private boolean endOfInput;
+    private boolean pushedBack;
+
+    /**
+     * @param input    stream to read from
+     * @param position offset of the stream in the file, so {@link #position()} reports offsets in the file
+     */
+    public TsvLineReader(InputStream input, long position) {
+        this(input, position, DEFAULT_BUFFER_SIZE);
+    }
+
+    TsvLineReader(InputStream input, long position, int bufferSize) {
+        this.input = input;
+        this.buffer = new byte[bufferSize];
+        this.bufferPosition = position;
+    }
+
+    public TsvLineReader(InputStream input) {
+        this(input, 0);
+    }
+
+    /**
+     * Moves to the next line, dropping its line break (and the carriage return, if any).
+     * @return false if there are no more lines
+     */
+    public boolean next() throws IOException {
+        if (pushedBack) {
+            pushedBack = false;
+            return true;
+        }
+
+        int i = nextStart;
+        while (true) {
+            while (i < limit && buffer[i] != '\n')
+                i++;
+
+            if (i < limit)
+                break;
+
+            if (endOfInput) {
+                if (nextStart == limit)
+                    return false;
+                break; //Last line without a line break
+            }
+
+            i -= nextStart;
+            fill();
+        }
+
+        lineStart = nextStart;
+        lineEnd = i > lineStart && buffer[i - 1] == '\r' ? i - 1 : i;
+        nextStart = Math.min(i + 1, limit);
+
+        return true;
+    }
+
+    /**
+     * Makes the next call to {@link #next()} return the current line again, without reading it twice.
+     */
+    public void pushBack() {
+        this.pushedBack = true;
+    }
+
+    public byte[] bytes() {
+        return buffer;
+    }
+
+    public int start() {
+        return lineStart;
+    }
+
+    public int end() {
+        return lineEnd;
+    }
+
+    /**
+     * @return a copy of the current line
+     */
+    public byte[] copy() {
+        return Arrays.copyOfRange(buffer, lineStart, lineEnd);
+    }
+
+    /**
+     * @return offset in the file of the current line
+     */
+    public long lineOffset() {
+        return bufferPosition + lineStart;
+    }
+
+    /**
+     * @return offset in the file of the first byte that has not been returned as part of a line yet
+     */
+    public long position() {
+        return bufferPosition + (pushedBack ? lineStart : nextStart);
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer (growing it if a single line doesn't fit) and reads more.
+     */
+    private void fill() throws IOException {
+        int pending = limit - nextStart;
+
+        if (pending == buffer.length)
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+        System.arraycopy(buffer, nextStart, buffer, 0, pending);
+        bufferPosition += nextStart;
+        limit = pending;
+        nextStart = 0;
+
+        int read = input.readNBytes(buffer, limit, buffer.length - limit);
+        limit += read;
+        if (limit < buffer.length)
+            endOfInput = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
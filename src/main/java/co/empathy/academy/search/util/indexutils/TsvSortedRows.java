@@ -0,0 +1,62 @@
+package co.empathy.academy.search.util.indexutils;
+
+import java.io.IOException;
+
+/**
+ * Lines of a TSV whose first field is an IMDb id, read in order. The key of the upcoming line is parsed once, when
+ * the line is read, and lines are never read twice.
+ */
+public class TsvSortedRows implements SortedRows {
+    private final String name;
+    private final TsvLineReader reader;
+    private final TsvCursor cursor = TsvCursor.tabs();
+    private int nextKey;
+
+    /**
+     * @param name   name of the input, for error messages
+     * @param reader reader placed at the first line to join (past the header)
+     */
+    public TsvSortedRows(String name, TsvLineReader reader) throws IOException {
+        this.name = name;
+        this.reader = reader;
+        this.nextKey = -1;
+        advance();
+    }
+
+    @Override
+    public int peekKey() {
+        return nextKey;
+    }
+
+    /**
+     * @return offset in the file of the upcoming line, where reading would have to start again to get the same rows
+     */
+    public long position() {
+        return nextKey == EXHAUSTED ? reader.position() : reader.lineOffset();
+    }
+
+    @Override
+    public byte[] take() throws IOException {
+        byte[] row = reader.copy();
+        advance();
+        return row;
+    }
+
+    private void advance() throws IOException {
+        if (!reader.next()) {
+            nextKey = EXHAUSTED;
+            return;
+        }
+
+        int key = cursor.reset(reader.bytes(), reader.start(), reader.end()).field(0).asId();
+        if (key < nextKey)
+            throw new IOException(name + " is not sorted: " + cursor.asString() + " comes after id " + nextKey);
+
+        nextKey = key;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
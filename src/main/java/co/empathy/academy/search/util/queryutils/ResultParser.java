@@ -1,88 +1,367 @@
 package co.empathy.academy.search.util.queryutils;
 
-import co.elastic.clients.elasticsearch.core.SearchResponse;
-import co.elastic.clients.elasticsearch.core.search.Hit;
-import co.elastic.clients.json.JsonData;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import jakarta.json.Json;
-import jakarta.json.JsonArrayBuilder;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import co.empathy.academy.search.exception.InternalServerException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Optional;
 
+/**
+ * Builds the responses of the API out of the bytes of the search responses, as Elasticsearch wrote them. The response
+ * is only tokenized to find where every value the API returns starts and ends, and those ranges are copied as they
+ * are into the small envelope around them: sources are never deserialized, nor are ids, scores or bucket keys
+ * decoded, so the cost of a response grows with its bytes and not with the number of values in its documents.
+ */
 public class ResultParser {
 
-    private static JsonArrayBuilder parseHits(SearchResponse<JsonData> response) {
-        var hitsResult = Json.createArrayBuilder();
-        response.hits().hits().stream()
-                .filter(x -> x.source() != null)
-                .map(x -> Json.createObjectBuilder()
-                        .add("id", x.id())
-                        .add("source", x.source().toJson())
-                        .add("score", x.score())
-                        .build()).toList().forEach(hitsResult::add);
-
-        return hitsResult;
-    }
-
-    private static JsonArrayBuilder parseAggregations(String aggField, SearchResponse<JsonData> response) {
-        String aggName = aggField + "_agg";
-        var list = response.aggregations().get(aggName).sterms().buckets().array();
+    /**
+     * Names of the suggesters asked for along with every search, to answer those that find nothing
+     */
+    public static final String TERM_SUGGESTION = "spellcheck";
+    public static final String PHRASE_SUGGESTION = "phrase";
 
-        var buckets = list.stream()
-                .map(x -> Json.createObjectBuilder().add("key", x.key()).add("doc_count", x.docCount()).build());
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
 
-        var result = Json.createArrayBuilder();
+    private static final byte[] HITS = ascii("{\"hits\":[");
+    private static final byte[] AGGS = ascii("],\"aggs\":[");
+    private static final byte[] ID = ascii("{\"id\":");
+    private static final byte[] SOURCE = ascii(",\"source\":");
+    private static final byte[] SCORE = ascii(",\"score\":");
+    private static final byte[] KEY = ascii("{\"key\":");
+    private static final byte[] DOC_COUNT = ascii(",\"doc_count\":");
+    private static final byte[] NO_HITS = ascii("{\"hits\":[],\"aggs\":[],\"term-suggestions\":[");
+    private static final byte[] PHRASE_SUGGESTIONS = ascii("],\"phrase-suggestions\":[");
+    private static final byte[] OPTION_SCORE = ascii("{\"score\":");
+    private static final byte[] FREQ = ascii(",\"freq\":");
+    private static final byte[] TEXT = ascii(",\"text\":");
+    private static final byte[] NULL = ascii("null");
 
-        buckets.forEach(result::add);
+    private ResultParser() {}
 
-        return result;
+    /**
+     * Response of the term, terms and multimatch queries: the sources of the hits
+     *
+     * @param response search response, as Elasticsearch wrote it
+     * @return a json array with the sources
+     */
+    public static byte[] getResults(byte[] response) {
+        var parsed = Response.parse(response, null);
+        var out = new ByteArrayOutputStream(response.length);
+        out.write('[');
+        for (int i = 0; i < parsed.hits.count(); i += Response.HIT) {
+            if (i > 0)
+                out.write(',');
+            parsed.copy(out, parsed.hits, i + 1);
+        }
+        out.write(']');
+        return out.toByteArray();
     }
 
-    private static String parseSuggestions(String suggField, SearchResponse<JsonData> response) {
-        String suggName = suggField;
-        var list = response.suggest().get(suggName).stream().toList();
-        var result = Json.createArrayBuilder();
+    /**
+     * Response of the searches: every hit as its id, its source and its score, and the buckets of the aggregation
+     * if one was asked for. A search that found nothing but came with suggestions is answered with them instead.
+     *
+     * @param aggFieldOpt field of the aggregation, named after it with _agg
+     * @param response    search response, as Elasticsearch wrote it
+     */
+    public static byte[] getResultsAsBytes(Optional<String> aggFieldOpt, byte[] response) {
+        var parsed = Response.parse(response, aggFieldOpt.map(agg -> agg + "_agg").orElse(null));
+        if (parsed.found == 0 && parsed.suggested)
+            return getSuggestions(parsed);
+        var out = new ByteArrayOutputStream(response.length);
+
+        out.writeBytes(HITS);
+        for (int i = 0; i < parsed.hits.count(); i += Response.HIT) {
+            if (i > 0)
+                out.write(',');
+            out.writeBytes(ID);
+            parsed.copy(out, parsed.hits, i);
+            out.writeBytes(SOURCE);
+            parsed.copy(out, parsed.hits, i + 1);
+            out.writeBytes(SCORE);
+            parsed.copy(out, parsed.hits, i + 2);
+            out.write('}');
+        }
+
+        if (aggFieldOpt.isEmpty()) {
+            out.write(']');
+        } else {
+            out.writeBytes(AGGS);
+            for (int i = 0; i < parsed.buckets.count(); i += Response.BUCKET) {
+                if (i > 0)
+                    out.write(',');
+                out.writeBytes(KEY);
+                parsed.copy(out, parsed.buckets, i);
+                out.writeBytes(DOC_COUNT);
+                parsed.copy(out, parsed.buckets, i + 1);
+                out.write('}');
+            }
+            out.write(']');
+        }
+        out.write('}');
+        return out.toByteArray();
+    }
 
-        list.forEach(suggResult -> result.add(suggResult._get().toString()));
+    /**
+     * Response of a search that found nothing, out of the suggestions that came with it: the options for the first
+     * term of the text and for the whole phrase
+     */
+    private static byte[] getSuggestions(Response parsed) {
+        var out = new ByteArrayOutputStream(256);
 
-        return result.build().toString();
+        out.writeBytes(NO_HITS);
+        for (int i = 0; i < parsed.termOptions.count(); i += Response.TERM_OPTION) {
+            if (i > 0)
+                out.write(',');
+            out.writeBytes(OPTION_SCORE);
+            parsed.copy(out, parsed.termOptions, i);
+            out.writeBytes(FREQ);
+            parsed.copy(out, parsed.termOptions, i + 1);
+            out.writeBytes(TEXT);
+            parsed.copy(out, parsed.termOptions, i + 2);
+            out.write('}');
+        }
+        out.writeBytes(PHRASE_SUGGESTIONS);
+        for (int i = 0; i < parsed.phraseOptions.count(); i += Response.PHRASE_OPTION) {
+            if (i > 0)
+                out.write(',');
+            out.writeBytes(OPTION_SCORE);
+            parsed.copy(out, parsed.phraseOptions, i);
+            out.writeBytes(TEXT);
+            parsed.copy(out, parsed.phraseOptions, i + 1);
+            out.write('}');
+        }
+        out.write(']');
+        out.write('}');
+        return out.toByteArray();
     }
 
     /**
-     * Private method that manages response for the term, terms and multimatch queries
-     *
-     * @param response
-     * @return a json with the response
+     * Where the values of a search response the API returns start and end
      */
-    public static List<Map<String, Object>> getResults(SearchResponse<JsonData> response) {
-        ObjectMapper mapper = new ObjectMapper();
-        List<Map<String, Object>> result = new ArrayList<>();
-
-        for (Hit<JsonData> h : response.hits().hits()) {
-            Map<String, Object> m = null;
-            try {
-                m = mapper.readValue(h.source().toString(), Map.class);
-            } catch (JsonProcessingException e) {
-                e.printStackTrace();
+    private static final class Response {
+        //Ranges per hit (id, source, score), bucket (key, doc_count), term option (score, freq, text) and phrase
+        //option (score, text)
+        static final int HIT = 3;
+        static final int BUCKET = 2;
+        static final int TERM_OPTION = 3;
+        static final int PHRASE_OPTION = 2;
+
+        final byte[] bytes;
+        final Ranges hits = new Ranges();
+        final Ranges buckets = new Ranges();
+        final Ranges termOptions = new Ranges();
+        final Ranges phraseOptions = new Ranges();
+        int found;
+        boolean suggested;
+
+        private Response(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * @param aggregation name of the aggregation whose buckets are wanted, or null
+         */
+        static Response parse(byte[] bytes, String aggregation) {
+            var response = new Response(bytes);
+            try (var parser = JSON_FACTORY.createParser(bytes)) {
+                if (parser.nextToken() != JsonToken.START_OBJECT)
+                    throw new IOException("Search response is not a json object");
+
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    switch (name) {
+                        case "hits" -> response.readHits(parser);
+                        case "aggregations" -> response.readAggregations(parser, aggregation);
+                        case "suggest" -> {
+                            response.suggested = true;
+                            response.readSuggestions(parser);
+                        }
+                        default -> parser.skipChildren();
+                    }
+                }
+            } catch (IOException e) {
+                throw new InternalServerException(e);
+            }
+            return response;
+        }
+
+        private void readHits(JsonParser parser) throws IOException {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                boolean list = parser.getCurrentName().equals("hits");
+                if (parser.nextToken() != JsonToken.START_ARRAY || !list) {
+                    parser.skipChildren();
+                    continue;
+                }
+
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    found++;
+                    long id = -1;
+                    long source = -1;
+                    long score = -1;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = parser.getCurrentName();
+                        parser.nextToken();
+                        switch (name) {
+                            case "_id" -> id = range(parser);
+                            case "_source" -> source = range(parser);
+                            case "_score" -> score = range(parser);
+                            default -> parser.skipChildren();
+                        }
+                    }
+                    //Hits without a source, such as those of a search that asks for none, are left out
+                    if (source != -1) {
+                        hits.add(id);
+                        hits.add(source);
+                        hits.add(score);
+                    }
+                }
+            }
+        }
+
+        private void readAggregations(JsonParser parser, String aggregation) throws IOException {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                //Named with their type first, as in sterms#genres_agg, as the clients ask for typed keys
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (aggregation == null || !(name.equals(aggregation) || name.endsWith("#" + aggregation))) {
+                    parser.skipChildren();
+                    continue;
+                }
+
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    boolean list = parser.getCurrentName().equals("buckets");
+                    if (parser.nextToken() != JsonToken.START_ARRAY || !list) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    while (parser.nextToken() == JsonToken.START_OBJECT)
+                        readFields(parser, buckets, "key", "doc_count");
+                }
+            }
+        }
+
+        private void readSuggestions(JsonParser parser) throws IOException {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (name.equals(TERM_SUGGESTION) || name.endsWith("#" + TERM_SUGGESTION))
+                    readFirstEntry(parser, termOptions, "score", "freq", "text");
+                else if (name.equals(PHRASE_SUGGESTION) || name.endsWith("#" + PHRASE_SUGGESTION))
+                    readFirstEntry(parser, phraseOptions, "score", "text");
+                else
+                    parser.skipChildren();
+            }
+        }
+
+        /**
+         * Reads the options of the first entry of a suggestion, the one of its first term, and skips the rest
+         */
+        private void readFirstEntry(JsonParser parser, Ranges options, String... fields) throws IOException {
+            boolean first = true;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                if (!first) {
+                    parser.skipChildren();
+                    continue;
+                }
+                first = false;
+
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    boolean list = parser.getCurrentName().equals("options");
+                    if (parser.nextToken() != JsonToken.START_ARRAY || !list) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    while (parser.nextToken() == JsonToken.START_OBJECT)
+                        readFields(parser, options, fields);
+                }
+            }
+        }
+
+        /**
+         * Reads the ranges of the given fields of an object, in their order, whatever the order they come in
+         */
+        private static void readFields(JsonParser parser, Ranges ranges, String... fields) throws IOException {
+            long[] found = new long[fields.length];
+            Arrays.fill(found, -1);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                int field = indexOf(fields, parser.getCurrentName());
+                parser.nextToken();
+                if (field < 0)
+                    parser.skipChildren();
+                else
+                    found[field] = range(parser);
+            }
+            for (long range : found)
+                ranges.add(range);
+        }
+
+        private static int indexOf(String[] fields, String name) {
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].equals(name))
+                    return i;
             }
+            return -1;
+        }
 
-            result.add(m);
+        /**
+         * @return start and end of the value the parser is on, packed in a long, leaving the parser at its end
+         */
+        private static long range(JsonParser parser) throws IOException {
+            long start = parser.getTokenLocation().getByteOffset();
+            if (parser.currentToken().isStructStart())
+                parser.skipChildren();
+            else
+                //Strings are only read up to their end when asked for
+                parser.finishToken();
+            long end = parser.getCurrentLocation().getByteOffset();
+            return start << 32 | end;
         }
 
-        return result;
+        /**
+         * Copies a value as it is in the response, or null if it was not there
+         */
+        void copy(ByteArrayOutputStream out, Ranges ranges, int i) {
+            long range = ranges.get(i);
+            if (range == -1) {
+                out.writeBytes(NULL);
+                return;
+            }
+            int start = (int) (range >>> 32);
+            int end = (int) range;
+            out.write(bytes, start, end - start);
+        }
     }
 
-    public static String getResultsAsString(Optional<String> aggFieldOpt,
-                                     SearchResponse<JsonData> response) {
-        var builder = Json.createObjectBuilder();
-        builder.add("hits", parseHits(response));
-        aggFieldOpt.ifPresent(agg -> builder.add("aggs", parseAggregations(agg, response)));
+    /**
+     * Growable list of packed ranges
+     */
+    private static final class Ranges {
+        private long[] ranges = new long[48];
+        private int count;
+
+        void add(long range) {
+            if (count == ranges.length)
+                ranges = Arrays.copyOf(ranges, count * 2);
+            ranges[count++] = range;
+        }
 
-        return builder.build().toString();
+        long get(int i) {
+            return ranges[i];
+        }
+
+        int count() {
+            return count;
+        }
+    }
 
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
     }
 }
@@ -0,0 +1,203 @@
+package co.empathy.academy.search.util.queryutils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+/**
+ * Serialized responses of the searches, as the bytes written to the client, kept in memory so the most popular ones
+ * are answered without a request to Elasticsearch. It is bounded in entries, in the bytes of their responses (past
+ * either limit the least recently used ones are evicted first) and in time, and every entry is dropped at once by
+ * {@link #invalidate()} when the documents behind the films alias change. Responses larger than a limit of their own
+ * are never kept, so a few huge pages cannot push out everything else.
+ * <p>
+ * A search that was sent before an invalidation may be answered after it: {@link #put} is given the generation
+ * read before sending it, and its response is not kept if the generation has changed since.
+ * <p>
+ * Meters, published through the actuator: search.cache.hits, search.cache.misses, search.cache.evictions (tagged
+ * with the cause: size, expired or invalidated), search.cache.size and search.cache.bytes.
+ */
+public class SearchCache {
+    private static final int DEFAULT_SIZE = 10;
+
+    /**
+     * Parameters of a search, normalized so those that ask for the same documents are the same key: text trimmed,
+     * filters and fields sorted and without repetitions, the default page made explicit and ratings compared as
+     * numbers.
+     */
+    public record Key(String q, List<String> type, List<String> genre, String gte, String director, String agg,
+                      int from, int size, List<String> fields) {
+
+        public static Key of(String q, Optional<List<String>> type, Optional<List<String>> genre, Optional<String> gte,
+                             Optional<String> director, Optional<String> agg, Optional<Integer> from,
+                             Optional<Integer> size, Optional<List<String>> fields) {
+            return new Key(q.strip(),
+                    type.map(Key::normalize).orElse(null),
+                    genre.map(Key::normalize).orElse(null),
+                    gte.map(Key::number).orElse(null),
+                    director.map(String::strip).orElse(null),
+                    agg.map(String::strip).orElse(null),
+                    from.orElse(0),
+                    size.orElse(DEFAULT_SIZE),
+                    fields.map(Key::normalize).orElse(null));
+        }
+
+        private static List<String> normalize(List<String> values) {
+            return values.stream().map(String::strip).distinct().sorted().toList();
+        }
+
+        private static String number(String value) {
+            try {
+                return new BigDecimal(value.strip()).stripTrailingZeros().toPlainString();
+            } catch (NumberFormatException e) {
+                //Left for Elasticsearch to refuse
+                return value;
+            }
+        }
+    }
+
+    private record Entry(byte[] response, long expiresAt) {}
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    //Ordered by access, so the eldest entry is the least recently used one
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long generation;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter sizeEvictions;
+    private final Counter expiredEvictions;
+    private final Counter invalidatedEvictions;
+
+    /**
+     * @param maxEntries    responses kept at most, or 0 for no cache at all
+     * @param maxBytes      bytes of the responses kept at most
+     * @param maxEntryBytes bytes of the largest response that is kept
+     * @param ttl           time a response is kept for, at most
+     */
+    public SearchCache(int maxEntries, long maxBytes, int maxEntryBytes, Duration ttl, MeterRegistry registry) {
+        this(maxEntries, maxBytes, maxEntryBytes, ttl, registry, System::nanoTime);
+    }
+
+    SearchCache(int maxEntries, long maxBytes, int maxEntryBytes, Duration ttl, MeterRegistry registry,
+                LongSupplier clock) {
+        this.maxEntries = ttl.isZero() || ttl.isNegative() || maxBytes <= 0 ? 0 : Math.max(maxEntries, 0);
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = (int) Math.min(maxEntryBytes, maxBytes);
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+
+        this.hits = Counter.builder("search.cache.hits")
+                .description("Searches answered from the cache")
+                .register(registry);
+        this.misses = Counter.builder("search.cache.misses")
+                .description("Searches sent to Elasticsearch because their response was not cached")
+                .register(registry);
+        this.sizeEvictions = evictions(registry, "size");
+        this.expiredEvictions = evictions(registry, "expired");
+        this.invalidatedEvictions = evictions(registry, "invalidated");
+        Gauge.builder("search.cache.size", this, SearchCache::size)
+                .description("Responses in the cache")
+                .register(registry);
+        Gauge.builder("search.cache.bytes", this, SearchCache::bytes)
+                .description("Bytes of the responses in the cache")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * @return the generation to give {@link #put} for a search about to be sent
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * @return the cached response of the search, or null if it has to be sent
+     */
+    public byte[] get(Key key) {
+        if (maxEntries == 0)
+            return null;
+
+        synchronized (this) {
+            var entry = entries.get(key);
+            if (entry != null && entry.expiresAt() - clock.getAsLong() <= 0) {
+                entries.remove(key);
+                bytes -= entry.response().length;
+                expiredEvictions.increment();
+                entry = null;
+            }
+
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.response();
+        }
+    }
+
+    /**
+     * Keeps the response of a search, unless it is too large or the cache was invalidated since it was sent. The least
+     * recently used responses are evicted until the cache is back within its limits.
+     * @param generation read by {@link #generation()} before sending the search
+     */
+    public void put(Key key, long generation, byte[] response) {
+        if (maxEntries == 0 || response.length > maxEntryBytes)
+            return;
+
+        synchronized (this) {
+            if (generation != this.generation)
+                return;
+
+            var replaced = entries.put(key, new Entry(response, clock.getAsLong() + ttlNanos));
+            bytes += response.length - (replaced != null ? replaced.response().length : 0);
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries || bytes > maxBytes) {
+                bytes -= eldest.next().response().length;
+                eldest.remove();
+                sizeEvictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Drops every response, as they may no longer be what Elasticsearch would answer
+     */
+    public synchronized void invalidate() {
+        generation++;
+        invalidatedEvictions.increment(entries.size());
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private static Counter evictions(MeterRegistry registry, String cause) {
+        return Counter.builder("search.cache.evictions")
+                .description("Responses dropped from the cache")
+                .tag("cause", cause)
+                .register(registry);
+    }
+}
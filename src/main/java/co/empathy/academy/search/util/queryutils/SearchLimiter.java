@@ -0,0 +1,61 @@
+package co.empathy.academy.search.util.queryutils;
+
+import co.empathy.academy.search.exception.TooManySearchesException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Bound on the searches waiting for Elasticsearch at once. Searches do not hold a thread while they wait, so nothing
+ * else would stop a slow cluster from piling up requests, and their connections and responses, without limit. Past
+ * the bound a search is refused straight away with a {@link TooManySearchesException}, which the client can retry.
+ * <p>
+ * Meters, published through the actuator: search.in-flight and search.rejections.
+ */
+public class SearchLimiter {
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final Counter rejections;
+
+    public SearchLimiter(int maxInFlight, MeterRegistry registry) {
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.rejections = Counter.builder("search.rejections")
+                .description("Searches refused because too many were waiting for Elasticsearch")
+                .register(registry);
+        Gauge.builder("search.in-flight", this, SearchLimiter::inFlight)
+                .description("Searches waiting for Elasticsearch")
+                .register(registry);
+    }
+
+    /**
+     * Starts a search if there is room for it. Its permit is given back when it completes, however it does
+     * @param search starts the search
+     * @return the search, or a future failed with a {@link TooManySearchesException} if it was not started
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> search) {
+        if (!permits.tryAcquire()) {
+            rejections.increment();
+            return CompletableFuture.failedFuture(new TooManySearchesException(maxInFlight,
+                    new RejectedExecutionException(maxInFlight + " searches in flight")));
+        }
+
+        CompletableFuture<T> future;
+        try {
+            future = search.get();
+        } catch (RuntimeException e) {
+            permits.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((result, e) -> permits.release());
+    }
+
+    public int inFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+}
@@ -0,0 +1,575 @@
+package co.empathy.academy.search.standin;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local HTTP server that answers like an Elasticsearch 7.17 node, for as much as the application uses: {@code _bulk},
+ * {@code _search}, {@code _msearch}, index creation and deletion, settings, mappings, refresh, force merge and aliases.
+ * The application (or any test) is pointed to it through the elasticsearch.hosts system property, so ingests and
+ * searches can be run end to end, and their own overhead measured, without a cluster.
+ * <p>
+ * Bulk items are acknowledged after the configured latency, and rejected (429, es_rejected_execution_exception) at
+ * the configured rate, as a node with a full write queue would. The first documents of every index are kept, so
+ * searches return real sources; aggregations and suggesters come back empty. Responses of {@code _search} and
+ * {@code _msearch} can be replaced with fixtures: {@code search.json} and {@code msearch.json} in the fixtures
+ * directory are returned as they are.
+ * <p>
+ * Run it on its own with
+ * {@code ./mvnw exec:java -Dexec.classpathScope=test -Dexec.mainClass=co.empathy.academy.search.standin.ElasticsearchStandIn -Dexec.args="--port=9200 --bulk-latency-ms=20"}
+ */
+public class ElasticsearchStandIn implements Closeable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory JSON_FACTORY = MAPPER.getFactory();
+    private static final String REJECTED = "es_rejected_execution_exception";
+
+    /**
+     * How the stand-in behaves.
+     *
+     * @param port              port to listen on, 0 for any free one
+     * @param bulkLatencyMillis time every bulk request takes to be answered
+     * @param searchLatencyMillis time every search (or multi search) takes to be answered
+     * @param jitterMillis      up to how much more than its latency any request may take, at random
+     * @param rejectionRate     share of bulk items, and of searches, rejected as if queues were full
+     * @param storedDocuments   documents of every index kept to be returned by searches
+     * @param fixtures          directory of the response fixtures, or null
+     * @param seed              seed of the rejections
+     */
+    public record Options(int port, int bulkLatencyMillis, int searchLatencyMillis, int jitterMillis,
+                          double rejectionRate, int storedDocuments, Path fixtures, long seed) {
+
+        public static Options defaults() {
+            return new Options(0, 0, 0, 0, 0, 1_000, null, 1);
+        }
+
+        /**
+         * Reads the options from --name=value arguments, such as --port=9200 or --rejection-rate=0.01
+         */
+        public static Options parse(String[] args) {
+            var defaults = defaults();
+            Map<String, String> values = new LinkedHashMap<>();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0)
+                    throw new IllegalArgumentException("Expected --name=value, got " + arg);
+                values.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+
+            return new Options(
+                    Integer.parseInt(values.getOrDefault("port", "9200")),
+                    Integer.parseInt(values.getOrDefault("bulk-latency-ms", "" + defaults.bulkLatencyMillis())),
+                    Integer.parseInt(values.getOrDefault("search-latency-ms", "" + defaults.searchLatencyMillis())),
+                    Integer.parseInt(values.getOrDefault("jitter-ms", "" + defaults.jitterMillis())),
+                    Double.parseDouble(values.getOrDefault("rejection-rate", "" + defaults.rejectionRate())),
+                    Integer.parseInt(values.getOrDefault("stored-documents", "" + defaults.storedDocuments())),
+                    values.containsKey("fixtures") ? Path.of(values.get("fixtures")) : null,
+                    Long.parseLong(values.getOrDefault("seed", "" + defaults.seed())));
+        }
+    }
+
+    /**
+     * An index: the first documents sent to it, and how many there are in all
+     */
+    private static class Index {
+        private final Map<String, byte[]> documents = new LinkedHashMap<>();
+        private final AtomicLong count = new AtomicLong();
+    }
+
+    private final Options options;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Random random;
+    private final Map<String, Index> indices = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> aliases = new ConcurrentHashMap<>();
+    private final AtomicLong bulkRequests = new AtomicLong();
+    private final AtomicLong rejectedItems = new AtomicLong();
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong generatedIds = new AtomicLong();
+
+    private ElasticsearchStandIn(Options options) throws IOException {
+        this.options = options;
+        this.random = new Random(options.seed());
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), options.port()), 0);
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "es-stand-in");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts a stand-in, listening on the loopback interface
+     */
+    public static ElasticsearchStandIn start(Options options) throws IOException {
+        var standIn = new ElasticsearchStandIn(options);
+        standIn.server.start();
+        return standIn;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var standIn = start(Options.parse(args));
+        System.out.println("Elasticsearch stand-in listening on " + standIn.url());
+        Thread.currentThread().join();
+    }
+
+    /**
+     * @return URL to point the clients to, such as http://127.0.0.1:9200
+     */
+    public String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public long bulkRequests() {
+        return bulkRequests.get();
+    }
+
+    public long rejectedItems() {
+        return rejectedItems.get();
+    }
+
+    public long searches() {
+        return searches.get();
+    }
+
+    /**
+     * @return documents indexed into the index (or the indices behind the alias), rejected ones aside
+     */
+    public long documents(String indexOrAlias) {
+        return resolve(indexOrAlias).stream().mapToLong(index -> indices.get(index).count.get()).sum();
+    }
+
+    /**
+     * @return source of a document of the index (or the indices behind the alias), or null if it was not kept
+     */
+    public byte[] source(String indexOrAlias, String id) {
+        for (var name : resolve(indexOrAlias)) {
+            var index = indices.get(name);
+            synchronized (index.documents) {
+                var source = index.documents.get(id);
+                if (source != null)
+                    return source;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            URI uri = exchange.getRequestURI();
+            String[] path = uri.getPath().replaceAll("^/+|/+$", "").split("/+");
+            if (path.length == 1 && path[0].isEmpty())
+                path = new String[0];
+            boolean typedKeys = uri.getQuery() != null && uri.getQuery().contains("typed_keys=true");
+            byte[] body = exchange.getRequestBody().readAllBytes();
+
+            exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+            exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+
+            var response = route(method, path, body, typedKeys);
+            if (method.equals("HEAD") || response.body() == null) {
+                exchange.sendResponseHeaders(response.status(), -1);
+            } else {
+                exchange.sendResponseHeaders(response.status(), response.body().length);
+                exchange.getResponseBody().write(response.body());
+            }
+        } catch (RuntimeException e) {
+            //Answered as Elasticsearch answers a request it can't parse, instead of a connection closed on the client
+            var error = error(400, "parse_exception", String.valueOf(e.getMessage()));
+            exchange.sendResponseHeaders(error.status(), error.body().length);
+            exchange.getResponseBody().write(error.body());
+        }
+    }
+
+    private record Response(int status, byte[] body) {}
+
+    private Response route(String method, String[] path, byte[] body, boolean typedKeys) throws IOException {
+        if (path.length == 0)
+            return ok("{\"name\":\"stand-in\",\"cluster_name\":\"stand-in\",\"version\":{\"number\":\"7.17.2\","
+                    + "\"build_flavor\":\"default\",\"lucene_version\":\"8.11.1\",\"minimum_wire_compatibility_version\":\"6.8.0\","
+                    + "\"minimum_index_compatibility_version\":\"6.0.0-beta1\"},\"tagline\":\"You Know, for Search\"}");
+
+        String last = path[path.length - 1];
+        String target = path[0].startsWith("_") ? null : path[0];
+
+        return switch (last) {
+            case "_bulk" -> bulk(target, body);
+            case "_search" -> search(target, body, typedKeys);
+            case "_msearch" -> multiSearch(target, body, typedKeys);
+            case "_aliases" -> updateAliases(body);
+            case "_refresh", "_forcemerge", "_flush" -> ok("{\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}}");
+            case "_settings", "_mapping" -> ok("{\"acknowledged\":true}");
+            case "_count" -> ok("{\"count\":" + documents(target) + "}");
+            case "health" -> ok("{\"cluster_name\":\"stand-in\",\"status\":\"green\",\"timed_out\":false}");
+            default -> {
+                if (path[0].equals("_alias") && path.length == 2)
+                    yield alias(path[1]);
+                if (path.length == 1 && target != null)
+                    yield index(method, target);
+                yield error(400, "illegal_argument_exception", "The stand-in does not support " + method + " /"
+                        + String.join("/", path));
+            }
+        };
+    }
+
+    private Response index(String method, String name) {
+        switch (method) {
+            case "HEAD", "GET" -> {
+                if (!indices.containsKey(name) && !aliases.containsKey(name))
+                    return error(404, "index_not_found_exception", "no such index [" + name + "]");
+                return ok("{\"" + name + "\":{\"aliases\":{},\"mappings\":{},\"settings\":{}}}");
+            }
+            case "PUT" -> {
+                if (indices.putIfAbsent(name, new Index()) != null)
+                    return error(400, "resource_already_exists_exception", "index [" + name + "] already exists");
+                return ok("{\"acknowledged\":true,\"shards_acknowledged\":true,\"index\":\"" + name + "\"}");
+            }
+            case "DELETE" -> {
+                if (indices.remove(name) == null)
+                    return error(404, "index_not_found_exception", "no such index [" + name + "]");
+                aliases.values().forEach(behind -> behind.remove(name));
+                return ok("{\"acknowledged\":true}");
+            }
+            default -> {
+                return error(405, "illegal_argument_exception", method + " is not allowed on an index");
+            }
+        }
+    }
+
+    private Response alias(String alias) throws IOException {
+        var behind = aliases.get(alias);
+        if (behind == null || behind.isEmpty())
+            return error(404, "aliases_not_found_exception", "alias [" + alias + "] missing");
+
+        var response = MAPPER.createObjectNode();
+        for (String index : behind)
+            response.putObject(index).putObject("aliases").putObject(alias);
+        return ok(response);
+    }
+
+    private Response updateAliases(byte[] body) throws IOException {
+        for (JsonNode action : MAPPER.readTree(body).path("actions")) {
+            if (action.has("add")) {
+                var add = action.get("add");
+                aliases.computeIfAbsent(add.get("alias").asText(), alias -> ConcurrentHashMap.newKeySet())
+                        .add(add.get("index").asText());
+            } else if (action.has("remove")) {
+                var remove = action.get("remove");
+                var behind = aliases.get(remove.get("alias").asText());
+                if (behind != null)
+                    behind.remove(remove.get("index").asText());
+            } else if (action.has("remove_index")) {
+                index("DELETE", action.get("remove_index").get("index").asText());
+            }
+        }
+        return ok("{\"acknowledged\":true}");
+    }
+
+    /**
+     * Acknowledges every item of a bulk but those rejected at random. Only the action lines are parsed: sources are
+     * kept as they came, for the first documents of the index
+     */
+    private Response bulk(String target, byte[] body) throws IOException {
+        bulkRequests.incrementAndGet();
+        sleep(options.bulkLatencyMillis());
+
+        var items = new ByteArrayOutputStream();
+        boolean errors = false;
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(items)) {
+            json.writeStartArray();
+
+            int position = 0;
+            while (position < body.length) {
+                int end = lineEnd(body, position);
+                if (end == position) {
+                    position++;
+                    continue;
+                }
+                JsonNode action = MAPPER.readTree(body, position, end - position);
+                position = end + 1;
+
+                String operation = action.fieldNames().next();
+                JsonNode meta = action.get(operation);
+                String index = meta.has("_index") ? meta.get("_index").asText() : target;
+                String id = meta.has("_id") ? meta.get("_id").asText() : "stand-in-" + generatedIds.incrementAndGet();
+                byte[] source = null;
+                if (!operation.equals("delete")) {
+                    end = lineEnd(body, position);
+                    source = Arrays.copyOfRange(body, position, end);
+                    position = end + 1;
+                }
+
+                json.writeStartObject();
+                json.writeObjectFieldStart(operation);
+                json.writeStringField("_index", writeIndex(index));
+                json.writeStringField("_type", "_doc");
+                json.writeStringField("_id", id);
+                if (random.nextDouble() < options.rejectionRate()) {
+                    errors = true;
+                    rejectedItems.incrementAndGet();
+                    json.writeNumberField("status", 429);
+                    json.writeObjectFieldStart("error");
+                    json.writeStringField("type", REJECTED);
+                    json.writeStringField("reason", "rejected execution of bulk item by the stand-in");
+                    json.writeEndObject();
+                } else {
+                    int status = store(index, operation, id, source);
+                    json.writeNumberField("status", status);
+                    json.writeStringField("result", status == 404 ? "not_found" : switch (operation) {
+                        case "delete" -> "deleted";
+                        case "update" -> "updated";
+                        default -> "created";
+                    });
+                }
+                json.writeEndObject();
+                json.writeEndObject();
+            }
+
+            json.writeEndArray();
+        }
+
+        //errors goes before the items, as Elasticsearch writes it and BulkResult reads it
+        var response = new ByteArrayOutputStream(items.size() + 64);
+        response.writeBytes(("{\"took\":" + options.bulkLatencyMillis() + ",\"errors\":" + errors + ",\"items\":")
+                .getBytes(StandardCharsets.UTF_8));
+        items.writeTo(response);
+        response.write('}');
+        return ok(response.toByteArray());
+    }
+
+    /**
+     * @return status of the item
+     */
+    private int store(String indexOrAlias, String operation, String id, byte[] source) {
+        var index = indices.computeIfAbsent(writeIndex(indexOrAlias), name -> new Index());
+        synchronized (index.documents) {
+            switch (operation) {
+                case "delete" -> {
+                    if (index.documents.remove(id) == null)
+                        return 404;
+                    index.count.decrementAndGet();
+                    return 200;
+                }
+                case "update" -> {
+                    return 200;
+                }
+                default -> {
+                    index.count.incrementAndGet();
+                    if (index.documents.size() < options.storedDocuments() || index.documents.containsKey(id))
+                        index.documents.put(id, source);
+                    return 201;
+                }
+            }
+        }
+    }
+
+    private Response search(String target, byte[] body, boolean typedKeys) throws IOException {
+        searches.incrementAndGet();
+        sleep(options.searchLatencyMillis());
+        if (random.nextDouble() < options.rejectionRate())
+            return error(429, REJECTED, "rejected execution of search by the stand-in");
+
+        var fixture = fixture("search.json");
+        if (fixture != null)
+            return ok(fixture);
+        return ok(searchResponse(target, body.length == 0 ? MAPPER.createObjectNode() : MAPPER.readTree(body), typedKeys));
+    }
+
+    private Response multiSearch(String target, byte[] body, boolean typedKeys) throws IOException {
+        searches.incrementAndGet();
+        sleep(options.searchLatencyMillis());
+        if (random.nextDouble() < options.rejectionRate())
+            return error(429, REJECTED, "rejected execution of multi search by the stand-in");
+
+        var fixture = fixture("msearch.json");
+        if (fixture != null)
+            return ok(fixture);
+
+        var response = MAPPER.createObjectNode();
+        response.put("took", options.searchLatencyMillis());
+        var responses = response.putArray("responses");
+        int position = 0;
+        while (position < body.length) {
+            int end = lineEnd(body, position);
+            JsonNode header = MAPPER.readTree(body, position, end - position);
+            position = end + 1;
+            end = lineEnd(body, position);
+            JsonNode search = MAPPER.readTree(body, position, end - position);
+            position = end + 1;
+
+            String index = header.has("index") ? header.get("index").asText() : target;
+            responses.add(searchResponse(index, search, typedKeys).put("status", 200));
+        }
+        return ok(response);
+    }
+
+    /**
+     * Answers a search with the stored documents of the index, from and size applied, and an empty result for
+     * every aggregation and suggester asked for
+     */
+    private ObjectNode searchResponse(String target, JsonNode search, boolean typedKeys) {
+        var found = new ArrayList<Map.Entry<String, byte[]>>();
+        long total = 0;
+        for (String name : resolve(target)) {
+            var index = indices.get(name);
+            total += index.count.get();
+            synchronized (index.documents) {
+                index.documents.entrySet().forEach(document -> found.add(Map.entry(name + "\t" + document.getKey(),
+                        document.getValue())));
+            }
+        }
+        int from = search.path("from").asInt(0);
+        int size = search.path("size").asInt(10);
+
+        var response = MAPPER.createObjectNode();
+        response.put("took", options.searchLatencyMillis());
+        response.put("timed_out", false);
+        response.putObject("_shards").put("total", 1).put("successful", 1).put("skipped", 0).put("failed", 0);
+        var hits = response.putObject("hits");
+        hits.putObject("total").put("value", total).put("relation", "eq");
+        hits.put("max_score", 1.0);
+        var hitList = hits.putArray("hits");
+        for (int i = from; i < Math.min(found.size(), from + size); i++) {
+            String[] key = found.get(i).getKey().split("\t", 2);
+            var hit = hitList.addObject();
+            hit.put("_index", key[0]).put("_type", "_doc").put("_id", key[1]).put("_score", 1.0);
+            try {
+                hit.set("_source", MAPPER.readTree(found.get(i).getValue()));
+            } catch (IOException e) {
+                throw new IllegalStateException("Stored source of " + key[1] + " is not JSON", e);
+            }
+        }
+
+        var aggregations = search.has("aggs") ? search.get("aggs") : search.path("aggregations");
+        if (aggregations.size() > 0) {
+            var aggregationResults = response.putObject("aggregations");
+            aggregations.fieldNames().forEachRemaining(name -> aggregationResults
+                    .putObject(typedKeys ? "sterms#" + name : name)
+                    .put("doc_count_error_upper_bound", 0)
+                    .put("sum_other_doc_count", 0)
+                    .putArray("buckets"));
+        }
+
+        var suggest = search.path("suggest");
+        if (suggest.size() > 0) {
+            var suggestResults = response.putObject("suggest");
+            String globalText = suggest.path("text").asText("");
+            suggest.fields().forEachRemaining(suggester -> {
+                if (!suggester.getValue().isObject())
+                    return;
+                String type = suggester.getValue().has("phrase") ? "phrase"
+                        : suggester.getValue().has("completion") ? "completion" : "term";
+                String text = suggester.getValue().path("text").asText(globalText);
+                suggestResults.putArray(typedKeys ? type + "#" + suggester.getKey() : suggester.getKey())
+                        .addObject().put("text", text).put("offset", 0).put("length", text.length())
+                        .putArray("options");
+            });
+        }
+        return response;
+    }
+
+    /**
+     * @return indices behind the alias, the index itself, or every index if there is no target
+     */
+    private List<String> resolve(String target) {
+        if (target == null || target.equals("_all") || target.equals("*"))
+            return new ArrayList<>(indices.keySet());
+        var behind = aliases.get(target);
+        if (behind != null)
+            return behind.stream().filter(indices::containsKey).toList();
+        return indices.containsKey(target) ? List.of(target) : List.of();
+    }
+
+    /**
+     * @return the index documents sent to an alias go to
+     */
+    private String writeIndex(String indexOrAlias) {
+        var behind = aliases.get(indexOrAlias);
+        return behind == null || behind.isEmpty() ? indexOrAlias : behind.iterator().next();
+    }
+
+    private byte[] fixture(String name) throws IOException {
+        if (options.fixtures() == null)
+            return null;
+        var file = options.fixtures().resolve(name);
+        return Files.exists(file) ? Files.readAllBytes(file) : null;
+    }
+
+    private void sleep(int latencyMillis) {
+        int jitter = options.jitterMillis() > 0 ? ThreadLocalRandom.current().nextInt(options.jitterMillis() + 1) : 0;
+        if (latencyMillis + jitter == 0)
+            return;
+        try {
+            Thread.sleep(latencyMillis + jitter);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int lineEnd(byte[] body, int from) {
+        int end = from;
+        while (end < body.length && body[end] != '\n')
+            end++;
+        return end;
+    }
+
+    private static Response ok(String json) {
+        return new Response(200, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Response ok(byte[] json) {
+        return new Response(200, json);
+    }
+
+    private static Response ok(JsonNode json) throws IOException {
+        return new Response(200, MAPPER.writeValueAsBytes(json));
+    }
+
+    private static Response error(int status, String type, String reason) {
+        var error = MAPPER.createObjectNode();
+        var cause = error.putObject("error");
+        cause.putArray("root_cause").addObject().put("type", type).put("reason", reason);
+        cause.put("type", type).put("reason", reason);
+        error.put("status", status);
+        try {
+            return new Response(status, MAPPER.writeValueAsBytes(error));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package co.empathy.academy.search.standin;
+
+import co.empathy.academy.search.util.indexutils.BulkResult;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ElasticsearchStandInTest {
+    private final HttpClient http = HttpClient.newHttpClient();
+
+    @Test
+    void rejectedItemsAreReadAsRejections() throws IOException, InterruptedException {
+        var options = new ElasticsearchStandIn.Options(0, 0, 0, 0, 0.5, 10, null, 3);
+        try (var standIn = ElasticsearchStandIn.start(options)) {
+            var body = new StringBuilder();
+            for (int i = 0; i < 100; i++)
+                body.append("{\"index\":{\"_id\":\"tt").append(i).append("\"}}\n{\"tconst\":\"tt").append(i).append("\"}\n");
+
+            var response = http.send(HttpRequest.newBuilder(URI.create(standIn.url() + "/films/_bulk"))
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString())).build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            var result = BulkResult.parse(response.body());
+
+            assertTrue(result.errors());
+            assertTrue(result.failures().stream().allMatch(BulkResult.Failure::isRejection));
+            assertEquals(standIn.rejectedItems(), result.failures().size());
+            assertEquals(100 - result.failures().size(), standIn.documents("films"));
+        }
+    }
+
+    @Test
+    void searchesGoThroughAliases() throws IOException, InterruptedException {
+        try (var standIn = ElasticsearchStandIn.start(ElasticsearchStandIn.Options.defaults())) {
+            send(standIn, "PUT", "/films-1", "");
+            send(standIn, "POST", "/_aliases", "{\"actions\":[{\"add\":{\"index\":\"films-1\",\"alias\":\"films\"}}]}");
+            send(standIn, "POST", "/films/_bulk", "{\"index\":{\"_id\":\"tt1\"}}\n{\"primaryTitle\":\"Carmencita\"}\n");
+
+            var response = send(standIn, "POST", "/films/_search?typed_keys=true",
+                    "{\"size\":5,\"aggs\":{\"genres\":{\"terms\":{\"field\":\"genres\"}}}}");
+
+            assertTrue(response.contains("\"_index\":\"films-1\""));
+            assertTrue(response.contains("\"primaryTitle\":\"Carmencita\""));
+            assertTrue(response.contains("\"sterms#genres\""));
+            assertEquals(404, http.send(HttpRequest.newBuilder(URI.create(standIn.url() + "/_alias/series")).build(),
+                    HttpResponse.BodyHandlers.discarding()).statusCode());
+        }
+    }
+
+    private String send(ElasticsearchStandIn standIn, String method, String path, String body)
+            throws IOException, InterruptedException {
+        return http.send(HttpRequest.newBuilder(URI.create(standIn.url() + path))
+                .method(method, HttpRequest.BodyPublishers.ofString(body)).build(),
+                HttpResponse.BodyHandlers.ofString()).body();
+    }
+}
@@ -0,0 +1,93 @@
+package co.empathy.academy.search.util.indexutils;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkSenderTest {
+    private static final byte[] REJECTION = """
+            {"error":{"type":"es_rejected_execution_exception","reason":"rejected execution"},"status":429}"""
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ACCEPTED = """
+            {"took":1,"errors":false,"items":[{"index":{"_id":"tt0000001","status":201}}]}"""
+            .getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path directory;
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    //Requests rejected as a whole before the bulk is accepted
+    private volatile int rejected;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            boolean reject = requests.incrementAndGet() <= rejected;
+            byte[] body = reject ? REJECTION : ACCEPTED;
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(reject ? 429 : 200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void bulksRejectedAsAWholeAreSentAgain() throws Exception {
+        rejected = 2;
+        try (var client = client()) {
+            assertEquals(0, sender(client).send(bulk()));
+            assertEquals(3, requests.get());
+        }
+    }
+
+    @Test
+    void givesUpOnceRejectedTooManyTimesInARow() throws Exception {
+        rejected = Integer.MAX_VALUE;
+        try (var client = client()) {
+            var sender = sender(client);
+            assertThrows(IOException.class, () -> sender.send(bulk()));
+            assertEquals(3, requests.get());
+        }
+    }
+
+    private RestClient client() {
+        var address = server.getAddress();
+        return RestClient.builder(new HttpHost(address.getHostString(), address.getPort())).build();
+    }
+
+    private BulkSender sender(RestClient client) {
+        return new BulkSender(client, "films", new BulkThrottle(1 << 20, 1, 1_000),
+                new DeadLetterSpool(directory.resolve("films.ndjson")),
+                new IngestMetrics(new SimpleMeterRegistry()).start("full"), 3);
+    }
+
+    private static BulkBuffer bulk() throws IOException {
+        var bulk = new BulkBuffer(256);
+        bulk.write("{\"index\":{\"_id\":\"tt0000001\"}}\n{\"tconst\":\"tt0000001\"}\n".getBytes(StandardCharsets.UTF_8));
+        bulk.documentWritten();
+        return bulk;
+    }
+}
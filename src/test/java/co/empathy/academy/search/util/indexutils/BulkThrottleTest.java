@@ -0,0 +1,95 @@
+package co.empathy.academy.search.util.indexutils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkThrottleTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2_000);
+
+    @Test
+    void growsTheSizeFirstAndThenTheRequestsWhileBulksAreFast() throws InterruptedException {
+        var throttle = new BulkThrottle(1600, 4, 1_000);
+        assertEquals(800, throttle.bulkBytes());
+        assertEquals(2, throttle.allowedInFlight());
+
+        //Every third fast bulk in a row grows the size by a quarter, up to the maximum
+        send(throttle, FAST, 2);
+        assertEquals(800, throttle.bulkBytes());
+        send(throttle, FAST, 1);
+        assertEquals(1000, throttle.bulkBytes());
+        send(throttle, FAST, 9);
+        assertEquals(1600, throttle.bulkBytes());
+        assertEquals(2, throttle.allowedInFlight());
+
+        //Then the requests, one at a time, up to the number of senders
+        send(throttle, FAST, 3);
+        assertEquals(3, throttle.allowedInFlight());
+        send(throttle, FAST, 9);
+        assertEquals(1600, throttle.bulkBytes());
+        assertEquals(4, throttle.allowedInFlight());
+    }
+
+    @Test
+    void shrinksOnSlowBulksAndBacksOffOnRejections() throws InterruptedException {
+        var throttle = new BulkThrottle(1600, 4, 1_000);
+
+        //A slow bulk takes a quarter of the size and a request, and starts the count of fast ones again
+        send(throttle, FAST, 2);
+        send(throttle, SLOW, 1);
+        assertEquals(600, throttle.bulkBytes());
+        assertEquals(1, throttle.allowedInFlight());
+        send(throttle, FAST, 2);
+        assertEquals(600, throttle.bulkBytes());
+
+        //Rejections halve the size, never below a sixteenth, and the wait grows with every one in a row
+        long ceiling = 100;
+        for (int rejections = 0; rejections < 6; rejections++) {
+            throttle.acquire();
+            long backoff = throttle.release(FAST, true);
+            assertTrue(backoff >= 100 && backoff <= ceiling, backoff + " ms after " + (rejections + 1) + " rejections");
+            ceiling *= 2;
+        }
+        assertEquals(100, throttle.bulkBytes());
+        assertEquals(1, throttle.allowedInFlight());
+
+        //An accepted bulk ends the run of rejections, whatever its latency
+        throttle.acquire();
+        assertEquals(0, throttle.release(SLOW, false));
+        throttle.acquire();
+        assertTrue(throttle.release(FAST, true) <= 100);
+    }
+
+    @Test
+    void blocksSendersBeyondTheAllowedRequests() throws InterruptedException {
+        var throttle = new BulkThrottle(1600, 2, 1_000);
+        throttle.acquire();
+
+        var acquired = new CountDownLatch(1);
+        var sender = new Thread(() -> {
+            try {
+                throttle.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        sender.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        throttle.release(FAST, false);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        sender.join();
+    }
+
+    private static void send(BulkThrottle throttle, long latencyNanos, int bulks) throws InterruptedException {
+        for (int i = 0; i < bulks; i++) {
+            throttle.acquire();
+            assertEquals(0, throttle.release(latencyNanos, false));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package co.empathy.academy.search.util.indexutils;
+
+import co.empathy.academy.search.util.indexutils.TsvFileSeeker.TconstRange;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointTrackerTest {
+    private static final TconstRange FIRST = new TconstRange(0, 100);
+    private static final TconstRange SECOND = new TconstRange(100, 200);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void partitionsOnlyMoveOverBatchesWhosePredecessorsAreAcknowledged() throws IOException {
+        var store = new CheckpointStore(directory.resolve("checkpoint.json"));
+        var fingerprints = new FingerprintStore(directory.resolve("fingerprints"));
+        var start = new IngestCheckpoint("films", false, null, null, List.of(),
+                List.of(IngestCheckpoint.Partition.start(FIRST), IngestCheckpoint.Partition.start(SECOND)));
+        List<FingerprintStore.Writer> writers = List.of(fingerprints.writer(0, 0), fingerprints.writer(1, 0));
+        var tracker = new CheckpointTracker(store, start, writers);
+
+        //Later batches of the first partition come back first, so it stays where it was
+        tracker.acknowledged(batch(FIRST, 2, 4));
+        tracker.acknowledged(batch(FIRST, 1, 3));
+        assertEquals(start, tracker.checkpoint());
+        assertTrue(store.load().isEmpty());
+
+        //Partitions move on their own
+        tracker.acknowledged(batch(SECOND, 0, 101, 102));
+        assertEquals(IngestCheckpoint.Partition.start(FIRST), tracker.checkpoint().partitions().get(0));
+        assertEquals(position(SECOND, 102, 2), tracker.checkpoint().partitions().get(1));
+
+        //Once the missing batch is acknowledged, the partition moves over it and every batch waiting behind it
+        tracker.acknowledged(batch(FIRST, 0, 1, 2));
+        assertEquals(position(FIRST, 4, 4), tracker.checkpoint().partitions().get(0));
+        assertEquals(tracker.checkpoint(), store.load().orElseThrow());
+
+        for (var writer : writers)
+            writer.close();
+        var written = Fingerprints.open(fingerprints.assemble(2));
+        List<Integer> tconsts = new ArrayList<>();
+        for (int i = 0; i < written.size(); i++) {
+            tconsts.add(written.tconst(i));
+            assertEquals(written.tconst(i) * 10L, written.hash(i));
+        }
+        assertEquals(List.of(1, 2, 3, 4, 101, 102), tconsts);
+    }
+
+    @Test
+    void spooledTitlesAreWrittenWithoutAFingerprint() throws IOException {
+        var fingerprints = new FingerprintStore(directory.resolve("fingerprints"));
+        var writer = fingerprints.writer(0, 0);
+        var tracker = new CheckpointTracker(new CheckpointStore(directory.resolve("checkpoint.json")),
+                new IngestCheckpoint("films", true, null, null, List.of(), List.of(IngestCheckpoint.Partition.start(FIRST))),
+                List.of(writer));
+
+        var batch = batch(FIRST, 0, 1, 2, 3);
+        assertTrue(batch.forget(2));
+        assertFalse(batch.forget(4));
+        tracker.acknowledged(batch);
+        writer.close();
+
+        var written = Fingerprints.open(fingerprints.assemble(1));
+        assertEquals(3, written.size());
+        assertEquals(10, written.get(1));
+        assertEquals(Fingerprints.MISSING, written.get(2));
+        assertEquals(30, written.get(3));
+    }
+
+    /**
+     * Batch of titles whose fingerprint is ten times their tconst, which moves its partition up to the last of them
+     */
+    private static RawBatch batch(TconstRange range, long sequence, int... tconsts) {
+        List<RawTitle> titles = new ArrayList<>();
+        for (int tconst : tconsts)
+            titles.add(RawTitle.inSnapshot(tconst, tconst));
+
+        var batch = new RawBatch(range, sequence, titles, position(range, tconsts[tconsts.length - 1], 0));
+        for (int i = 0; i < tconsts.length; i++)
+            batch.fingerprint(i, tconsts[i] * 10L);
+        return batch;
+    }
+
+    private static IngestCheckpoint.Partition position(TconstRange range, int lastTconst, long fingerprints) {
+        return new IngestCheckpoint.Partition(range.from(), range.to(), lastTconst, List.of((long) lastTconst),
+                fingerprints, false);
+    }
+}
@@ -0,0 +1,61 @@
+package co.empathy.academy.search.util.indexutils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExternalSorterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void sortsByTheKeyColumnAcrossSpilledRuns() throws IOException {
+        var input = directory.resolve("title.episode.tsv");
+        Files.write(input, List.of(
+                "tconst\tparentTconst\tseasonNumber\tepisodeNumber",
+                "tt0000010\ttt0000003\t1\t1",
+                "tt0000011\ttt0000001\t1\t1",
+                "tt0000012\ttt0000002\t\\N\t\\N",
+                "tt0000013\ttt0000001\t1\t2",
+                "tt0000014\t\\N\t1\t1",
+                "tt0000015\ttt0000003\t1\t2"));
+        var output = directory.resolve("sorted.tsv");
+
+        //A buffer this small holds a couple of lines, so the lines are merged from several runs
+        new ExternalSorter(directory.resolve("spill"), 64).sort(input, 1, output);
+
+        assertEquals(List.of(
+                "parentTconst\ttconst\tseasonNumber\tepisodeNumber",
+                "tt0000001\ttt0000011\t1\t1",
+                "tt0000001\ttt0000013\t1\t2",
+                "tt0000002\ttt0000012\t\\N\t\\N",
+                "tt0000003\ttt0000010\t1\t1",
+                "tt0000003\ttt0000015\t1\t2"), Files.readAllLines(output));
+        try (var left = Files.list(directory.resolve("spill"))) {
+            assertEquals(0, left.count());
+        }
+    }
+
+    @Test
+    void sortsAgainOnlyOnceTheInputChanges() throws IOException {
+        var input = directory.resolve("title.principals.tsv");
+        Files.write(input, List.of("tconst\tordering\tnconst", "tt0000001\t1\tnm0000002", "tt0000002\t1\tnm0000001"));
+        var output = directory.resolve("by-name.tsv");
+
+        assertTrue(ExternalSorter.sortIfStale(input, 2, output));
+        assertFalse(ExternalSorter.sortIfStale(input, 2, output));
+
+        Files.setLastModifiedTime(input, FileTime.fromMillis(Files.getLastModifiedTime(output).toMillis() + 1000));
+        assertTrue(ExternalSorter.sortIfStale(input, 2, output));
+        assertEquals(List.of("nconst\ttconst\tordering", "nm0000001\ttt0000002\t1", "nm0000002\ttt0000001\t1"),
+                Files.readAllLines(output));
+    }
+}
@@ -0,0 +1,43 @@
+package co.empathy.academy.search.util.indexutils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestMetricsTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void jobsRunningAtTheSameTimeReportOnTheirOwn() {
+        var metrics = new IngestMetrics(registry);
+        var films = metrics.start("full");
+        var names = metrics.start("names");
+
+        var queue = new ArrayBlockingQueue<Integer>(4);
+        queue.add(1);
+        queue.add(2);
+        films.watch(IngestProgress.Stage.SEND, queue);
+        films.acknowledged(1000, 100_000, 0);
+        names.acknowledged(10, 1000, 0);
+
+        assertTrue(rate("full") > rate("names"));
+        assertEquals(2, registry.get("ingest.queue.depth").tag("type", "full").tag("stage", "send").gauge().value());
+        assertEquals(0, registry.get("ingest.queue.depth").tag("type", "names").tag("stage", "send").gauge().value());
+
+        //The films job is still reported on once the names one is done
+        metrics.finished(names);
+        assertEquals(0, rate("names"));
+        assertTrue(rate("full") > 0);
+
+        metrics.finished(films);
+        assertEquals(0, rate("full"));
+        assertEquals(1010, registry.get("ingest.documents").counter().count());
+    }
+
+    private double rate(String type) {
+        return registry.get("ingest.documents.rate").tag("type", type).gauge().value();
+    }
+}
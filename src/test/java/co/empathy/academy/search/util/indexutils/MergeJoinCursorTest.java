@@ -0,0 +1,60 @@
+package co.empathy.academy.search.util.indexutils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergeJoinCursorTest {
+
+    @Test
+    void joinsSparseAndRepeatedKeys() throws IOException {
+        var films = rows("tt0000001\tA\ntt0000002\tB\ntt0000004\tD\n");
+        var ratings = rows("tt0000002\t7.0\t10\n");
+        var akas = rows("tt0000001\ta1\ntt0000001\ta2\ntt0000003\torphan\ntt0000004\td1\n");
+        var join = new MergeJoinCursor(List.of(films, ratings, akas), Integer.MAX_VALUE);
+
+        assertTrue(join.next());
+        assertEquals(1, join.key());
+        assertNull(join.row(1));
+        assertEquals(2, join.rows(2).size());
+
+        assertTrue(join.next());
+        assertEquals(2, join.key());
+        assertEquals("tt0000002\t7.0\t10", new String(join.row(1), StandardCharsets.UTF_8));
+        assertTrue(join.rows(2).isEmpty());
+
+        assertTrue(join.next());
+        assertEquals(3, join.key());
+        assertTrue(join.rows(0).isEmpty());
+        assertEquals(1, join.rows(2).size());
+
+        assertTrue(join.next());
+        assertEquals(4, join.key());
+        assertFalse(join.next());
+    }
+
+    @Test
+    void stopsAtTheEndKey() throws IOException {
+        var join = new MergeJoinCursor(List.of(rows("tt0000001\tA\ntt0000002\tB\n")), 2);
+
+        assertTrue(join.next());
+        assertFalse(join.next());
+    }
+
+    @Test
+    void rejectsUnsortedInputs() throws IOException {
+        var films = rows("tt0000002\tB\ntt0000001\tA\n");
+
+        assertThrows(IOException.class, films::take);
+    }
+
+    private static SortedRows rows(String tsv) throws IOException {
+        var input = new ByteArrayInputStream(tsv.getBytes(StandardCharsets.UTF_8));
+        return new TsvSortedRows("test", new TsvLineReader(input));
+    }
+}
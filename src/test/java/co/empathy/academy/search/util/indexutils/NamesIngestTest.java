@@ -0,0 +1,86 @@
+package co.empathy.academy.search.util.indexutils;
+
+import co.empathy.academy.search.exception.InternalServerException;
+import co.empathy.academy.search.standin.ElasticsearchStandIn;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NamesIngestTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesEveryPersonWithTheTitlesTheyTookPartIn() throws IOException {
+        var nameBasics = directory.resolve("name.basics.tsv");
+        Files.write(nameBasics, List.of(
+                "nconst\tprimaryName\tbirthYear\tdeathYear\tprimaryProfession\tknownForTitles",
+                "nm0000001\tFred Astaire\t1899\t1987\tsoundtrack,actor\ttt0000002,tt0000003",
+                "nm0000002\tLauren Bacall\t1924\t\\N\tactress\t\\N"));
+        //Sorted by tconst, as IMDb publishes it. nm0000003 is not in name.basics, so it is left out
+        var principals = directory.resolve("title.principals.tsv");
+        Files.write(principals, List.of(
+                "tconst\tordering\tnconst\tcategory\tjob\tcharacters",
+                "tt0000001\t1\tnm0000002\tactress\t\\N\t[\"Slim\"]",
+                "tt0000002\t1\tnm0000001\tactor\t\\N\t\\N",
+                "tt0000002\t2\tnm0000003\tdirector\t\\N\t\\N",
+                "tt0000003\t1\tnm0000001\tself\t\\N\t\\N"));
+        Filmography.prepare(principals.toString());
+
+        var settings = new IngestSettings(100, 1 << 20, 1000, 1, 1, 1, 1);
+        try (var standIn = ElasticsearchStandIn.start(ElasticsearchStandIn.Options.defaults());
+             var client = RestClient.builder(HttpHost.create(standIn.url())).build()) {
+            var ingest = new NamesIngest(client, settings, new DeadLetterSpool(directory.resolve("names.ndjson")),
+                    null, new IngestMetrics(new SimpleMeterRegistry()).start("names"));
+
+            assertEquals(0, ingest.load("names", nameBasics, principals));
+            assertEquals(2, standIn.documents("names"));
+            assertEquals(MAPPER.readTree("""
+                    {"nconst":"nm0000001","primaryName":"Fred Astaire","birthYear":1899,"deathYear":1987,
+                     "primaryProfession":["soundtrack","actor"],"knownForTitles":["tt0000002","tt0000003"],
+                     "filmography":[{"tconst":"tt0000002","category":"actor"},{"tconst":"tt0000003","category":"self"}]}"""),
+                    MAPPER.readTree(standIn.source("names", "nm0000001")));
+            assertEquals(MAPPER.readTree("""
+                    {"nconst":"nm0000002","primaryName":"Lauren Bacall","birthYear":1924,
+                     "primaryProfession":["actress"],"knownForTitles":[],
+                     "filmography":[{"tconst":"tt0000001","category":"actress"}]}"""),
+                    MAPPER.readTree(standIn.source("names", "nm0000002")));
+        }
+    }
+
+    @Test
+    void failsOnceTheSendersAreGone() throws IOException {
+        var files = SyntheticDataset.write(SyntheticDataset.Shape.of(7, 2_000), directory);
+        Filmography.prepare(files.principals());
+
+        //Nothing listens on the port, so every sender fails on its first bulk
+        int port;
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        //Small bulks and a short queue: the writer has many more bulks to hand over than there is room for
+        var settings = new IngestSettings(100, 4096, 1000, 1, 1, 2, 1);
+        try (var client = RestClient.builder(new HttpHost("localhost", port)).build()) {
+            var ingest = new NamesIngest(client, settings, new DeadLetterSpool(directory.resolve("names.ndjson")),
+                    null, new IngestMetrics(new SimpleMeterRegistry()).start("names"));
+
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> assertThrows(InternalServerException.class,
+                    () -> ingest.load("names", Path.of(files.nameBasics()), Path.of(files.principals()))));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package co.empathy.academy.search.util.indexutils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotColumnTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void seeksToValuesPastTheStrideIndex() throws IOException {
+        var file = directory.resolve("primaryTitle");
+        int values = 3 * SnapshotColumn.STRIDE + 5;
+        try (var writer = new SnapshotColumn.Writer(file, SnapshotColumn.Kind.BYTES)) {
+            for (int i = 0; i < values; i++) {
+                byte[] title = ("Title " + i).getBytes(StandardCharsets.UTF_8);
+                writer.startValue();
+                writer.string(title, 0, title.length);
+            }
+        }
+
+        var cursor = SnapshotColumn.open(file, SnapshotColumn.Kind.BYTES).cursor();
+        for (int value : new int[]{values - 1, 0, SnapshotColumn.STRIDE + 7, SnapshotColumn.STRIDE}) {
+            cursor.seek(value);
+            int length = cursor.string();
+            assertEquals("Title " + value, new String(cursor.bytes(), 0, length, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void readsBackVarintsAndZigzags() throws IOException {
+        var file = directory.resolve("directors");
+        try (var writer = new SnapshotColumn.Writer(file, SnapshotColumn.Kind.VARINT_LIST)) {
+            writer.startValue();
+            writer.varint(3);
+            writer.zigzag(-1);
+            writer.zigzag(0);
+            writer.zigzag(Integer.MAX_VALUE);
+            writer.startValue();
+            writer.varint(0);
+            writer.startValue();
+            writer.varint(1);
+            writer.zigzag(9_999_999);
+        }
+
+        var cursor = SnapshotColumn.open(file, SnapshotColumn.Kind.VARINT_LIST).cursor();
+        cursor.seek(2);
+        assertEquals(1, cursor.varint());
+        assertEquals(9_999_999, cursor.zigzag());
+
+        cursor.seek(0);
+        assertEquals(3, cursor.varint());
+        assertEquals(-1, cursor.zigzag());
+        assertEquals(0, cursor.zigzag());
+        assertEquals(Integer.MAX_VALUE, cursor.zigzag());
+        assertEquals(0, cursor.varint());
+    }
+}
@@ -0,0 +1,53 @@
+package co.empathy.academy.search.util.indexutils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SymbolTableTest {
+
+    @Test
+    void workersGetTheSameSymbolForTheSameValue() throws InterruptedException, ExecutionException {
+        var table = new SymbolTable(64, 16);
+        var executor = Executors.newFixedThreadPool(4);
+        var tasks = new ArrayList<Callable<SymbolTable.Symbol[]>>();
+        for (int worker = 0; worker < 4; worker++) {
+            tasks.add(() -> {
+                var symbols = new SymbolTable.Symbol[32];
+                for (int value = 0; value < symbols.length; value++) {
+                    byte[] bytes = ("value " + value).getBytes(StandardCharsets.UTF_8);
+                    symbols[value] = table.symbol(bytes, 0, bytes.length);
+                }
+                return symbols;
+            });
+        }
+
+        var results = executor.invokeAll(tasks);
+        executor.shutdown();
+        var first = results.get(0).get();
+        for (var result : results)
+            assertArrayEquals(first, result.get());
+        assertEquals(32, table.size());
+        assertSame(first[7], table.byCode(first[7].code()));
+        assertEquals("value 7", first[7].json().getValue());
+    }
+
+    @Test
+    void valuesItCannotHoldHaveNoSymbol() {
+        var table = new SymbolTable(2, 4);
+        byte[] values = "abcdefghij".getBytes(StandardCharsets.UTF_8);
+
+        assertNull(table.symbol(values, 0, 5));
+        assertNotNull(table.symbol(values, 0, 1));
+        assertNotNull(table.symbol(values, 1, 2));
+        assertNull(table.symbol(values, 2, 3));
+        assertSame(table.symbol(values, 0, 1), table.symbol("a".getBytes(StandardCharsets.UTF_8), 0, 1));
+        assertEquals(2, table.size());
+    }
+}
@@ -0,0 +1,404 @@
+package co.empathy.academy.search.util.indexutils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a made up IMDb dataset, in the very format of the dumps: the seven TSVs, sorted by their ids, with the same
+ * headers, \N for missing values and ids of the same shape. The same shape and seed always write the very same
+ * files, so a dataset can be generated wherever it is needed (CI, a benchmark box) instead of shipped.
+ * <p>
+ * Titles are written in a single pass, every file along with title.basics. Fan-outs are heavy tailed: most titles
+ * have one or two akas and principals and a few have dozens, some people take part in many more titles than others
+ * and a few series have most of the episodes. Every file draws from a random of its own, so changing the shape of one
+ * of them leaves the others as they were.
+ * <p>
+ * Only a test and benchmark tool, never shipped with the application: {@link #main} writes a dataset from the
+ * command line.
+ */
+public class SyntheticDataset {
+    private static final Logger logger = LoggerFactory.getLogger(SyntheticDataset.class);
+    private static final int LOG_EVERY = 1_000_000;
+    private static final int LAST_YEAR = 2025;
+    private static final String[] TITLE_TYPES = {"movie", "short", "tvMovie", "video", "tvSpecial", "videoGame"};
+    private static final String[] GENRES = {"Drama", "Comedy", "Documentary", "Action", "Romance", "Thriller", "Crime",
+            "Horror", "Adventure", "Family", "Animation", "Mystery", "Fantasy", "Music", "Biography", "History",
+            "Sci-Fi", "Sport", "War", "Western", "Musical", "News", "Reality-TV", "Talk-Show", "Game-Show", "Adult"};
+    private static final String[] REGIONS = {"US", "GB", "DE", "FR", "ES", "IT", "JP", "IN", "CA", "BR", "MX", "RU",
+            "SE", "AR", "PT", "XWW", "\\N"};
+    private static final String[] LANGUAGES = {"en", "es", "fr", "de", "ja", "it", "pt", "ru", "hi", "\\N"};
+    private static final String[] CATEGORIES = {"actor", "actress", "self", "director", "writer", "producer",
+            "composer", "cinematographer", "editor", "production_designer", "archive_footage"};
+    private static final String[] PROFESSIONS = {"actor", "actress", "director", "writer", "producer", "composer",
+            "editor", "soundtrack", "miscellaneous", "camera_department"};
+    private static final String[] WORDS = {"the", "of", "love", "night", "man", "life", "day", "world", "last",
+            "dark", "house", "story", "city", "girl", "time", "dead", "king", "war", "blood", "home", "lost", "return",
+            "secret", "first", "summer", "black", "little", "american", "big", "road", "heart", "star", "river",
+            "island", "ghost", "shadow", "game", "dream", "fire", "moon", "christmas", "murder", "family", "wild",
+            "stranger", "border", "mountain", "garden", "song", "angel", "devil", "sea", "empire", "journey", "death",
+            "winter", "spring", "party", "crime", "legend", "street", "brother", "sister", "mother", "father"};
+
+    /**
+     * What the dataset looks like.
+     *
+     * @param seed           seed every random of the dataset derives from
+     * @param titles         number of titles, numbered from tt0000001 on
+     * @param people         number of people, numbered from nm0000001 on
+     * @param seriesShare    share of the titles that are series
+     * @param episodeShare   share of the titles that are episodes of a series written before them
+     * @param ratedShare     share of the titles that have a rating
+     * @param akasSkew       tail index of the number of akas per title: the lower, the more titles have lots of them
+     * @param maxAkas        most akas a title can have
+     * @param principalsSkew tail index of the number of principals per title
+     * @param maxPrincipals  most principals a title can have
+     * @param popularitySkew how much the most popular people and series are picked over the rest: 1 is uniform
+     * @param gzip           whether the files are written gzipped (*.tsv.gz), as IMDb publishes them
+     */
+    public record Shape(long seed, int titles, int people, double seriesShare, double episodeShare, double ratedShare,
+                        double akasSkew, int maxAkas, double principalsSkew, int maxPrincipals,
+                        double popularitySkew, boolean gzip) {
+
+        public Shape {
+            if (titles < 1 || people < 1 || maxAkas < 0 || maxPrincipals < 0)
+                throw new IllegalArgumentException("Titles and people must be positive, fan-outs must not be negative");
+            if (seriesShare < 0 || episodeShare < 0 || seriesShare + episodeShare > 1 || ratedShare < 0 || ratedShare > 1)
+                throw new IllegalArgumentException("Shares must be between 0 and 1");
+            if (akasSkew <= 0 || principalsSkew <= 0 || popularitySkew < 1)
+                throw new IllegalArgumentException("Skews must be positive, and popularity skew at least 1");
+        }
+
+        /**
+         * A dataset shaped like the dumps: half of the titles are episodes and 15% of them are rated, titles have
+         * around three akas and four principals, and there are as many people as titles.
+         */
+        public static Shape of(long seed, int titles) {
+            return new Shape(seed, titles, titles, 0.03, 0.5, 0.15, 1.1, 100, 0.5, 10, 3, false);
+        }
+    }
+
+    private final Shape shape;
+    private final StringBuilder line = new StringBuilder(256);
+    //Tconst of every series written so far, episodes pick their series among them
+    private int[] series = new int[1024];
+    private int seriesCount;
+
+    private SyntheticDataset(Shape shape) {
+        this.shape = shape;
+    }
+
+    /**
+     * Writes a dataset from --name=value arguments: --directory and --titles, and optionally --seed, --people,
+     * --rated-share, --akas-skew, --max-akas, --principals-skew, --max-principals, --popularity-skew and --gzip
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0)
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            values.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        if (!values.containsKey("directory") || !values.containsKey("titles"))
+            throw new IllegalArgumentException("Expected at least --directory and --titles");
+
+        int titles = Integer.parseInt(values.get("titles"));
+        var defaults = Shape.of(Long.parseLong(values.getOrDefault("seed", "1")), titles);
+        var shape = new Shape(defaults.seed(), titles,
+                Integer.parseInt(values.getOrDefault("people", "" + titles)),
+                defaults.seriesShare(), defaults.episodeShare(),
+                Double.parseDouble(values.getOrDefault("rated-share", "" + defaults.ratedShare())),
+                Double.parseDouble(values.getOrDefault("akas-skew", "" + defaults.akasSkew())),
+                Integer.parseInt(values.getOrDefault("max-akas", "" + defaults.maxAkas())),
+                Double.parseDouble(values.getOrDefault("principals-skew", "" + defaults.principalsSkew())),
+                Integer.parseInt(values.getOrDefault("max-principals", "" + defaults.maxPrincipals())),
+                Double.parseDouble(values.getOrDefault("popularity-skew", "" + defaults.popularitySkew())),
+                Boolean.parseBoolean(values.getOrDefault("gzip", "false")));
+
+        System.out.println("Synthetic dataset written: " + write(shape, Path.of(values.get("directory"))));
+    }
+
+    /**
+     * Writes the files of a dataset into the directory, replacing those that were there
+     * @return paths of the files written
+     */
+    public static ImdbFiles write(Shape shape, Path directory) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        String extension = shape.gzip() ? ".tsv.gz" : ".tsv";
+        var files = new ImdbFiles(
+                directory.resolve("title.basics" + extension).toString(),
+                directory.resolve("title.ratings" + extension).toString(),
+                directory.resolve("title.akas" + extension).toString(),
+                directory.resolve("title.crew" + extension).toString(),
+                directory.resolve("title.episode" + extension).toString(),
+                directory.resolve("title.principals" + extension).toString(),
+                directory.resolve("name.basics" + extension).toString());
+
+        var dataset = new SyntheticDataset(shape);
+        dataset.writeTitles(files);
+        dataset.writeNames(files);
+
+        logger.info("Synthetic dataset of {} titles and {} people written to {} in {} s", shape.titles(),
+                shape.people(), directory, (System.nanoTime() - start) / 1_000_000_000);
+        return files;
+    }
+
+    private void writeTitles(ImdbFiles files) throws IOException {
+        var titleRandom = random(1);
+        var ratingRandom = random(2);
+        var akaRandom = random(3);
+        var crewRandom = random(4);
+        var principalRandom = random(5);
+        var episodeRandom = random(6);
+
+        try (var basics = open(files.films(), "tconst\ttitleType\tprimaryTitle\toriginalTitle\tisAdult\tstartYear\tendYear\truntimeMinutes\tgenres");
+             var ratings = open(files.ratings(), "tconst\taverageRating\tnumVotes");
+             var akas = open(files.akas(), "titleId\tordering\ttitle\tregion\tlanguage\ttypes\tattributes\tisOriginalTitle");
+             var crew = open(files.crew(), "tconst\tdirectors\twriters");
+             var principals = open(files.principals(), "tconst\tordering\tnconst\tcategory\tjob\tcharacters");
+             var episodes = open(files.episodes(), "tconst\tparentTconst\tseasonNumber\tepisodeNumber")) {
+
+            for (int tconst = 1; tconst <= shape.titles(); tconst++) {
+                double kind = titleRandom.nextDouble();
+                boolean isSeries = kind < shape.seriesShare();
+                boolean isEpisode = !isSeries && kind < shape.seriesShare() + shape.episodeShare() && seriesCount > 0;
+
+                writeBasics(basics, titleRandom, tconst, isSeries, isEpisode);
+                if (ratingRandom.nextDouble() < shape.ratedShare())
+                    writeRating(ratings, ratingRandom, tconst);
+                writeAkas(akas, akaRandom, tconst);
+                writeCrew(crew, crewRandom, tconst);
+                writePrincipals(principals, principalRandom, tconst);
+                if (isEpisode)
+                    writeEpisode(episodes, episodeRandom, tconst);
+                if (isSeries)
+                    addSeries(tconst);
+
+                if (tconst % LOG_EVERY == 0)
+                    logger.info("{} synthetic titles written", tconst);
+            }
+        }
+    }
+
+    private void writeBasics(Writer basics, SplittableRandom random, int tconst, boolean isSeries, boolean isEpisode)
+            throws IOException {
+        String type = isSeries ? "tvSeries" : isEpisode ? "tvEpisode" : TITLE_TYPES[skewed(random, TITLE_TYPES.length, 2)];
+        int startYear = 1890 + random.nextInt(LAST_YEAR - 1889);
+
+        start("tt", tconst).append(type).append('\t');
+        int primaryTitle = line.length();
+        appendTitle(random);
+        int primaryTitleEnd = line.length();
+        line.append('\t');
+        //Most titles keep their original title, the others had it translated
+        if (random.nextInt(5) == 0)
+            appendTitle(random);
+        else
+            line.append(line, primaryTitle, primaryTitleEnd);
+        line.append('\t').append(random.nextInt(50) == 0 ? 1 : 0).append('\t');
+        appendNumberOrNull(random.nextInt(20) == 0 ? -1 : startYear).append('\t');
+        appendNumberOrNull(isSeries && random.nextBoolean() ? startYear + random.nextInt(15) : -1).append('\t');
+        appendNumberOrNull(random.nextInt(3) == 0 ? -1 : 5 + random.nextInt(175)).append('\t');
+
+        appendValues(random, GENRES, random.nextInt(4));
+        end(basics);
+    }
+
+    private void writeRating(Writer ratings, SplittableRandom random, int tconst) throws IOException {
+        //Tenths from 1.0 to 10.0, as IMDb rates
+        int rating = 10 + random.nextInt(91);
+        start("tt", tconst)
+                .append(rating / 10).append('.').append(rating % 10).append('\t')
+                .append(heavyTailed(random, 0.7, 3_000_000) + 5);
+        end(ratings);
+    }
+
+    private void writeAkas(Writer akas, SplittableRandom random, int tconst) throws IOException {
+        int count = heavyTailed(random, shape.akasSkew(), shape.maxAkas());
+        for (int ordering = 1; ordering <= count; ordering++) {
+            start("tt", tconst).append(ordering).append('\t');
+            appendTitle(random);
+            line.append('\t').append(REGIONS[skewed(random, REGIONS.length, 2)])
+                    .append('\t').append(LANGUAGES[skewed(random, LANGUAGES.length, 2)])
+                    .append("\t\\N\t\\N\t").append(ordering == 1 ? 1 : 0);
+            end(akas);
+        }
+    }
+
+    private void writeCrew(Writer crew, SplittableRandom random, int tconst) throws IOException {
+        start("tt", tconst);
+        appendPeople(random, random.nextInt(4));
+        line.append('\t');
+        appendPeople(random, random.nextInt(4));
+        end(crew);
+    }
+
+    private void writePrincipals(Writer principals, SplittableRandom random, int tconst) throws IOException {
+        int count = heavyTailed(random, shape.principalsSkew(), shape.maxPrincipals());
+        for (int ordering = 1; ordering <= count; ordering++) {
+            String category = CATEGORIES[skewed(random, CATEGORIES.length, 2)];
+            start("tt", tconst).append(ordering).append('\t');
+            appendId("nm", person(random)).append('\t').append(category).append("\t\\N\t");
+            if (category.startsWith("act"))
+                line.append("[\"Character ").append(ordering).append("\"]");
+            else
+                line.append("\\N");
+            end(principals);
+        }
+    }
+
+    private void writeEpisode(Writer episodes, SplittableRandom random, int tconst) throws IOException {
+        start("tt", tconst);
+        //Series written first are the ones picked the most: a few long running series get most episodes
+        appendId("tt", series[skewed(random, seriesCount, shape.popularitySkew())]).append('\t');
+        if (random.nextInt(10) == 0)
+            line.append("\\N\t\\N");
+        else
+            line.append(1 + skewed(random, 30, 2)).append('\t').append(1 + random.nextInt(24));
+        end(episodes);
+    }
+
+    private void writeNames(ImdbFiles files) throws IOException {
+        var random = random(7);
+        try (var names = open(files.nameBasics(), "nconst\tprimaryName\tbirthYear\tdeathYear\tprimaryProfession\tknownForTitles")) {
+            for (int nconst = 1; nconst <= shape.people(); nconst++) {
+                int birthYear = random.nextInt(4) == 0 ? -1 : 1850 + random.nextInt(160);
+                start("nm", nconst).append("Person ").append(nconst).append('\t');
+                appendNumberOrNull(birthYear).append('\t');
+                int deathYear = birthYear > 0 && random.nextInt(3) == 0 ? birthYear + 20 + random.nextInt(80) : -1;
+                appendNumberOrNull(deathYear <= LAST_YEAR ? deathYear : -1).append('\t');
+
+                appendValues(random, PROFESSIONS, random.nextInt(4));
+                line.append('\t');
+
+                int knownFor = random.nextInt(5);
+                if (knownFor == 0)
+                    line.append("\\N");
+                for (int i = 0; i < knownFor; i++) {
+                    line.append(i == 0 ? "" : ",");
+                    appendId("tt", 1 + random.nextInt(shape.titles()));
+                }
+                end(names);
+
+                if (nconst % LOG_EVERY == 0)
+                    logger.info("{} synthetic people written", nconst);
+            }
+        }
+    }
+
+    private void addSeries(int tconst) {
+        if (seriesCount == series.length)
+            series = Arrays.copyOf(series, seriesCount * 2);
+        series[seriesCount++] = tconst;
+    }
+
+    private int person(SplittableRandom random) {
+        return 1 + skewed(random, shape.people(), shape.popularitySkew());
+    }
+
+    private void appendPeople(SplittableRandom random, int count) {
+        if (count == 0)
+            line.append("\\N");
+        for (int i = 0; i < count; i++) {
+            line.append(i == 0 ? "" : ",");
+            appendId("nm", person(random));
+        }
+    }
+
+    /**
+     * Appends a comma separated list of different values, \N if there are none
+     */
+    private void appendValues(SplittableRandom random, String[] values, int count) {
+        if (count == 0)
+            line.append("\\N");
+        int first = skewed(random, values.length, 2);
+        for (int i = 0; i < count; i++)
+            line.append(i == 0 ? "" : ",").append(values[(first + i) % values.length]);
+    }
+
+    private void appendTitle(SplittableRandom random) {
+        int words = 1 + random.nextInt(4);
+        for (int i = 0; i < words; i++) {
+            String word = WORDS[skewed(random, WORDS.length, 2)];
+            line.append(i == 0 ? "" : " ").append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        }
+    }
+
+    private StringBuilder appendNumberOrNull(int number) {
+        return number < 0 ? line.append("\\N") : line.append(number);
+    }
+
+    /**
+     * Appends an IMDb id: its prefix and its number, zero padded to seven digits
+     */
+    private StringBuilder appendId(String prefix, int number) {
+        line.append(prefix);
+        for (int digits = digits(number); digits < Name.ID_DIGITS; digits++)
+            line.append('0');
+        return line.append(number);
+    }
+
+    /**
+     * Starts a line with the id of its title or person
+     */
+    private StringBuilder start(String prefix, int number) {
+        line.setLength(0);
+        return appendId(prefix, number).append('\t');
+    }
+
+    private void end(Writer writer) throws IOException {
+        line.append('\n');
+        writer.append(line);
+    }
+
+    private SplittableRandom random(int stream) {
+        return new SplittableRandom(shape.seed() * 31 + stream);
+    }
+
+    private Writer open(String path, String header) throws IOException {
+        OutputStream output = new BufferedOutputStream(Files.newOutputStream(Path.of(path)), 1 << 16);
+        if (shape.gzip())
+            output = new GZIPOutputStream(output, 1 << 16);
+        var writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+        writer.write(header);
+        writer.write('\n');
+        return writer;
+    }
+
+    /**
+     * @return a number between 0 and max whose odds of being at least k fall as (k + 1)^-tailIndex: most draws are 0
+     * or 1, and the lower the tail index, the more of them are big
+     */
+    private static int heavyTailed(SplittableRandom random, double tailIndex, int max) {
+        double draw = Math.pow(1 - random.nextDouble(), -1 / tailIndex) - 1;
+        return (int) Math.min(draw, max);
+    }
+
+    /**
+     * @return a number between 0 and bound - 1, low numbers being the likeliest the bigger the skew. 1 is uniform
+     */
+    private static int skewed(SplittableRandom random, int bound, double skew) {
+        return (int) (bound * Math.pow(random.nextDouble(), skew));
+    }
+
+    private static int digits(int number) {
+        int digits = 1;
+        for (int value = number; value >= 10; value /= 10)
+            digits++;
+        return digits;
+    }
+}
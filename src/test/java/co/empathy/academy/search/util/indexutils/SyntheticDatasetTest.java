@@ -0,0 +1,64 @@
+package co.empathy.academy.search.util.indexutils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyntheticDatasetTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void sameSeedWritesTheSameFiles() throws IOException {
+        var shape = SyntheticDataset.Shape.of(7, 500);
+        var first = SyntheticDataset.write(shape, directory.resolve("first"));
+        var second = SyntheticDataset.write(shape, directory.resolve("second"));
+
+        for (var files : List.of(List.of(first.films(), second.films()), List.of(first.akas(), second.akas()),
+                List.of(first.principals(), second.principals()), List.of(first.nameBasics(), second.nameBasics())))
+            assertEquals(-1, Files.mismatch(Path.of(files.get(0)), Path.of(files.get(1))));
+    }
+
+    @Test
+    void everyTitleIsJoinedWithItsLines() throws IOException {
+        var files = SyntheticDataset.write(SyntheticDataset.Shape.of(7, 2_000), directory);
+
+        int titles = 0;
+        int withAkas = 0;
+        int withEpisodes = 0;
+        for (var reader : BatchReader.partitioned(files, 2, 100)) {
+            try (reader) {
+                while (!reader.hasFinished()) {
+                    for (var title : reader.readBatch()) {
+                        titles++;
+                        withAkas += title.akasLines().isEmpty() ? 0 : 1;
+                        withEpisodes += title.episodesLines().isEmpty() ? 0 : 1;
+                    }
+                }
+            }
+        }
+
+        assertEquals(2_000, titles);
+        assertTrue(withAkas > 0);
+        assertTrue(withEpisodes > 0);
+    }
+
+    @Test
+    void ratingsAreWithinTheRangeOfImdb() throws IOException {
+        var files = SyntheticDataset.write(SyntheticDataset.Shape.of(7, 2_000), directory);
+
+        var lines = Files.readAllLines(Path.of(files.ratings()));
+        for (var line : lines.subList(1, lines.size())) {
+            var rating = line.split("\t")[1];
+            assertTrue(rating.matches("\\d+\\.\\d"), rating);
+            assertTrue(Double.parseDouble(rating) >= 1 && Double.parseDouble(rating) <= 10, rating);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package co.empathy.academy.search.util.indexutils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TitleSnapshotTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void everyBuildWritesANewVersionAndDeletesTheOlderOnes() throws IOException {
+        var files = SyntheticDataset.write(SyntheticDataset.Shape.of(3, 500), directory.resolve("imdb"));
+        var snapshots = directory.resolve("snapshot");
+        assertThrows(IOException.class, () -> TitleSnapshot.current(snapshots));
+
+        //A snapshot written before there were versions, straight into the directory
+        Files.createDirectories(snapshots);
+        Files.writeString(snapshots.resolve("snapshot.json"), "{}");
+
+        TitleSnapshot.build(files, snapshots);
+        var first = TitleSnapshot.current(snapshots);
+        assertEquals(snapshots.resolve("version-1"), first.directory());
+        assertEquals(500, first.rows());
+        assertFalse(Files.exists(snapshots.resolve("snapshot.json")));
+        var sizes = first.sizes();
+
+        TitleSnapshot.build(files, snapshots);
+        var second = TitleSnapshot.current(snapshots);
+        assertEquals(snapshots.resolve("version-2"), second.directory());
+        assertEquals(sizes, second.sizes());
+        assertFalse(Files.exists(first.directory()));
+        try (var entries = Files.list(snapshots)) {
+            assertEquals(2, entries.count());
+        }
+    }
+
+    @Test
+    void documentsAreThoseOfTheTsvsEvenOnceNameBasicsIsGone() throws IOException {
+        var files = SyntheticDataset.write(SyntheticDataset.Shape.of(11, 2_000), directory.resolve("imdb"));
+        var snapshots = directory.resolve("snapshot");
+        TitleSnapshot.build(files, snapshots);
+
+        List<Long> fromFiles = new ArrayList<>();
+        var fromFilesBulk = documents(BatchReader.partitioned(files, 1, 100), fromFiles);
+
+        //Names are read from the snapshot alone
+        Files.delete(Path.of(files.nameBasics()));
+        Files.delete(Path.of(files.nameBasics() + ".idx"));
+        Files.delete(Path.of(files.nameBasics() + ".dat"));
+
+        List<Long> fromSnapshot = new ArrayList<>();
+        var fromSnapshotBulk = documents(BatchReader.partitioned(TitleSnapshot.current(snapshots), 1, 100),
+                fromSnapshot);
+
+        assertEquals(2_000, fromFiles.size());
+        assertTrue(new String(fromFilesBulk, StandardCharsets.UTF_8).contains("\"primaryName\""));
+        assertArrayEquals(fromFilesBulk, fromSnapshotBulk);
+        assertEquals(fromFiles, fromSnapshot);
+    }
+
+    /**
+     * Writes the documents of every title, as bulks are written, fingerprinting them as they go
+     * @return the bulk bodies of all of them, one after the other
+     */
+    private static byte[] documents(List<BatchReader> readers, List<Long> fingerprints) throws IOException {
+        var buffer = new BulkBuffer(1 << 20);
+        for (var reader : readers) {
+            try (reader) {
+                var writer = reader.documentWriter();
+                while (!reader.hasFinished()) {
+                    for (var title : reader.readBatch()) {
+                        writer.write(title, buffer);
+                        fingerprints.add(Fingerprints.hash(buffer.bytes(), buffer.lastDocumentStart(),
+                                buffer.size() - buffer.lastDocumentStart()));
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(buffer.bytes(), buffer.size());
+    }
+}
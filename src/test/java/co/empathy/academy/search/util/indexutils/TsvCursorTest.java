@@ -0,0 +1,64 @@
+package co.empathy.academy.search.util.indexutils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TsvCursorTest {
+
+    private static final String FILM = "tt0000042\tmovie\tLe Voyage dans la Lune\tLe Voyage dans la Lune\t0\t1902\t\\N\t13\tAdventure,Comedy,Fantasy";
+
+    @Test
+    void parsesFieldsInPlace() {
+        var line = TsvCursor.tabs().reset(FILM.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(42, line.field(0).asId());
+        assertEquals("Le Voyage dans la Lune", line.field(2).asString());
+        assertFalse(line.field(4).asBool());
+        assertEquals(1902, line.field(5).asInt());
+        assertTrue(line.field(6).isNull());
+        assertEquals(0, line.asInt());
+        assertEquals("movie", line.field(1).asString());
+
+        var genres = TsvCursor.commas().reset(line.field(8));
+        List<String> values = new ArrayList<>();
+        while (genres.nextField())
+            values.add(genres.asString());
+        assertEquals(List.of("Adventure", "Comedy", "Fantasy"), values);
+
+        assertThrows(IllegalArgumentException.class, () -> line.field(9));
+    }
+
+    @Test
+    void parsesDoublesLikeTheJdk() {
+        var cursor = TsvCursor.tabs();
+        for (String value : new String[]{"8.2", "10.0", "1", "0.1", "-3.75", "1e3", "\\N"}) {
+            double expected = value.equals("\\N") ? 0 : Double.parseDouble(value);
+            assertEquals(expected, cursor.reset(value.getBytes(StandardCharsets.UTF_8)).field(0).asDouble(), value);
+        }
+    }
+
+    @Test
+    void readsLinesAcrossBufferRefills() throws IOException {
+        var text = "header\r\nfirst line\nline longer than the buffer itself\n\nlast";
+        var reader = new TsvLineReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), 0, 8);
+
+        List<String> lines = new ArrayList<>();
+        while (reader.next()) {
+            lines.add(new String(reader.bytes(), reader.start(), reader.end() - reader.start(), StandardCharsets.UTF_8));
+            if (lines.size() == 2) {
+                reader.pushBack();
+                assertTrue(reader.next());
+            }
+        }
+
+        assertEquals(List.of("header", "first line", "line longer than the buffer itself", "", "last"), lines);
+        assertEquals(text.length(), reader.position());
+    }
+}
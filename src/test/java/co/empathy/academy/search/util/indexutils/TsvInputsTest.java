@@ -0,0 +1,44 @@
+package co.empathy.academy.search.util.indexutils;
+
+import co.empathy.academy.search.util.indexutils.TsvFileSeeker.TconstRange;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TsvInputsTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void gzippedFilesAreReadWholeByASinglePartition() throws IOException {
+        var contents = new StringBuilder("tconst\ttitleType\n");
+        for (int i = 1; i <= 10_000; i++)
+            contents.append(String.format("tt%07d\tmovie\n", i));
+        byte[] bytes = contents.toString().getBytes(StandardCharsets.UTF_8);
+
+        var plain = Files.write(directory.resolve("title.basics.tsv"), bytes);
+        var gzipped = directory.resolve("title.basics.tsv.gz");
+        try (var output = new GZIPOutputStream(Files.newOutputStream(gzipped))) {
+            output.write(bytes);
+        }
+
+        assertEquals(4, TsvFileSeeker.split(plain, 4).size());
+        assertEquals(List.of(new TconstRange(0, Integer.MAX_VALUE)), TsvFileSeeker.split(gzipped, 4));
+        assertEquals(bytes.length, TsvInputs.size(gzipped));
+        assertEquals(Files.size(plain), TsvInputs.size(plain));
+
+        try (var reader = TsvInputs.openFrom(gzipped, 5_000)) {
+            assertTrue(reader.next());
+            assertEquals("tt0005000\tmovie", new String(reader.bytes(), reader.start(), reader.end() - reader.start(),
+                    StandardCharsets.UTF_8));
+        }
+    }
+}
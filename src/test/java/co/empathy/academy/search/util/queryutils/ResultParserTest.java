@@ -0,0 +1,56 @@
+package co.empathy.academy.search.util.queryutils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultParserTest {
+    private static final String HITS = """
+            {"took":3,"hits":{"total":{"value":2,"relation":"eq"},"max_score":2.5,"hits":[
+              {"_index":"films_v1","_id":"tt0000001","_score":2.5,"_source":{"primaryTitle":"Carmencita","genres":["Documentary","Short"]}},
+              {"_index":"films_v1","_id":"tt0000002","_score":null,"_source":{"primaryTitle":"Le clown et ses chiens"}}
+            ]},
+            "aggregations":{"sterms#genres_agg":{"doc_count_error_upper_bound":0,"buckets":[{"key":"Short","doc_count":2}]}},
+            "suggest":{"term#spellcheck":[{"text":"carmencita","offset":0,"length":10,"options":[]}]}}""";
+
+    private static final String NO_HITS = """
+            {"took":1,"hits":{"total":{"value":0,"relation":"eq"},"max_score":null,"hits":[]},
+            "suggest":{
+              "term#spellcheck":[{"text":"carmencitta","offset":0,"length":11,"options":[{"text":"carmencita","score":0.9,"freq":4}]}],
+              "phrase#phrase":[{"text":"carmencitta","offset":0,"length":11,"options":[{"text":"carmencita","score":0.25}]}]}}""";
+
+    @Test
+    void sourcesArePassedThroughAsTheyCame() {
+        assertEquals("""
+                [{"primaryTitle":"Carmencita","genres":["Documentary","Short"]},{"primaryTitle":"Le clown et ses chiens"}]""",
+                string(ResultParser.getResults(bytes(HITS))));
+    }
+
+    @Test
+    void hitsComeWithTheBucketsOfTheAggregation() {
+        assertEquals("""
+                {"hits":[{"id":"tt0000001","source":{"primaryTitle":"Carmencita","genres":["Documentary","Short"]},"score":2.5},\
+                {"id":"tt0000002","source":{"primaryTitle":"Le clown et ses chiens"},"score":null}],\
+                "aggs":[{"key":"Short","doc_count":2}]}""",
+                string(ResultParser.getResultsAsBytes(Optional.of("genres"), bytes(HITS))));
+    }
+
+    @Test
+    void searchesFindingNothingAreAnsweredWithTheSuggestions() {
+        assertEquals("""
+                {"hits":[],"aggs":[],"term-suggestions":[{"score":0.9,"freq":4,"text":"carmencita"}],\
+                "phrase-suggestions":[{"score":0.25,"text":"carmencita"}]}""",
+                string(ResultParser.getResultsAsBytes(Optional.empty(), bytes(NO_HITS))));
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] json) {
+        return new String(json, StandardCharsets.UTF_8);
+    }
+}
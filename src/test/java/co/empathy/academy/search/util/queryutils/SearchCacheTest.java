@@ -0,0 +1,100 @@
+package co.empathy.academy.search.util.queryutils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchCacheTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private long now;
+
+    @Test
+    void equivalentSearchesShareAKey() {
+        var first = SearchCache.Key.of(" matrix ", Optional.of(List.of("movie", "short", "movie")),
+                Optional.empty(), Optional.of("7.50"), Optional.empty(), Optional.empty(), Optional.empty(),
+                Optional.empty(), Optional.of(List.of("primaryTitle", "genres")));
+        var second = SearchCache.Key.of("matrix", Optional.of(List.of("short", "movie")),
+                Optional.empty(), Optional.of("7.5"), Optional.empty(), Optional.empty(), Optional.of(0),
+                Optional.of(10), Optional.of(List.of("genres", "primaryTitle", "genres")));
+
+        assertEquals(first, second);
+        assertNotEquals(first, SearchCache.Key.of("matrix", Optional.of(List.of("short", "movie")), Optional.empty(),
+                Optional.of("7.5"), Optional.empty(), Optional.empty(), Optional.of(10), Optional.of(10),
+                Optional.of(List.of("primaryTitle", "genres"))));
+    }
+
+    @Test
+    void responsesExpireAndTheLeastRecentlyUsedIsEvicted() {
+        var cache = new SearchCache(2, 1 << 20, 1 << 10, Duration.ofSeconds(10), registry, () -> now);
+        cache.put(key("a"), cache.generation(), response("a"));
+        cache.put(key("b"), cache.generation(), response("b"));
+        assertArrayEquals(response("a"), cache.get(key("a")));
+        cache.put(key("c"), cache.generation(), response("c"));
+
+        assertNull(cache.get(key("b")));
+        assertArrayEquals(response("a"), cache.get(key("a")));
+        now += Duration.ofSeconds(10).toNanos();
+        assertNull(cache.get(key("a")));
+
+        assertEquals(2, registry.get("search.cache.hits").counter().count());
+        assertEquals(2, registry.get("search.cache.misses").counter().count());
+        assertEquals(1, registry.get("search.cache.evictions").tag("cause", "size").counter().count());
+        assertEquals(1, registry.get("search.cache.evictions").tag("cause", "expired").counter().count());
+    }
+
+    @Test
+    void responsesOfSearchesSentBeforeAnInvalidationAreNotKept() {
+        var cache = new SearchCache(10, 1 << 20, 1 << 10, Duration.ofMinutes(5), registry, () -> now);
+        cache.put(key("a"), cache.generation(), response("a"));
+        long generation = cache.generation();
+
+        cache.invalidate();
+        cache.put(key("b"), generation, response("b"));
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytes());
+        assertNull(cache.get(key("a")));
+        assertEquals(1, registry.get("search.cache.evictions").tag("cause", "invalidated").counter().count());
+    }
+
+    @Test
+    void largeResponsesAreWeighedByTheirBytes() {
+        //Room for 100 entries, but only for 250 bytes of responses, none of them over 200
+        var cache = new SearchCache(100, 250, 200, Duration.ofMinutes(5), registry, () -> now);
+        cache.put(key("a"), cache.generation(), new byte[100]);
+        cache.put(key("b"), cache.generation(), new byte[100]);
+        cache.put(key("huge"), cache.generation(), new byte[201]);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(key("huge")));
+
+        //The least recently used responses make room for a new one, as many of them as needed
+        assertNotNull(cache.get(key("a")));
+        cache.put(key("c"), cache.generation(), new byte[100]);
+        assertNull(cache.get(key("b")));
+        assertEquals(200, cache.bytes());
+        cache.put(key("d"), cache.generation(), new byte[200]);
+        assertEquals(1, cache.size());
+        assertEquals(200, cache.bytes());
+        assertNotNull(cache.get(key("d")));
+
+        //A response replaced by another one only counts once
+        cache.put(key("d"), cache.generation(), new byte[10]);
+        assertEquals(10, cache.bytes());
+        assertEquals(3, registry.get("search.cache.evictions").tag("cause", "size").counter().count());
+    }
+
+    private static SearchCache.Key key(String q) {
+        return SearchCache.Key.of(q, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(),
+                Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+    }
+
+    private static byte[] response(String q) {
+        return ("[{\"id\":\"" + q + "\"}]").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,41 @@
+package co.empathy.academy.search.util.queryutils;
+
+import co.empathy.academy.search.exception.TooManySearchesException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchLimiterTest {
+    private final SearchLimiter limiter = new SearchLimiter(2, new SimpleMeterRegistry());
+
+    @Test
+    void searchesPastTheBoundAreRefusedUntilOneCompletes() {
+        var first = new CompletableFuture<String>();
+        var second = new CompletableFuture<String>();
+        limiter.submit(() -> first);
+        limiter.submit(() -> second);
+
+        var refused = limiter.submit(() -> CompletableFuture.completedFuture("third"));
+        var e = assertThrows(ExecutionException.class, refused::get);
+        assertInstanceOf(TooManySearchesException.class, e.getCause());
+
+        second.completeExceptionally(new IllegalStateException("Elasticsearch is down"));
+        assertEquals(1, limiter.inFlight());
+        assertEquals("fourth", limiter.submit(() -> CompletableFuture.completedFuture("fourth")).join());
+        assertEquals(1, limiter.inFlight());
+    }
+
+    @Test
+    void searchesThatFailToStartGiveTheirPermitBack() {
+        var failed = limiter.submit(() -> {
+            throw new IllegalArgumentException("Invalid search");
+        });
+
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(0, limiter.inFlight());
+    }
+}